@@ -18,13 +18,18 @@ package com.cats;
  * SPDX-License-Identifier: Apache-2.0
  */
 
+import com.cats.config.RelayRuntimeHints;
 import io.swagger.v3.oas.annotations.OpenAPIDefinition;
 import io.swagger.v3.oas.annotations.info.Info;
 import io.swagger.v3.oas.annotations.servers.Server;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.ImportRuntimeHints;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
+@ImportRuntimeHints(RelayRuntimeHints.class)
 @OpenAPIDefinition(info = @Info(title = "Relay Microservice", version = "${build.version}", description = "API documentation for usage of relay microservice."))
 public class RelayMsApplication {
 
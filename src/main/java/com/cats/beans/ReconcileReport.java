@@ -0,0 +1,38 @@
+package com.cats.beans;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+import java.time.Instant;
+import java.util.List;
+
+@Data
+@Schema(name = "ReconcileReport", description = "Represents the activity of the desired-state reconciler")
+public class ReconcileReport {
+    Boolean enabled;
+    Long intervalMs;
+    Long runs;
+    Long driftDetected;
+    Long corrections;
+    Long errors;
+    Instant lastRunAt;
+    List<DriftEvent> recentDrift;
+}
@@ -0,0 +1,79 @@
+package com.cats.config;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.utils.ClientAddress;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.reactive.config.BlockingExecutionConfigurer;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+import org.springframework.web.server.WebFilter;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Settings for the reactive server mode (built with -Dreactive). The resources call relay devices synchronously,
+ * so handler methods that do not return a reactive type are run on a bounded worker pool instead of the Netty
+ * event loop. Handlers that return a Flux or Mono, such as the bulk endpoint, are subscribed to directly.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveServerConfiguration implements WebFluxConfigurer, DisposableBean {
+
+    /**
+     * Maximum number of blocking handler invocations in flight.
+     */
+    @Value("${reactiveBlockingThreads:64}")
+    int blockingThreads;
+
+    private final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+
+    @Override
+    public void configureBlockingExecution(BlockingExecutionConfigurer configurer) {
+        executor.setCorePoolSize(blockingThreads);
+        executor.setMaxPoolSize(blockingThreads);
+        executor.setThreadNamePrefix("relay-handler-");
+        executor.initialize();
+        configurer.setExecutor(executor);
+    }
+
+    /**
+     * Copies the client address into a request attribute, since handlers running on the worker pool
+     * cannot see the exchange.
+     */
+    @Bean
+    public WebFilter clientAddressFilter() {
+        return (exchange, chain) -> {
+            InetSocketAddress remote = exchange.getRequest().getRemoteAddress();
+            if (remote != null && remote.getAddress() != null) {
+                exchange.getAttributes().put(ClientAddress.ATTRIBUTE, remote.getAddress().getHostAddress());
+            }
+            return chain.filter(exchange);
+        };
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdown();
+    }
+}
@@ -18,6 +18,7 @@ package com.cats.config;
  * SPDX-License-Identifier: Apache-2.0
  */
 
+import com.cats.relay.RackConfig;
 import com.cats.relay.RelayDeviceConfig;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.PropertySource;
@@ -30,12 +31,30 @@ import java.util.List;
  */
 @Component
 @ConfigurationProperties
-@PropertySource(value="file:./relayms/config.yml", factory =YamlPropertySourceFactory.class)
+@PropertySource(value="file:" + RelayConfiguration.CONFIG_FILE, factory =YamlPropertySourceFactory.class)
 public class RelayConfiguration
 {
+	/**
+	 * Relay device configuration file, relative to the working directory
+	 */
+	public static final String CONFIG_FILE = "./relayms/config.yml";
+
 	List<RelayDeviceConfig> relays;
 
 	String rackIp;
+
+	/**
+	 * Settings of each rack served; optional, racks named only by their devices use the defaults
+	 */
+	List<RackConfig> racks;
+
+	public List<RackConfig> getRacks() {
+		return racks;
+	}
+	public void setRacks(List<RackConfig> racks) {
+		this.racks = racks;
+	}
+
 	public List<RelayDeviceConfig> getRelays() {
 		return relays;
 	}
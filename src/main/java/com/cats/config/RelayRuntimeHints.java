@@ -0,0 +1,74 @@
+package com.cats.config;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.beans.DriftEvent;
+import com.cats.beans.HealthReport;
+import com.cats.beans.HealthStatusBean;
+import com.cats.beans.PortState;
+import com.cats.beans.ReconcileReport;
+import com.cats.dto.AuditEntry;
+import com.cats.dto.BulkSummary;
+import com.cats.dto.LatencyBucket;
+import com.cats.dto.LatencySummary;
+import com.cats.dto.RelayJobStatus;
+import com.cats.dto.RelayResponse;
+import com.cats.dto.SlotResult;
+import com.cats.dto.StateTransition;
+import com.cats.events.RelayDevicesChangedEvent;
+import com.cats.relay.RelayDeviceConfig;
+import com.cats.utils.SlotToPortMappings;
+import org.springframework.aot.hint.BindingReflectionHintsRegistrar;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+
+/**
+ * Native image hints for what Spring AOT cannot infer from the controllers alone: types bound by an ObjectMapper or
+ * Binder outside a request mapping, records streamed through a Flux of Object, the YAML property source factory
+ * and the JAXP message bundles used when parsing device XML.
+ */
+public class RelayRuntimeHints implements RuntimeHintsRegistrar {
+
+    /**
+     * Types read or written as JSON or YAML, including the Swagger schema models.
+     */
+    private static final Class<?>[] BOUND_TYPES = {
+            SlotToPortMappings.class, RelayDeviceConfig.class,
+            RelayResponse.class, SlotResult.class, BulkSummary.class, RelayJobStatus.class,
+            StateTransition.class, LatencySummary.class, LatencyBucket.class, AuditEntry.class,
+            HealthReport.class, HealthStatusBean.class, PortState.class, DriftEvent.class, ReconcileReport.class,
+            RelayDevicesChangedEvent.class
+    };
+
+    @Override
+    public void registerHints(RuntimeHints hints, ClassLoader classLoader) {
+        new BindingReflectionHintsRegistrar().registerReflectionHints(hints.reflection(), BOUND_TYPES);
+
+        hints.reflection().registerType(YamlPropertySourceFactory.class, MemberCategory.INVOKE_DECLARED_CONSTRUCTORS);
+
+        hints.resources().registerPattern("*.yml");
+        hints.resources().registerPattern("*.json");
+        hints.resources().registerPattern("banner.txt");
+
+        hints.resources().registerResourceBundle("com.sun.org.apache.xerces.internal.impl.msg.XMLMessages");
+        hints.resources().registerResourceBundle("com.sun.org.apache.xerces.internal.impl.msg.DOMMessages");
+        hints.resources().registerResourceBundle("com.sun.org.apache.xerces.internal.impl.msg.SAXMessages");
+    }
+}
@@ -0,0 +1,41 @@
+package com.cats.dto;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * Enum for the lifecycle state of an asynchronous relay job
+ */
+@Schema(name = "JobState", description = "Lifecycle state of an asynchronous relay job")
+public enum JobState {
+    QUEUED,
+    RUNNING,
+    COMPLETED,
+    CANCELLED,
+    FAILED;
+
+    /**
+     * Returns true once the job can no longer change state.
+     * @return boolean
+     */
+    public boolean isDone() {
+        return this == COMPLETED || this == CANCELLED || this == FAILED;
+    }
+}
@@ -27,8 +27,10 @@ import lombok.Data;
 @Data
 @JsonIgnoreProperties(ignoreUnknown = true)
 @JsonInclude(JsonInclude.Include.NON_NULL)
-@Schema(name = "RelayResponse", description = "Represents the response from a relay device")
+@Schema(name = "RelayResponse", description = "Represents the response from a relay device. For ON/OFF, sequence orders the command among those on the same port, and superseded is set when a newer command on the port replaced it before it ran; status is then the state the newer command achieved.")
 public class RelayResponse {
     Status status;
     Integer duration;
+    Long sequence;
+    Boolean superseded;
 }
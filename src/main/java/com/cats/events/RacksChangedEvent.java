@@ -0,0 +1,40 @@
+package com.cats.events;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Published when racks served are rebuilt with new settings or dropped, so anything kept per rack can let go of it.
+ */
+@Data
+public class RacksChangedEvent {
+
+    /**
+     * Names of racks rebuilt because their settings changed.
+     */
+    private final List<String> updated;
+
+    /**
+     * Names of racks no longer served.
+     */
+    private final List<String> removed;
+}
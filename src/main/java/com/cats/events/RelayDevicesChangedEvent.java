@@ -0,0 +1,45 @@
+package com.cats.events;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Published when relay devices are added to, rebuilt in or removed from the device registry.
+ */
+@Data
+public class RelayDevicesChangedEvent {
+
+    /**
+     * Ids of newly added devices.
+     */
+    private final List<String> added;
+
+    /**
+     * Ids of devices rebuilt because their configuration changed.
+     */
+    private final List<String> updated;
+
+    /**
+     * Ids of devices no longer configured.
+     */
+    private final List<String> removed;
+}
@@ -0,0 +1,56 @@
+package com.cats.events;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.relay.Status;
+import lombok.Data;
+
+import java.time.Instant;
+
+/**
+ * Published when the observed state of a relay port changes.
+ */
+@Data
+public class RelayStateChangedEvent {
+
+    /**
+     * Device the port belongs to.
+     */
+    private final String deviceId;
+
+    /**
+     * Port number on the device.
+     */
+    private final Integer port;
+
+    /**
+     * State observed before this change, or null the first time a port is observed.
+     */
+    private final Status previous;
+
+    /**
+     * Newly observed state.
+     */
+    private final Status current;
+
+    /**
+     * Time the new state was observed.
+     */
+    private final Instant observedAt;
+}
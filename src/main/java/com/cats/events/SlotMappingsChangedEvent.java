@@ -0,0 +1,51 @@
+package com.cats.events;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import lombok.Data;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Published when a commit, by this instance or another sharing the mapping file, changes the slot mappings of a rack.
+ */
+@Data
+public class SlotMappingsChangedEvent {
+
+    /**
+     * Rack the mappings belong to.
+     */
+    private final String rack;
+
+    /**
+     * Version of the mappings after the change.
+     */
+    private final long version;
+
+    /**
+     * New mapping of every slot that changed, N/A for a slot no longer mapped.
+     */
+    private final Map<String, String> slots;
+
+    /**
+     * Time the change was seen by this instance.
+     */
+    private final Instant changedAt;
+}
@@ -0,0 +1,38 @@
+package com.cats.exceptions;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import org.springframework.http.HttpStatusCode;
+
+/**
+ * Customised Exception for errors returned by the instance a request was forwarded to, carrying its status.
+ */
+public class ForwardedRequestException extends RuntimeException
+{
+    private final HttpStatusCode status;
+
+    public ForwardedRequestException(HttpStatusCode status, String message) {
+         super(message);
+         this.status = status;
+     }
+
+    public HttpStatusCode getStatus() {
+        return status;
+    }
+}
@@ -21,6 +21,7 @@ package com.cats.exceptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
@@ -43,6 +44,70 @@ public class GlobalExceptionhandler {
         return  e.getMessage();
     }
 	
+	@ResponseStatus( code = HttpStatus.NOT_FOUND )
+    @ExceptionHandler( value = JobNotFoundException.class )
+    public String handleJobNotFoundException( JobNotFoundException e )
+    {
+        logger.warn( "Exception Caught : " + e.getMessage() );
+        return  e.getMessage();
+    }
+
+	@ResponseStatus( code = HttpStatus.NOT_FOUND )
+    @ExceptionHandler( value = DeviceNotFoundException.class )
+    public String handleDeviceNotFoundException( DeviceNotFoundException e )
+    {
+        logger.warn( "Exception Caught : " + e.getMessage() );
+        return  e.getMessage();
+    }
+
+	@ResponseStatus( code = HttpStatus.NOT_FOUND )
+    @ExceptionHandler( value = RackNotFoundException.class )
+    public String handleRackNotFoundException( RackNotFoundException e )
+    {
+        logger.warn( "Exception Caught : " + e.getMessage() );
+        return  e.getMessage();
+    }
+
+	@ResponseStatus( code = HttpStatus.TOO_MANY_REQUESTS )
+    @ExceptionHandler( value = RackBusyException.class )
+    public String handleRackBusyException( RackBusyException e )
+    {
+        logger.warn( "Exception Caught : " + e.getMessage() );
+        return  e.getMessage();
+    }
+
+	@ResponseStatus( code = HttpStatus.CONFLICT )
+    @ExceptionHandler( value = MappingConflictException.class )
+    public String handleMappingConflictException( MappingConflictException e )
+    {
+        logger.warn( "Exception Caught : " + e.getMessage() );
+        return  e.getMessage();
+    }
+
+	@ResponseStatus( code = HttpStatus.FORBIDDEN )
+    @ExceptionHandler( value = NotificationRejectedException.class )
+    public String handleNotificationRejectedException( NotificationRejectedException e )
+    {
+        logger.warn( "Exception Caught : " + e.getMessage() );
+        return  e.getMessage();
+    }
+
+	@ResponseStatus( code = HttpStatus.BAD_REQUEST )
+    @ExceptionHandler( value = CapabilityNotSupportedException.class )
+    public String handleCapabilityNotSupportedException( CapabilityNotSupportedException e )
+    {
+        logger.warn( "Exception Caught : " + e.getMessage() );
+        return  e.getMessage();
+    }
+
+	@ResponseStatus( code = HttpStatus.TOO_MANY_REQUESTS )
+    @ExceptionHandler( value = JobRejectedException.class )
+    public String handleJobRejectedException( JobRejectedException e )
+    {
+        logger.warn( "Exception Caught : " + e.getMessage() );
+        return  e.getMessage();
+    }
+
 	@ResponseStatus( code = HttpStatus.SERVICE_UNAVAILABLE  )
     @ExceptionHandler( value = DeviceUnreachableException.class )
     public String handleDeviceUnreachableException( DeviceUnreachableException e )
@@ -51,6 +116,13 @@ public class GlobalExceptionhandler {
         return  e.getMessage();
     }
 
+    @ExceptionHandler( value = ForwardedRequestException.class )
+    public ResponseEntity<String> handleForwardedRequestException( ForwardedRequestException e )
+    {
+        logger.warn( "Exception Caught : " + e.getMessage() );
+        return ResponseEntity.status( e.getStatus() ).body( e.getMessage() );
+    }
+
 	@ResponseStatus( code = HttpStatus.EXPECTATION_FAILED  )
 	@ExceptionHandler( value = BadDeviceException.class )
 	public String handleBadDeviceException( BadDeviceException e )
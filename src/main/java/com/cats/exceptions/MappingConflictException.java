@@ -0,0 +1,36 @@
+package com.cats.exceptions;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+/**
+ * Customised Exception for slot mapping changes made against a version other than the one committed.
+ */
+public class MappingConflictException extends RuntimeException
+{
+    private final long currentVersion;
+
+    public MappingConflictException(String message, long currentVersion) {
+         super(message);
+         this.currentVersion = currentVersion;
+     }
+
+    public long getCurrentVersion() {
+        return currentVersion;
+    }
+}
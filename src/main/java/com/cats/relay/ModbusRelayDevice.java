@@ -0,0 +1,233 @@
+package com.cats.relay;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.exceptions.BadDeviceException;
+import com.cats.relay.driver.ModbusRelayDriver;
+import com.cats.relay.driver.RelayCapability;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Relay implementation for ControlByWeb devices driven over Modbus/TCP instead of HTTP and stateFull.xml.
+ * Relay N is coil N-1. Every call goes over one persistent connection per device, see {@link ModbusTcpConnection}.
+ */
+@Slf4j
+@Schema(name = "ModbusRelayDevice", description = "Relay implementation for ControlByWeb devices driven over Modbus/TCP")
+public class ModbusRelayDevice implements RelayDevice {
+
+    static final byte READ_COILS = 0x01;
+    static final byte WRITE_SINGLE_COIL = 0x05;
+    static final byte WRITE_MULTIPLE_COILS = 0x0F;
+
+    /**
+     * List of relays on the relay device.
+     */
+    protected List<Relay> relays = new ArrayList<>();
+
+    /**
+     * Maximum number of ports on the relay device.
+     */
+    Integer maxPort;
+
+    /**
+     * IP address/host address of the relay device.
+     */
+    String host;
+
+    /**
+     * Modbus/TCP port of the relay device, normally 502.
+     */
+    Integer port;
+
+    /**
+     * Device ID of the relay device.
+     */
+    String deviceId;
+
+    /**
+     * Type of the relay device.
+     */
+    String type;
+
+    /**
+     * Connection shared by the device and its ports.
+     */
+    final ModbusTcpConnection connection;
+
+    /**
+     * Constructor for ModbusRelayDevice.
+     * @param deviceId - Device ID of the relay device.
+     * @param host - IP address/host address of the relay device.
+     * @param port - Modbus/TCP port of the relay device.
+     * @param maxPort - Maximum number of ports on the relay device.
+     * @param invertRelays - List of inverted relays on the relay device.
+     * @param type - Type of the relay device.
+     * @param readTimeout - Read timeout for the relay device, in seconds.
+     */
+    public ModbusRelayDevice(String deviceId, String host, Integer port, Integer maxPort,
+                             List<Boolean> invertRelays, String type, Long readTimeout) {
+        this.host = host;
+        this.port = port;
+        this.maxPort = maxPort;
+        this.deviceId = deviceId;
+        this.type = type;
+        this.connection = new ModbusTcpConnection(deviceId, host, port, readTimeout * 1000);
+        for (int i = 1; i <= maxPort; i++) {
+            // assume false for any relays not explicitly inverted
+            boolean inverted = invertRelays != null && (i - 1) < invertRelays.size() && invertRelays.get(i - 1);
+            relays.add(new ModbusRelayPort(this, i, inverted));
+        }
+    }
+
+    @Override
+    public Relay relay(Integer i) {
+        return relays.get(i - 1);
+    }
+
+    @Override
+    public List<Relay> relays() {
+        return relays;
+    }
+
+    @Override
+    public String getHost() {
+        return host;
+    }
+
+    @Override
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    @Override
+    public Integer getPort() {
+        return port;
+    }
+
+    @Override
+    public Integer getMaxPort() {
+        return maxPort;
+    }
+
+    @Override
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public Set<RelayCapability> getCapabilities() {
+        return ModbusRelayDriver.CAPABILITIES;
+    }
+
+    /**
+     * Reads every coil in one Read Coils request.
+     * @return List<Status>
+     */
+    @Override
+    public List<Status> status() {
+        byte[] pdu = connection.request(new byte[] {
+                READ_COILS, 0, 0, (byte) (maxPort >> 8), (byte) (maxPort & 0xFF) });
+        if (pdu[0] != READ_COILS || pdu.length < 2 + (maxPort + 7) / 8) {
+            throw new BadDeviceException("Unexpected answer to Read Coils from relay device " + deviceId);
+        }
+        List<Status> statuses = new ArrayList<>(maxPort);
+        for (int coil = 0; coil < maxPort; coil++) {
+            statuses.add((pdu[2 + coil / 8] >> (coil % 8) & 1) == 1 ? Status.ON : Status.OFF);
+        }
+        log.debug("STATUS={}", statuses);
+        return statuses;
+    }
+
+    /**
+     * Sets several relays, one Write Multiple Coils request per run of adjacent ports. The requests are all written
+     * before any answer is awaited.
+     * @param states - desired state by port number, ON or OFF.
+     */
+    @Override
+    public void setStates(Map<Integer, Status> states) {
+        Map<Integer, Boolean> coils = new TreeMap<>();
+        states.forEach((port, state) -> {
+            if (state == Status.ON || state == Status.OFF) {
+                coils.put(port - 1, (state == Status.ON) != relay(port).isInverted());
+            }
+        });
+        List<CompletableFuture<byte[]>> answers = new ArrayList<>();
+        List<Boolean> run = new ArrayList<>();
+        int runStart = -1;
+        for (Map.Entry<Integer, Boolean> coil : coils.entrySet()) {
+            if (!run.isEmpty() && coil.getKey() != runStart + run.size()) {
+                answers.add(connection.send(writeCoils(runStart, run)));
+                run.clear();
+            }
+            if (run.isEmpty()) {
+                runStart = coil.getKey();
+            }
+            run.add(coil.getValue());
+        }
+        if (!run.isEmpty()) {
+            answers.add(connection.send(writeCoils(runStart, run)));
+        }
+        answers.forEach(connection::await);
+    }
+
+    /**
+     * Drops the connection to the device.
+     */
+    @Override
+    public void close() {
+        connection.close();
+    }
+
+    /**
+     * Sets one coil with Write Single Coil.
+     */
+    void writeCoil(int coil, boolean on) {
+        connection.request(new byte[] {
+                WRITE_SINGLE_COIL, (byte) (coil >> 8), (byte) (coil & 0xFF), (byte) (on ? 0xFF : 0x00), 0 });
+    }
+
+    private static byte[] writeCoils(int start, List<Boolean> values) {
+        if (values.size() == 1) {
+            return new byte[] {
+                    WRITE_SINGLE_COIL, (byte) (start >> 8), (byte) (start & 0xFF), (byte) (values.get(0) ? 0xFF : 0x00), 0 };
+        }
+        int byteCount = (values.size() + 7) / 8;
+        byte[] pdu = new byte[6 + byteCount];
+        pdu[0] = WRITE_MULTIPLE_COILS;
+        pdu[1] = (byte) (start >> 8);
+        pdu[2] = (byte) (start & 0xFF);
+        pdu[3] = (byte) (values.size() >> 8);
+        pdu[4] = (byte) (values.size() & 0xFF);
+        pdu[5] = (byte) byteCount;
+        for (int i = 0; i < values.size(); i++) {
+            if (values.get(i)) {
+                pdu[6 + i / 8] |= (byte) (1 << (i % 8));
+            }
+        }
+        return pdu;
+    }
+}
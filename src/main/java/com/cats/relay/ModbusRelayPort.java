@@ -0,0 +1,116 @@
+package com.cats.relay;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.exceptions.CapabilityNotSupportedException;
+import io.swagger.v3.oas.annotations.media.Schema;
+import org.w3c.dom.Node;
+
+/**
+ * Relay port implementation for ControlByWeb devices driven over Modbus/TCP.
+ */
+@Schema(name = "ModbusRelayPort", description = "Relay port implementation for ControlByWeb devices driven over Modbus/TCP")
+public class ModbusRelayPort implements Relay {
+
+    /**
+     * Port number of the relay device.
+     */
+    protected Integer port;
+
+    /**
+     * Parent relay device.
+     */
+    protected ModbusRelayDevice parent;
+
+    /**
+     * Whether the coil is driven inverted.
+     */
+    protected boolean inverted;
+
+    /**
+     * Constructor for ModbusRelayPort.
+     * @param device ModbusRelayDevice
+     * @param port Integer
+     * @param inverted boolean
+     */
+    public ModbusRelayPort(ModbusRelayDevice device, Integer port, boolean inverted) {
+        this.parent = device;
+        this.port = port;
+        this.inverted = inverted;
+    }
+
+    @Override
+    public void on() {
+        parent.writeCoil(port - 1, !inverted);
+    }
+
+    @Override
+    public void off() {
+        parent.writeCoil(port - 1, inverted);
+    }
+
+    /**
+     * Modbus has no pulse function; the service emulates timed operations for devices without
+     * {@link com.cats.relay.driver.RelayCapability#DEVICE_PULSE}.
+     * @param seconds Integer
+     * @throws CapabilityNotSupportedException always.
+     */
+    @Override
+    public void timed(Integer seconds) {
+        throw new CapabilityNotSupportedException("Relay device " + parent.getDeviceId() + " has no pulse timer over Modbus/TCP");
+    }
+
+    @Override
+    public Status status() {
+        return parent.status().get(port - 1);
+    }
+
+    /**
+     * Return the port status held by a node, as the coil value: 1 or true is ON, 0 or false is OFF. Modbus/TCP
+     * devices report their coils in binary, so this only serves state documents built from them.
+     * @param child Node
+     * @return Status, UNKNOWN if the node holds no coil value
+     */
+    @Override
+    public Status getPortStatus(Node child) {
+        String value = child.getTextContent().trim();
+        if (value.equals("1") || value.equalsIgnoreCase("true")) {
+            return Status.ON;
+        }
+        if (value.equals("0") || value.equalsIgnoreCase("false")) {
+            return Status.OFF;
+        }
+        return Status.UNKNOWN;
+    }
+
+    @Override
+    public Integer getPort() {
+        return port;
+    }
+
+    @Override
+    public Boolean isInverted() {
+        return inverted;
+    }
+
+    @Override
+    public RelayDevice getDevice() {
+        return parent;
+    }
+}
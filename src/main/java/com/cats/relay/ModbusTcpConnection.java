@@ -0,0 +1,255 @@
+package com.cats.relay;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.exceptions.BadDeviceException;
+import com.cats.exceptions.DeviceUnreachableException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persistent Modbus/TCP connection to one device. Requests are pipelined: any number may be written before the
+ * first answer arrives, and a reader thread matches each answer to its request by the MBAP transaction id.
+ * The connection is opened on first use and reopened on the next request after it breaks.
+ */
+@Slf4j
+final class ModbusTcpConnection implements Closeable {
+
+    /**
+     * Size of the MBAP header: transaction id, protocol id, length and unit id.
+     */
+    static final int MBAP_LENGTH = 7;
+
+    /**
+     * Unit id sent with every request; ControlByWeb devices answer any unit id over TCP.
+     */
+    static final int UNIT_ID = 1;
+
+    private final String name;
+    private final String host;
+    private final int port;
+    private final long timeoutMs;
+    private final AtomicInteger transactions = new AtomicInteger();
+
+    /**
+     * Current connection, or null until the next request opens one. Guarded by this.
+     */
+    private Link link;
+    private boolean closed;
+
+    ModbusTcpConnection(String name, String host, int port, long timeoutMs) {
+        this.name = name;
+        this.host = host;
+        this.port = port;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Send one request without waiting for its answer.
+     * @param pdu function code and data
+     * @return the answering PDU; completes exceptionally with DeviceUnreachableException if the connection fails
+     *         or no answer arrives within the timeout
+     */
+    CompletableFuture<byte[]> send(byte[] pdu) {
+        int transaction = transactions.incrementAndGet() & 0xFFFF;
+        ByteBuffer frame = ByteBuffer.allocate(MBAP_LENGTH + pdu.length)
+                .putShort((short) transaction)
+                .putShort((short) 0)
+                .putShort((short) (pdu.length + 1))
+                .put((byte) UNIT_ID)
+                .put(pdu);
+        frame.flip();
+
+        CompletableFuture<byte[]> answer = new CompletableFuture<>();
+        Link current = null;
+        try {
+            synchronized (this) {
+                current = open();
+                current.pending.put(transaction, answer);
+                while (frame.hasRemaining()) {
+                    current.channel.write(frame);
+                }
+            }
+        } catch (IOException e) {
+            if (current != null) {
+                fail(current, e);
+            }
+            answer.completeExceptionally(new DeviceUnreachableException("Could not reach relay device " + name, e));
+            return answer;
+        }
+        Link sentOn = current;
+        return answer.orTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .whenComplete((result, error) -> sentOn.pending.remove(transaction, answer));
+    }
+
+    /**
+     * Wait for an answer from {@link #send(byte[])}, unwrapping the failure it completed with.
+     * @param answer pending answer
+     * @return the answering PDU
+     * @throws DeviceUnreachableException if the device did not answer
+     * @throws BadDeviceException if the device answered with a Modbus exception
+     */
+    byte[] await(CompletableFuture<byte[]> answer) {
+        byte[] pdu;
+        try {
+            pdu = answer.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                throw new DeviceUnreachableException("Relay device " + name + " did not answer within " + timeoutMs + " ms");
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new DeviceUnreachableException(e.getCause());
+        }
+        if ((pdu[0] & 0x80) != 0) {
+            throw new BadDeviceException("Relay device " + name + " rejected function " + (pdu[0] & 0x7F)
+                    + " with Modbus exception " + (pdu.length > 1 ? pdu[1] : -1));
+        }
+        return pdu;
+    }
+
+    /**
+     * Send one request and wait for its answer.
+     */
+    byte[] request(byte[] pdu) {
+        return await(send(pdu));
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (link != null) {
+            link.close();
+            link = null;
+        }
+    }
+
+    private Link open() throws IOException {
+        if (closed) {
+            throw new IOException("connection closed");
+        }
+        if (link == null) {
+            SocketChannel channel = SocketChannel.open();
+            try {
+                channel.socket().setTcpNoDelay(true);
+                channel.socket().connect(new InetSocketAddress(host, port), (int) timeoutMs);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            Link opened = new Link(channel);
+            Thread reader = new Thread(() -> read(opened), "modbus-" + name);
+            reader.setDaemon(true);
+            reader.start();
+            link = opened;
+            log.info("Opened Modbus/TCP connection to relay device {} at {}:{}", name, host, port);
+        }
+        return link;
+    }
+
+    /**
+     * Reader loop: hand every answer to the request with the same transaction id until the connection breaks.
+     */
+    private void read(Link current) {
+        ByteBuffer header = ByteBuffer.allocate(MBAP_LENGTH);
+        try {
+            while (true) {
+                header.clear();
+                readFully(current.channel, header);
+                header.flip();
+                int transaction = header.getShort() & 0xFFFF;
+                header.getShort();
+                int length = header.getShort() & 0xFFFF;
+                if (length < 2) {
+                    throw new IOException("malformed MBAP length " + length);
+                }
+                ByteBuffer pdu = ByteBuffer.allocate(length - 1);
+                readFully(current.channel, pdu);
+                CompletableFuture<byte[]> answer = current.pending.remove(transaction);
+                if (answer != null) {
+                    answer.complete(pdu.array());
+                } else {
+                    log.debug("Discarding answer to unknown or expired transaction {} from {}", transaction, name);
+                }
+            }
+        } catch (IOException e) {
+            fail(current, e);
+        }
+    }
+
+    private static void readFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("connection closed by device");
+            }
+        }
+    }
+
+    /**
+     * Drop a broken connection and fail every request still waiting on it.
+     */
+    private void fail(Link broken, IOException cause) {
+        synchronized (this) {
+            if (link == broken) {
+                link = null;
+            }
+        }
+        broken.close();
+        if (!broken.pending.isEmpty()) {
+            log.warn("Modbus/TCP connection to relay device {} failed: {}", name, cause.getMessage());
+        }
+        broken.pending.forEach((transaction, answer) -> answer.completeExceptionally(
+                new DeviceUnreachableException("Lost connection to relay device " + name, cause)));
+        broken.pending.clear();
+    }
+
+    /**
+     * One open socket and the requests written to it that are still waiting for an answer.
+     */
+    private static final class Link {
+        final SocketChannel channel;
+        final Map<Integer, CompletableFuture<byte[]>> pending = new ConcurrentHashMap<>();
+
+        Link(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing left to release
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.cats.relay;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Data;
+
+/**
+ * Represents the settings of one rack as defined under racks in config.yml. Devices join a rack through their
+ * own rack property; any setting left out falls back to the service-wide default.
+ */
+@Data
+@Schema(name = "RackConfig", description = "Represents the settings of one rack as defined in config.yml")
+public class RackConfig {
+
+    /**
+     * The rack name, as used in the {rack} path segment.
+     */
+    private String name;
+
+    /**
+     * The slot mappings file of the rack.
+     */
+    private String mappingFile;
+
+    /**
+     * The maximum number of device calls in flight for a single bulk request on the rack.
+     */
+    private Integer bulkConcurrency;
+
+    /**
+     * The number of jobs that may run concurrently on the rack.
+     */
+    private Integer jobThreads;
+
+    /**
+     * The number of jobs that may wait for a free worker on the rack.
+     */
+    private Integer jobQueueCapacity;
+
+    /**
+     * The maximum number of single-slot requests served on the rack at once.
+     */
+    private Integer maxConcurrentCalls;
+}
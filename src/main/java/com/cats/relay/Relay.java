@@ -63,4 +63,22 @@ public interface Relay {
      */
     Boolean isInverted();
 
+    /**
+     * Get the relay device this relay belongs to.
+     * @return - RelayDevice.
+     */
+    RelayDevice getDevice();
+
+    /**
+     * Convert a state read from the device into the state as commanded; inverted relays read the opposite.
+     * @param raw - state reported by the device.
+     * @return - ON|OFF as commanded, or UNKNOWN.
+     */
+    default Status toLogical(Status raw) {
+        if (raw == null || raw == Status.UNKNOWN || !Boolean.TRUE.equals(isInverted())) {
+            return raw;
+        }
+        return raw == Status.ON ? Status.OFF : Status.ON;
+    }
+
 }
@@ -18,7 +18,13 @@ package com.cats.relay;
  * SPDX-License-Identifier: Apache-2.0
  */
 
+import com.cats.exceptions.CapabilityNotSupportedException;
+import com.cats.relay.driver.RelayCapability;
+
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Interface for Relay Device Details
@@ -41,4 +47,44 @@ public interface RelayDevice {
 
     String getType();
 
+    /**
+     * Optional features of this device model; see {@link com.cats.relay.driver.RelayDriver}.
+     * @return Set of RelayCapability, empty by default.
+     */
+    default Set<RelayCapability> getCapabilities() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Set several ports at once. Devices that can change many relays in one request should override this;
+     * the default falls back to one call per port.
+     * @param states - desired state by port number, ON or OFF.
+     */
+    default void setStates(Map<Integer, Status> states) {
+        states.forEach((port, state) -> {
+            if (state == Status.ON) {
+                relay(port).on();
+            } else if (state == Status.OFF) {
+                relay(port).off();
+            }
+        });
+    }
+
+    /**
+     * Read the port states out of a state notification sent by the device, for devices with
+     * {@link RelayCapability#PUSH_NOTIFICATIONS}.
+     * @param body - notification as received.
+     * @return List of Status, one per port starting at port 1.
+     * @throws CapabilityNotSupportedException if the device does not send notifications.
+     */
+    default List<Status> parseNotification(String body) {
+        throw new CapabilityNotSupportedException("Relay device " + getDeviceId() + " does not send state notifications");
+    }
+
+    /**
+     * Release any connection held to the device, once it is removed or replaced. Does nothing by default.
+     */
+    default void close() {
+    }
+
 }
\ No newline at end of file
@@ -62,6 +62,11 @@ public class RelayDeviceConfig {
      */
     private List<Boolean> invertRelays = new ArrayList<>();
 
+    /**
+     * The rack the relay device belongs to; the default rack when not set.
+     */
+    private String rack;
+
 
 
     /**
@@ -149,6 +154,23 @@ public class RelayDeviceConfig {
         this.deviceId = deviceId;
     }
 
+    /**
+     * @return String
+     * Returns the rack the relay device belongs to.
+     */
+    @JsonProperty
+    public String getRack() {
+        return rack;
+    }
+
+    /**
+     * Sets the rack the relay device belongs to.
+     */
+    @JsonProperty("rack")
+    public void setRack(String rack) {
+        this.rack = rack;
+    }
+
     /**
      * @return List<Boolean>
      * Returns the invertRelays list.
@@ -0,0 +1,46 @@
+package com.cats.relay;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * Enum for operations that can be fanned out across the slots of a rack.
+ */
+@Schema(name = "RelayOperation", description = "Operation to perform on each slot of a bulk relay request")
+public enum RelayOperation {
+    ON,
+    OFF,
+    STATUS,
+    POWER_CYCLE;
+
+    /**
+     * Parses the operation from a request path segment, ignoring case.
+     * @param operation - i.e. on, off, status, power_cycle
+     * @return RelayOperation
+     * @throws IllegalArgumentException if the operation is not known
+     */
+    public static RelayOperation fromString(String operation) {
+        try {
+            return RelayOperation.valueOf(operation.toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new IllegalArgumentException(operation + " is an invalid operation setting. ");
+        }
+    }
+}
@@ -20,6 +20,8 @@ package com.cats.relay;
 
 import com.cats.exceptions.BadDeviceException;
 import com.cats.exceptions.DeviceUnreachableException;
+import com.cats.relay.driver.RelayCapability;
+import com.cats.relay.driver.WebRelayXWR4R1Driver;
 import io.swagger.v3.oas.annotations.media.Schema;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpStatus;
@@ -39,6 +41,8 @@ import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Relay implementation for WebRelay-Quad devices.
@@ -93,6 +97,11 @@ public class WebRelayXWR4R1 implements RelayDevice {
      */
     Long readTimeout;
 
+    /**
+     * Client shared by the device and its ports, so every call goes through the same connection pool.
+     */
+    final WebClient client = WebClient.create();
+
 
     /**
      * Constructor for WebRelayXWR4R1.
@@ -213,6 +222,14 @@ public class WebRelayXWR4R1 implements RelayDevice {
         return type;
     }
 
+    /**
+     * Returns the optional features of the WebRelay-Quad.
+     */
+    @Override
+    public Set<RelayCapability> getCapabilities() {
+        return WebRelayXWR4R1Driver.CAPABILITIES;
+    }
+
     /**
      * Determines the status for each relay device.
      * @return List<Status>
@@ -220,8 +237,6 @@ public class WebRelayXWR4R1 implements RelayDevice {
      */
     @Override
     public List<Status> status() {
-        WebClient client = WebClient.create();
-
         try {
             String xml = client.get()
                     .uri(uriBuilder -> uriBuilder
@@ -251,6 +266,58 @@ public class WebRelayXWR4R1 implements RelayDevice {
         }
     }
 
+    /**
+     * Sets several relays in a single request to stateFull.xml, one relayNState parameter per port.
+     * @param states - desired state by port number, ON or OFF.
+     * @throws BadDeviceException
+     */
+    @Override
+    public void setStates(Map<Integer, Status> states) {
+        if (states.isEmpty()) {
+            return;
+        }
+        try {
+            client.get()
+                    .uri(uriBuilder -> {
+                        uriBuilder.scheme("http")
+                                .host(getHost())
+                                .port(getPort())
+                                .path(STATE_PATH);
+                        states.forEach((port, state) -> {
+                            if (state == Status.ON || state == Status.OFF) {
+                                boolean on = state == Status.ON;
+                                uriBuilder.queryParam("relay" + port + "State", on != relay(port).isInverted() ? 1 : 0);
+                            }
+                        });
+                        return uriBuilder.build();
+                    })
+                    .retrieve()
+                    .onStatus(HttpStatusCode::isError,
+                            clientResponse ->
+                                    Mono.error(new BadDeviceException(clientResponse.statusCode()
+                                            + HttpStatus.valueOf(clientResponse.statusCode().value()).getReasonPhrase())))
+                    .bodyToMono(Void.class)
+                    .share().block(Duration.ofSeconds(readTimeout));
+        } catch (IllegalStateException ex) {
+            throw new DeviceUnreachableException(ex);
+        }
+    }
+
+    /**
+     * Parses a state notification, which the device sends in the same format as stateFull.xml.
+     * @param body - notification as received.
+     * @return List<Status>
+     * @throws BadDeviceException
+     */
+    @Override
+    public List<Status> parseNotification(String body) {
+        try {
+            return parse(body);
+        } catch (ParserConfigurationException | SAXException | IOException | RuntimeException ex) {
+            throw new BadDeviceException("Parsing exception on relay notification", ex);
+        }
+    }
+
     /**
      * Parses the XML response from the relay device.
      * @param xml - XML response from the relay device.
@@ -262,6 +329,9 @@ public class WebRelayXWR4R1 implements RelayDevice {
     protected List<Status> parse(String xml) throws ParserConfigurationException, SAXException, IOException {
         log.debug("xml = " + xml);
         DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
+        // state documents never carry a DTD; refusing one keeps pushed notifications from reaching external entities
+        builderFactory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        builderFactory.setExpandEntityReferences(false);
 
         DocumentBuilder builder = builderFactory.newDocumentBuilder();
 
@@ -52,6 +52,11 @@ public class WebRelayXWR4R1Port implements Relay {
      */
     protected Long readTimeout;
 
+    /**
+     * Client used to call the relay device.
+     */
+    protected WebClient client;
+
     /**
      * Constructor for WebRelayXWR4R1Port.
      * @param device RelayDevice
@@ -63,6 +68,7 @@ public class WebRelayXWR4R1Port implements Relay {
         this.parent = device;
         this.port = port;
         this.readTimeout = readTimeout;
+        this.client = device instanceof WebRelayXWR4R1 ? ((WebRelayXWR4R1) device).client : WebClient.create();
     }
 
     /**
@@ -89,6 +95,15 @@ public class WebRelayXWR4R1Port implements Relay {
         return port;
     }
 
+    /**
+     * Returns the relay device this port belongs to.
+     * @return RelayDevice
+     */
+    @Override
+    public RelayDevice getDevice() {
+        return parent;
+    }
+
     /**
      * Returns false as the port is not inverted.
      * @return Boolean
@@ -103,7 +118,6 @@ public class WebRelayXWR4R1Port implements Relay {
      */
     @Override
     public void on() {
-        WebClient client = WebClient.create();
         log.info("url " + "http://" + parent.getHost() + ":" + parent.getPort());
         try {
             client.get()
@@ -130,7 +144,6 @@ public class WebRelayXWR4R1Port implements Relay {
      */
     @Override
     public void off() {
-        WebClient client = WebClient.create();
         try {
             client.get()
                     .uri(uriBuilder -> uriBuilder
@@ -157,7 +170,6 @@ public class WebRelayXWR4R1Port implements Relay {
      */
     @Override
     public void timed(Integer seconds) {
-        WebClient client = WebClient.create();
         try {
             client.get()
                     .uri(uriBuilder -> uriBuilder
@@ -0,0 +1,57 @@
+package com.cats.relay.driver;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.relay.ModbusRelayDevice;
+import com.cats.relay.RelayDevice;
+import com.cats.relay.RelayDeviceConfig;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Driver for ControlByWeb devices driven over Modbus/TCP, reading and writing the relays as coils.
+ */
+public class ModbusRelayDriver implements RelayDriver {
+
+    public static final String TYPE = "MODBUS";
+
+    /**
+     * Write Multiple Coils sets several relays in one frame; Modbus has no pulse function.
+     */
+    public static final Set<RelayCapability> CAPABILITIES =
+            Collections.unmodifiableSet(EnumSet.of(RelayCapability.BULK_COMMAND));
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public Set<RelayCapability> getCapabilities() {
+        return CAPABILITIES;
+    }
+
+    @Override
+    public RelayDevice create(RelayDeviceConfig config, Long readTimeout) {
+        return new ModbusRelayDevice(config.getDeviceId(), config.getHost(), config.getPort(), config.getMaxPort(),
+                config.getInvertRelays(), TYPE, readTimeout);
+    }
+}
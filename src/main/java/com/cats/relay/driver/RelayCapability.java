@@ -0,0 +1,40 @@
+package com.cats.relay.driver;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * Enum for optional features of a relay device model, used to pick the cheapest way to carry out an operation
+ */
+@Schema(name = "RelayCapability", description = "Optional feature of a relay device model")
+public enum RelayCapability {
+    /**
+     * Several ports can be set in one request.
+     */
+    BULK_COMMAND,
+    /**
+     * The device times a pulse itself, so a timed operation is one request.
+     */
+    DEVICE_PULSE,
+    /**
+     * The device can send state changes to the service instead of waiting to be polled.
+     */
+    PUSH_NOTIFICATIONS
+}
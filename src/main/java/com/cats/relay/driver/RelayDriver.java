@@ -0,0 +1,52 @@
+package com.cats.relay.driver;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.relay.RelayDevice;
+import com.cats.relay.RelayDeviceConfig;
+
+import java.util.Set;
+
+/**
+ * Service provider interface for relay device models. Implementations are found with {@link java.util.ServiceLoader},
+ * so a new model is supported by adding a jar that lists its driver in
+ * {@code META-INF/services/com.cats.relay.driver.RelayDriver}.
+ */
+public interface RelayDriver {
+
+    /**
+     * The relay type this driver handles, as given by {@code type} in config.yml.
+     * @return String
+     */
+    String getType();
+
+    /**
+     * Optional features of this model.
+     * @return Set of RelayCapability
+     */
+    Set<RelayCapability> getCapabilities();
+
+    /**
+     * Build a device from its configuration.
+     * @param config - device configuration from config.yml.
+     * @param readTimeout - seconds to wait for the device to answer.
+     * @return RelayDevice
+     */
+    RelayDevice create(RelayDeviceConfig config, Long readTimeout);
+}
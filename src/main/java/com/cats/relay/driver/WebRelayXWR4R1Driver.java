@@ -0,0 +1,58 @@
+package com.cats.relay.driver;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.relay.RelayDevice;
+import com.cats.relay.RelayDeviceConfig;
+import com.cats.relay.WebRelayXWR4R1;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Driver for ControlByWeb WebRelay-Quad (XWR4R1) devices, driven over HTTP through stateFull.xml.
+ */
+public class WebRelayXWR4R1Driver implements RelayDriver {
+
+    public static final String TYPE = "XWR4R1";
+
+    /**
+     * stateFull.xml takes a relayNState parameter per port and a pulse mode with a device-side timer, and the device
+     * can post its state to a remote server when it changes.
+     */
+    public static final Set<RelayCapability> CAPABILITIES = Collections.unmodifiableSet(EnumSet.of(
+            RelayCapability.BULK_COMMAND, RelayCapability.DEVICE_PULSE, RelayCapability.PUSH_NOTIFICATIONS));
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public Set<RelayCapability> getCapabilities() {
+        return CAPABILITIES;
+    }
+
+    @Override
+    public RelayDevice create(RelayDeviceConfig config, Long readTimeout) {
+        return new WebRelayXWR4R1(config.getDeviceId(), config.getHost(), config.getPort(), config.getMaxPort(),
+                config.getInvertRelays(), TYPE, readTimeout);
+    }
+}
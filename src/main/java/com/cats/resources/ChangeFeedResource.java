@@ -0,0 +1,65 @@
+package com.cats.resources;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.dto.ChangeFeed;
+import com.cats.service.ChangeFeedService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Change Feed Resource defines the RESTful API for following changes to slot mappings and relay port states
+ */
+@RestController
+@RequestMapping("/changes")
+@Tag(name = "Change Feed", description = "RESTful API for fetching only what changed in the slot mappings and relay port states.")
+public class ChangeFeedResource {
+
+    @Autowired
+    ChangeFeedService changeFeedService;
+
+    @Operation(summary = "Get Changes", description = "Get the slot mapping and port state changes after a sequence number, oldest first. Pass the returned epoch and sequence on the next call.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "operation successful",
+                    content = { @Content(mediaType = "application/json", schema = @Schema(implementation = ChangeFeed.class)) }),
+            @ApiResponse(responseCode = "400", description = "Invalid limit."),
+            @ApiResponse(responseCode = "410", description = "The changes after since are no longer kept; reload the mappings and port states, then continue from the returned sequence.",
+                    content = { @Content(mediaType = "application/json", schema = @Schema(implementation = ChangeFeed.class)) })
+    })
+    @GetMapping(value = "", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<ChangeFeed> getChanges(@Parameter(description="Sequence of the last change already seen. Default: 0, everything still kept") @RequestParam(value = "since", defaultValue = "0") Long since,
+                                                 @Parameter(description="Epoch returned with since; a different epoch means this instance restarted") @RequestParam(value = "epoch", required = false) Long epoch,
+                                                 @Parameter(description="Maximum number of changes. Default: 1000") @RequestParam(value = "limit", defaultValue = "1000") Integer limit) {
+        if (limit < 1 || limit > 10000) {
+            throw new IllegalArgumentException("Limit " + limit + " must be between 1 and 10000.");
+        }
+        ChangeFeed feed = changeFeedService.getChanges(since, epoch, limit);
+        return ResponseEntity.status(feed.getResyncRequired() ? HttpStatus.GONE : HttpStatus.OK).body(feed);
+    }
+}
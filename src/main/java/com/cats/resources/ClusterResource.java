@@ -0,0 +1,53 @@
+package com.cats.resources;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.dto.ClusterStatus;
+import com.cats.service.ClusterService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+
+/**
+ * Cluster Resource defines the RESTful API peers probe each other on, also useful to see which devices an instance owns
+ */
+@RestController
+@RequestMapping("/cluster")
+@Tag(name = "Cluster", description = "RESTful API for the view an instance has of its cluster peers.")
+public class ClusterResource {
+
+    @Autowired
+    ClusterService clusterService;
+
+    @Operation(summary = "Get Cluster Status", description = "Get the peers this instance considers up and the relay devices it owns")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "operation successful",
+                    content = { @Content(mediaType = "application/json", schema = @Schema(implementation = ClusterStatus.class)) })
+    })
+    @GetMapping(value = "", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ClusterStatus getStatus() {
+        return clusterService.getStatus();
+    }
+}
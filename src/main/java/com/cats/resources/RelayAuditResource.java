@@ -0,0 +1,99 @@
+package com.cats.resources;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.dto.AuditEntry;
+import com.cats.service.RelayAuditJournal;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Relay Audit Resource defines the RESTful API for the relay command audit journal
+ */
+@RestController
+@RequestMapping("/audit")
+@Tag(name = "Relay Audit", description = "RESTful API for querying and exporting the journal of relay commands.")
+public class RelayAuditResource {
+
+    private static final String CSV_HEADER = "timestamp,slot,deviceId,port,operation,success,latencyMicros,client,source\n";
+
+    @Autowired
+    RelayAuditJournal relayAuditJournal;
+
+    @Operation(summary = "Query Audit Journal", description = "Find journaled relay commands, newest first, optionally filtered by slot, device, port and time range.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "operation successful", useReturnTypeSchema = true),
+            @ApiResponse(responseCode = "400", description = "Invalid limit.")
+    })
+    @GetMapping(value = "", produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<AuditEntry> query(@Parameter(description="Only commands on this slot") @RequestParam(value = "slot", required = false) Integer slot,
+                                  @Parameter(description="Only commands on this relay device") @RequestParam(value = "deviceId", required = false) String deviceId,
+                                  @Parameter(description="Only commands on this device port") @RequestParam(value = "port", required = false) Integer port,
+                                  @Parameter(description="Start of range in epoch milliseconds. Default: beginning of the journal") @RequestParam(value = "from", required = false) Long from,
+                                  @Parameter(description="End of range in epoch milliseconds. Default: now") @RequestParam(value = "to", required = false) Long to,
+                                  @Parameter(description="Maximum number of entries. Default: 100") @RequestParam(value = "limit", defaultValue = "100") Integer limit) {
+        if (limit < 1 || limit > 10000) {
+            throw new IllegalArgumentException("Limit " + limit + " must be between 1 and 10000.");
+        }
+        return relayAuditJournal.query(slot, deviceId, port, start(from), end(to), limit);
+    }
+
+    @Operation(summary = "Export Audit Journal", description = "Export journaled relay commands in a time range as CSV, newest first.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "operation successful")
+    })
+    @GetMapping(value = "/export", produces = "text/csv")
+    public ResponseEntity<String> export(@Parameter(description="Start of range in epoch milliseconds. Default: beginning of the journal") @RequestParam(value = "from", required = false) Long from,
+                                         @Parameter(description="End of range in epoch milliseconds. Default: now") @RequestParam(value = "to", required = false) Long to) {
+        StringBuilder csv = new StringBuilder(CSV_HEADER);
+        for (AuditEntry entry : relayAuditJournal.query(null, null, null, start(from), end(to), Integer.MAX_VALUE)) {
+            csv.append(entry.getTimestamp()).append(',')
+                    .append(entry.getSlot()).append(',')
+                    .append(entry.getDeviceId()).append(',')
+                    .append(entry.getPort()).append(',')
+                    .append(entry.getOperation()).append(',')
+                    .append(entry.getSuccess()).append(',')
+                    .append(entry.getLatencyMicros()).append(',')
+                    .append(entry.getClient() == null ? "" : entry.getClient()).append(',')
+                    .append(entry.getSource()).append('\n');
+        }
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"relay-audit.csv\"")
+                .body(csv.toString());
+    }
+
+    private static Instant start(Long from) {
+        return from == null ? Instant.EPOCH : Instant.ofEpochMilli(from);
+    }
+
+    private static Instant end(Long to) {
+        return to == null ? Instant.now() : Instant.ofEpochMilli(to);
+    }
+}
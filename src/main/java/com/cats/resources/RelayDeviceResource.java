@@ -0,0 +1,109 @@
+package com.cats.resources;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.events.RelayDevicesChangedEvent;
+import com.cats.exceptions.DeviceNotFoundException;
+import com.cats.relay.RelayDeviceConfig;
+import com.cats.service.RelayDeviceManager;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Relay Device Resource defines the RESTful API for registering and removing relay devices at runtime
+ */
+@RestController
+@RequestMapping("/devices")
+@Tag(name = "Relay Devices", description = "RESTful API for registering, updating and removing relay devices at runtime. Changes are persisted to config.yml.")
+public class RelayDeviceResource {
+
+    @Autowired
+    RelayDeviceManager relayDeviceManager;
+
+    @Operation(summary = "Get Relay Devices", description = "Get the configuration of every registered relay device")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "operation successful", useReturnTypeSchema = true)
+    })
+    @GetMapping(value = "", produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<RelayDeviceConfig> getDevices() {
+        return relayDeviceManager.getDeviceConfigs();
+    }
+
+    @Operation(summary = "Get Relay Device", description = "Get the configuration of a registered relay device")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "operation successful",
+                    content = { @Content(mediaType = "application/json", schema = @Schema(implementation = RelayDeviceConfig.class)) }),
+            @ApiResponse(responseCode = "404", description = "Relay device not found.")
+    })
+    @GetMapping(value = "/{deviceId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public RelayDeviceConfig getDevice(@Parameter(description="Relay device to query") @PathVariable("deviceId") String deviceId) {
+        return relayDeviceManager.getDeviceConfigs().stream()
+                .filter(config -> config.getDeviceId().equals(deviceId))
+                .findFirst()
+                .orElseThrow(() -> new DeviceNotFoundException("No relay with device id present " + deviceId));
+    }
+
+    @Operation(summary = "Register Relay Device", description = "Add a relay device to the rack")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "201", description = "device registered",
+                    content = { @Content(mediaType = "application/json", schema = @Schema(implementation = RelayDevicesChangedEvent.class)) }),
+            @ApiResponse(responseCode = "400", description = "Invalid or duplicate relay device.")
+    })
+    @PostMapping(value = "", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseStatus(HttpStatus.CREATED)
+    public RelayDevicesChangedEvent register(@Parameter(description = "Relay device to register") @RequestBody RelayDeviceConfig config) throws IOException {
+        return relayDeviceManager.register(config);
+    }
+
+    @Operation(summary = "Update Relay Device", description = "Replace the configuration of a registered relay device, i.e. after it is re-addressed")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "operation successful",
+                    content = { @Content(mediaType = "application/json", schema = @Schema(implementation = RelayDevicesChangedEvent.class)) }),
+            @ApiResponse(responseCode = "400", description = "Invalid relay device."),
+            @ApiResponse(responseCode = "404", description = "Relay device not found.")
+    })
+    @PutMapping(value = "/{deviceId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public RelayDevicesChangedEvent update(@Parameter(description="Relay device to update") @PathVariable("deviceId") String deviceId,
+                                           @Parameter(description = "New configuration for the relay device") @RequestBody RelayDeviceConfig config) throws IOException {
+        return relayDeviceManager.update(deviceId, config);
+    }
+
+    @Operation(summary = "Deregister Relay Device", description = "Remove a relay device from the rack. Slot mappings to it are left in place.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "operation successful",
+                    content = { @Content(mediaType = "application/json", schema = @Schema(implementation = RelayDevicesChangedEvent.class)) }),
+            @ApiResponse(responseCode = "404", description = "Relay device not found.")
+    })
+    @DeleteMapping(value = "/{deviceId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public RelayDevicesChangedEvent deregister(@Parameter(description="Relay device to remove") @PathVariable("deviceId") String deviceId) throws IOException {
+        return relayDeviceManager.deregister(deviceId);
+    }
+}
@@ -0,0 +1,59 @@
+package com.cats.resources;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.dto.DiscoveryResult;
+import com.cats.service.RelayDiscoveryService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+
+/**
+ * Relay Discovery Resource defines the RESTful API for finding relay devices on the LAN
+ */
+@RestController
+@RequestMapping("/discovery")
+@Tag(name = "Relay Discovery", description = "RESTful API for scanning an address range for relay devices and registering them.")
+public class RelayDiscoveryResource {
+
+    @Autowired
+    RelayDiscoveryService relayDiscoveryService;
+
+    @Operation(summary = "Discover Relay Devices", description = "Scan an IPv4 range for relay devices answering stateFull.xml, and optionally register the new ones")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "operation successful",
+                    content = { @Content(mediaType = "application/json", schema = @Schema(implementation = DiscoveryResult.class)) }),
+            @ApiResponse(responseCode = "400", description = "Invalid or too large range.")
+    })
+    @PostMapping(value = "", produces = MediaType.APPLICATION_JSON_VALUE)
+    public DiscoveryResult discover(@Parameter(description="CIDR block (192.168.100.0/24), range (192.168.100.10-192.168.100.50) or single address") @RequestParam("range") String range,
+                                    @Parameter(description="HTTP port of the devices. Default: 80") @RequestParam(value = "port", defaultValue = "80") Integer port,
+                                    @Parameter(description="Register the new devices and persist them to config.yml. Default: false") @RequestParam(value = "register", defaultValue = "false") Boolean register) throws IOException {
+        return relayDiscoveryService.discover(range, port, register);
+    }
+}
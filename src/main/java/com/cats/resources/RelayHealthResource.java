@@ -21,7 +21,7 @@ package com.cats.resources;
 import com.cats.service.RelayHealthCheck;
 import com.cats.beans.HealthReport;
 import com.cats.beans.HealthStatusBean;
-import com.cats.service.RelayDeviceManager;
+import com.cats.service.ClusterService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
@@ -52,7 +52,7 @@ public class RelayHealthResource {
     private HealthEndpoint healthEndpoint;
 
     @Autowired
-    private RelayDeviceManager relayDeviceManager;
+    private ClusterService clusterService;
 
 
     /**
@@ -68,7 +68,7 @@ public class RelayHealthResource {
     @RequestMapping(method=RequestMethod.GET, produces= "application/json")
     public HealthStatusBean getRelayHealth() {
         HealthStatusBean result = new HealthStatusBean();
-        RelayHealthCheck relayhealthCheck = new RelayHealthCheck(relayDeviceManager.getRelayDevices());
+        RelayHealthCheck relayhealthCheck = new RelayHealthCheck(clusterService.getLocalDevices());
 
         try {
             List<HealthReport> reports = relayhealthCheck.check();
@@ -0,0 +1,109 @@
+package com.cats.resources;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.dto.LatencySummary;
+import com.cats.dto.StateTransition;
+import com.cats.relay.Relay;
+import com.cats.service.RelayHistoryService;
+import com.cats.service.SlotMappingService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Relay History Resource defines the RESTful API for recent port state transitions and device latency
+ */
+@RestController
+@RequestMapping("/history")
+@Tag(name = "Relay History", description = "RESTful API for recent relay port state transitions and device call latency.")
+public class RelayHistoryResource {
+
+    /**
+     * Window queried when no start time is given.
+     */
+    private static final Duration DEFAULT_WINDOW = Duration.ofHours(1);
+
+    @Autowired
+    RelayHistoryService relayHistoryService;
+
+    @Autowired
+    SlotMappingService slotMappingService;
+
+    @Operation(summary = "Get Slot State History", description = "Get the observed state transitions of the relay port mapped to a slot, oldest first.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "operation successful", useReturnTypeSchema = true),
+            @ApiResponse(responseCode = "400", description = "Slot is mapped to an unknown relay device."),
+            @ApiResponse(responseCode = "404", description = "Mapping not found for slot.")
+    })
+    @GetMapping(value = "/{rack}/{slot}/transitions", produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<StateTransition> getSlotTransitions(@Parameter(description="Rack to query") @PathVariable("rack") String rack,
+                                                    @Parameter(description="Slot to query") @PathVariable("slot") Integer slot,
+                                                    @Parameter(description="Start of range in epoch milliseconds. Default: one hour ago") @RequestParam(value = "from", required = false) Long from,
+                                                    @Parameter(description="End of range in epoch milliseconds. Default: now") @RequestParam(value = "to", required = false) Long to) {
+        Relay relay = slotMappingService.getRelayDeviceAtSlot(rack, slot);
+        Instant end = to == null ? Instant.now() : Instant.ofEpochMilli(to);
+        Instant start = from == null ? end.minus(DEFAULT_WINDOW) : Instant.ofEpochMilli(from);
+        return relayHistoryService.getTransitions(relay.getDevice().getDeviceId(), relay.getPort(), start, end);
+    }
+
+    @Operation(summary = "Get Port State History", description = "Get the observed state transitions of a relay device port, oldest first.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "operation successful", useReturnTypeSchema = true)
+    })
+    @GetMapping(value = "/devices/{deviceId}/ports/{port}/transitions", produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<StateTransition> getPortTransitions(@Parameter(description="Relay device to query") @PathVariable("deviceId") String deviceId,
+                                                    @Parameter(description="Port on the relay device") @PathVariable("port") Integer port,
+                                                    @Parameter(description="Start of range in epoch milliseconds. Default: one hour ago") @RequestParam(value = "from", required = false) Long from,
+                                                    @Parameter(description="End of range in epoch milliseconds. Default: now") @RequestParam(value = "to", required = false) Long to) {
+        Instant end = to == null ? Instant.now() : Instant.ofEpochMilli(to);
+        Instant start = from == null ? end.minus(DEFAULT_WINDOW) : Instant.ofEpochMilli(from);
+        return relayHistoryService.getTransitions(deviceId, port, start, end);
+    }
+
+    @Operation(summary = "Get Device Latency", description = "Summarize how long a relay device took to answer over a time range, optionally downsampled into equal-width buckets.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "operation successful",
+                    content = { @Content(mediaType = "application/json", schema = @Schema(implementation = LatencySummary.class)) }),
+            @ApiResponse(responseCode = "400", description = "Invalid bucket count.")
+    })
+    @GetMapping(value = "/devices/{deviceId}/latency", produces = MediaType.APPLICATION_JSON_VALUE)
+    public LatencySummary getLatency(@Parameter(description="Relay device to query") @PathVariable("deviceId") String deviceId,
+                                     @Parameter(description="Start of range in epoch milliseconds. Default: one hour ago") @RequestParam(value = "from", required = false) Long from,
+                                     @Parameter(description="End of range in epoch milliseconds. Default: now") @RequestParam(value = "to", required = false) Long to,
+                                     @Parameter(description="Number of buckets to downsample into. Default: 0") @RequestParam(value = "buckets", defaultValue = "0") Integer buckets) {
+        if (buckets < 0 || buckets > 1000) {
+            throw new IllegalArgumentException("Buckets " + buckets + " must be between 0 and 1000.");
+        }
+        Instant end = to == null ? Instant.now() : Instant.ofEpochMilli(to);
+        Instant start = from == null ? end.minus(DEFAULT_WINDOW) : Instant.ofEpochMilli(from);
+        return relayHistoryService.getLatency(deviceId, start, end, buckets);
+    }
+}
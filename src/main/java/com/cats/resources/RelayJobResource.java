@@ -0,0 +1,112 @@
+package com.cats.resources;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.dto.RelayJobStatus;
+import com.cats.dto.SlotResult;
+import com.cats.relay.RelayOperation;
+import com.cats.service.RelayJobService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * Relay Job Resource defines the RESTful API for long-running fan-out operations across a rack
+ */
+@RestController
+@RequestMapping("/jobs")
+@Tag(name = "Relay Jobs", description = "RESTful API for asynchronous fan-out operations across the slots of a rack.")
+public class RelayJobResource {
+
+    @Autowired
+    RelayJobService relayJobService;
+
+    /**
+     * Submits a fan-out operation as an asynchronous job.
+     * @param rack Name of the rack
+     * @param operation on, off, status or power_cycle
+     * @param slots Slots to operate on; all mapped slots when omitted
+     * @param delay Seconds to hold relays off during a power cycle
+     * @return The queued job; poll jobs/{jobId} for progress.
+     */
+    @Operation(summary = "Submit Relay Job", description = "Queue an operation (ON, OFF, STATUS, POWER_CYCLE) across the given slots, or all mapped slots, and return immediately with a job ID.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "202", description = "job accepted",
+                    content = { @Content(mediaType = "application/json", schema = @Schema(implementation = RelayJobStatus.class)) }),
+            @ApiResponse(responseCode = "400", description = "Invalid operation or delay."),
+            @ApiResponse(responseCode = "429", description = "Job queue is full.")
+    })
+    @PostMapping(value = "{rack}/relay/{operation}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<RelayJobStatus> submit(@Parameter(description="Rack to run the job on") @PathVariable("rack") String rack,
+                                                 @Parameter(description="Operation to perform i.e. ON, OFF, STATUS, POWER_CYCLE") @PathVariable("operation") String operation,
+                                                 @Parameter(description="Slots to operate on. Default: all mapped slots") @RequestParam(value = "slots", required = false) List<Integer> slots,
+                                                 @Parameter(description="Seconds to hold relays off during a power cycle. Default: 5") @RequestParam(value = "delay", defaultValue = "5") Integer delay) {
+        RelayJobStatus job = relayJobService.submit(rack, RelayOperation.fromString(operation), slots, delay);
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(job);
+    }
+
+    @Operation(summary = "List Relay Jobs", description = "List active and retained finished jobs, newest first.")
+    @GetMapping(value = "", produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<RelayJobStatus> getJobs() {
+        return relayJobService.getJobs();
+    }
+
+    @Operation(summary = "Get Relay Job", description = "Get the progress of a job.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "operation successful",
+                    content = { @Content(mediaType = "application/json", schema = @Schema(implementation = RelayJobStatus.class)) }),
+            @ApiResponse(responseCode = "404", description = "Job not found or evicted.")
+    })
+    @GetMapping(value = "/{jobId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public RelayJobStatus getJob(@Parameter(description="Job to query") @PathVariable("jobId") String jobId) {
+        return relayJobService.getStatus(jobId);
+    }
+
+    @Operation(summary = "Get Relay Job Results", description = "Get the per-slot results a job has produced so far.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "operation successful", useReturnTypeSchema = true),
+            @ApiResponse(responseCode = "404", description = "Job not found or evicted.")
+    })
+    @GetMapping(value = "/{jobId}/results", produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<SlotResult> getResults(@Parameter(description="Job to query") @PathVariable("jobId") String jobId) {
+        return relayJobService.getResults(jobId);
+    }
+
+    @Operation(summary = "Cancel Relay Job", description = "Cancel a job. Queued jobs never start; running jobs stop before their next slot.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "operation successful",
+                    content = { @Content(mediaType = "application/json", schema = @Schema(implementation = RelayJobStatus.class)) }),
+            @ApiResponse(responseCode = "404", description = "Job not found or evicted.")
+    })
+    @DeleteMapping(value = "/{jobId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public RelayJobStatus cancel(@Parameter(description="Job to cancel") @PathVariable("jobId") String jobId) {
+        return relayJobService.cancel(jobId);
+    }
+}
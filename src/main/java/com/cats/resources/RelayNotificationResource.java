@@ -0,0 +1,61 @@
+package com.cats.resources;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.relay.Status;
+import com.cats.service.RelayNotificationService;
+import com.cats.utils.ClientAddress;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * Relay Notification Resource receives state notifications pushed by relay devices
+ */
+@RestController
+@RequestMapping("/notifications")
+@Tag(name = "Relay Notifications", description = "Endpoint relay devices post their state to when it changes. Notifications are only accepted from the device's configured address.")
+public class RelayNotificationResource {
+
+    @Autowired
+    RelayNotificationService relayNotificationService;
+
+    @Operation(summary = "Notify Relay State", description = "Record the port states pushed by a relay device, in the device's state document format")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "operation successful", useReturnTypeSchema = true),
+            @ApiResponse(responseCode = "400", description = "Device does not send notifications."),
+            @ApiResponse(responseCode = "403", description = "Notifications disabled, or not sent by the device."),
+            @ApiResponse(responseCode = "404", description = "Relay device not found."),
+            @ApiResponse(responseCode = "417", description = "Notification could not be parsed.")
+    })
+    @PostMapping(value = "/{deviceId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<Status> notify(@Parameter(description="Relay device sending the notification") @PathVariable("deviceId") String deviceId,
+                               @Parameter(description="Shared notification token, if configured") @RequestParam(value = "token", required = false) String token,
+                               @Parameter(hidden = true) @RequestAttribute(value = ClientAddress.ATTRIBUTE, required = false) String client,
+                               @RequestBody String body) {
+        return relayNotificationService.accept(deviceId, client != null ? client : ClientAddress.current(), token, body);
+    }
+}
@@ -0,0 +1,112 @@
+package com.cats.resources;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.beans.PortState;
+import com.cats.beans.ReconcileReport;
+import com.cats.service.RelayReconciler;
+import com.cats.service.RelayStateStore;
+import com.cats.utils.CachedJson;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import jakarta.annotation.PostConstruct;
+import java.util.stream.Collectors;
+
+/**
+ * Relay Reconcile Resource defines the RESTful API for the desired-state reconciler
+ */
+@RestController
+@RequestMapping("/reconcile")
+@Tag(name = "Relay Reconcile", description = "RESTful API for the desired-state reconciler that reapplies relay state after device resets.")
+public class RelayReconcileResource {
+
+    @Autowired
+    RelayReconciler relayReconciler;
+
+    @Autowired
+    RelayStateStore relayStateStore;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    /**
+     * Port states as served, serialized once per version of the state store. The ETag covers the states only,
+     * not when they were recorded, so it stays put while polls keep reading the same states.
+     */
+    private CachedJson portStates;
+
+    @PostConstruct
+    public void init() {
+        portStates = new CachedJson(objectMapper);
+    }
+
+    @Operation(summary = "Get Reconcile Report", description = "Get reconcile counters and the most recent drift events")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "operation successful",
+                    content = { @Content(mediaType = "application/json", schema = @Schema(implementation = ReconcileReport.class)) })
+    })
+    @GetMapping(value = "", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ReconcileReport getReport() {
+        return relayReconciler.getReport();
+    }
+
+    @Operation(summary = "Run Reconcile", description = "Poll every relay device now and reapply the desired state to any drifted port")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "operation successful",
+                    content = { @Content(mediaType = "application/json", schema = @Schema(implementation = ReconcileReport.class)) })
+    })
+    @PostMapping(value = "", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ReconcileReport reconcile() {
+        relayReconciler.reconcile();
+        return relayReconciler.getReport();
+    }
+
+    @Operation(summary = "Get Port States", description = "Get the desired and last observed state of every known relay port. Send the ETag back in If-None-Match to get 304 while nothing has changed.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "operation successful",
+                    content = { @Content(mediaType = "application/json", array = @ArraySchema(schema = @Schema(implementation = PortState.class))) }),
+            @ApiResponse(responseCode = "304", description = "Port states unchanged since the ETag in If-None-Match.")
+    })
+    @GetMapping(value = "/state", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> getPortStates(@Parameter(description="ETag of the port states the client holds") @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        CachedJson.Rendered rendered = portStates.render("state", relayStateStore.getVersion(), relayStateStore::getAll,
+                states -> states.stream()
+                        .map(state -> state.getDeviceId() + ":" + state.getPort() + "=" + state.getDesired() + "/" + state.getObserved())
+                        .sorted()
+                        .collect(Collectors.toList()));
+        return CachedJson.respond(ifNoneMatch, rendered.getEtag(), rendered::getBody);
+    }
+}
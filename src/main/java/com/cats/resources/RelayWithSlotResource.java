@@ -18,8 +18,18 @@ package com.cats.resources;
  * SPDX-License-Identifier: Apache-2.0
  */
 
+import com.cats.dto.BulkSummary;
 import com.cats.dto.RelayResponse;
+import com.cats.dto.SlotResult;
+import com.cats.dto.SlotWaitResult;
+import com.cats.relay.RelayOperation;
+import com.cats.relay.Status;
+import com.cats.service.ClusterService;
+import com.cats.service.RelayBulkService;
+import com.cats.service.RelayIdempotencyService;
 import com.cats.service.RelayService;
+import com.cats.service.RelayWaitService;
+import com.cats.utils.ClientAddress;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -28,7 +38,12 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
 
 /**
  * Relay With Slot Resource defines the RESTful API for the relay devices on a rack
@@ -40,6 +55,18 @@ public class RelayWithSlotResource {
 
     @Autowired
     RelayService relayService;
+
+    @Autowired
+    RelayBulkService relayBulkService;
+
+    @Autowired
+    ClusterService clusterService;
+
+    @Autowired
+    RelayWaitService relayWaitService;
+
+    @Autowired
+    RelayIdempotencyService relayIdempotencyService;
     
     /**
      * Returns the status of the relay device and port (ON, OFF, or UNKNOWN).
@@ -52,33 +79,71 @@ public class RelayWithSlotResource {
     })
     @GetMapping("{rack}/{slot}/relay/status")
     public RelayResponse status(@Parameter(description="Rack to query for relay status") @PathVariable("rack") String rack,
-                                @Parameter(description="Slot to query for relay status") @PathVariable("slot") Integer slot) {
+                                @Parameter(description="Slot to query for relay status") @PathVariable("slot") Integer slot,
+                                @Parameter(hidden = true) @RequestHeader(value = ClusterService.FORWARDED_HEADER, required = false) String forwardedBy,
+                                @Parameter(hidden = true) @RequestAttribute(value = ClientAddress.ATTRIBUTE, required = false) String client) {
 
         RelayResponse retVal = new RelayResponse();
-        retVal.setStatus(relayService.getRelayStatus(slot));
+        retVal.setStatus(clusterService.serve(forwardedBy, client, () -> relayService.getRelayStatus(rack, slot)));
         return retVal;
     }
     
     /**
-     * Turns the specified relay device port on or off.
+     * Waits until the relay device port of a slot is observed in a state after the request.
+     * @param rack Name of the rack
+     * @param slot The slot number of the relay to wait on
+     * @param state ON or OFF
+     * @param timeoutMs Milliseconds to wait at most
+     * @return The state last observed, whether it is the one waited for, and how long the wait took.
+     */
+    @Operation(summary = "Wait for Relay State", description = "Wait until the relay device port of a slot is observed ON or OFF, up to timeoutMs. Answers as soon as a command, status read, reconcile poll or device notification records the state after the request, or with reached=false once the timeout passes. If the state last observed already matches but predates the request, the device is read once to confirm it. States are as commanded, unlike the raw states /status and ON/OFF return: an inverted port reading OFF is reported ON.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "operation successful",
+                    content = { @Content(mediaType = "application/json", schema = @Schema(implementation = SlotWaitResult.class)) }),
+            @ApiResponse(responseCode = "400", description = "Invalid state or timeout, or no relay on the given rack/slot.")
+    })
+    @GetMapping(value = "{rack}/{slot}/relay/await", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<SlotWaitResult> await(@Parameter(description="Rack to wait on") @PathVariable("rack") String rack,
+                                      @Parameter(description="Slot to wait on") @PathVariable("slot") Integer slot,
+                                      @Parameter(description="State to wait for i.e. ON, OFF") @RequestParam("state") String state,
+                                      @Parameter(description="Milliseconds to wait at most. Default: 30000") @RequestParam(value = "timeoutMs", defaultValue = "30000") Long timeoutMs,
+                                      @Parameter(hidden = true) @RequestHeader(value = ClusterService.FORWARDED_HEADER, required = false) String forwardedBy,
+                                      @Parameter(hidden = true) @RequestAttribute(value = ClientAddress.ATTRIBUTE, required = false) String client) {
+        Status target;
+        try {
+            target = Status.valueOf(state.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException(state + " is an invalid state to wait for.");
+        }
+        return relayWaitService.await(rack, slot, target, timeoutMs, clusterService.isForwardedByPeer(forwardedBy, client));
+    }
+
+    /**
+     * Turns the specified relay device port on or off. Commands on the same port run in order; one replaced by a
+     * newer command before it ran reports the state the newer one achieved.
      * @param rack Name of the rack
      * @param slot The slot number of the requested relay
      * @param operation on or off
+     * @param idempotent skip the device when the port is already known to be in the requested state
+     * @param idempotencyKey names the command, so a retry with the same key is not sent to the device again
      * @return Empty response if successful.
      */
-    @Operation(summary = "Turn Relay On/Off", description = "Turn the specified relay device port on or off given rack, slot, and operation.")
+    @Operation(summary = "Turn Relay On/Off", description = "Turn the specified relay device port on or off given rack, slot, and operation. Concurrent commands on one port run in order; a command replaced by a newer one before it ran answers with superseded=true and the state the newer one achieved. With idempotent=true the device is not called when the port was recently observed in the requested state. Retries sent with the same Idempotency-Key get the first attempt's answer.")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "operation successful",
                     content = { @Content(mediaType = "application/json", schema = @Schema(implementation = RelayResponse.class)) }),
-            @ApiResponse(responseCode = "400", description = "Cannot turn relay on/off for given rack/slot.")
+            @ApiResponse(responseCode = "400", description = "Cannot turn relay on/off for given rack/slot, or Idempotency-Key already used for another command.")
     })
     @PostMapping("{rack}/{slot}/relay/{operation}")
     public RelayResponse turnOnOff(@Parameter(description="Rack to query for relay status") @PathVariable("rack") String rack,
                                    @Parameter(description="Slot to query for relay status") @PathVariable("slot") Integer slot,
-                                   @Parameter(description="Operation to preform i.e. ON, OFF") @PathVariable("operation") String operation) {
-        RelayResponse retVal = new RelayResponse();
-        retVal.setStatus(relayService.turnOnOff(slot,operation));
-        return retVal;
+                                   @Parameter(description="Operation to preform i.e. ON, OFF") @PathVariable("operation") String operation,
+                                   @Parameter(description="Skip the device when the port is already in the requested state. Default: false") @RequestParam(value = "idempotent", defaultValue = "false") Boolean idempotent,
+                                   @Parameter(description="Client-chosen key naming this command, sent again unchanged on retries") @RequestHeader(value = RelayIdempotencyService.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+                                   @Parameter(hidden = true) @RequestHeader(value = ClusterService.FORWARDED_HEADER, required = false) String forwardedBy,
+                                   @Parameter(hidden = true) @RequestAttribute(value = ClientAddress.ATTRIBUTE, required = false) String client) {
+        return relayIdempotencyService.execute(idempotencyKey, operation.toUpperCase() + " " + rack + "/" + slot, 2,
+                () -> clusterService.serve(forwardedBy, client, () -> relayService.turnOnOff(rack, slot, operation, idempotent)));
     }
     
     /**
@@ -86,23 +151,57 @@ public class RelayWithSlotResource {
      * @param rack Name of the rack
      * @param slot The slot number of the requested  relay
      * @param duration The amount of seconds to turn relay on.
+     * @param idempotencyKey names the command, so a retry with the same key does not pulse the relay again
      * @return Empty response if successful.
      */
-    @Operation(summary = "Turn Relay On for N Seconds", description = "Turn the specified relay device port on for N seconds given rack, slot, and duration.")
+    @Operation(summary = "Turn Relay On for N Seconds", description = "Turn the specified relay device port on for N seconds given rack, slot, and duration. Retries sent with the same Idempotency-Key do not pulse the relay again.")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "operation successful"),
-            @ApiResponse(responseCode = "400", description = "Cannot turn relay on for given rack/slot in timed interval.")
+            @ApiResponse(responseCode = "400", description = "Cannot turn relay on for given rack/slot in timed interval, or Idempotency-Key already used for another command.")
     })
     @PostMapping("{rack}/{slot}/relay/timed")
     public void timed(@Parameter(description="Rack to query for relay status") @PathVariable("rack") String rack,
                       @Parameter(description="Slot to query for relay status") @PathVariable("slot") Integer slot,
-                      @Parameter(description = "Duration for timed operation. Default: 0") @RequestParam(value = "duration", defaultValue = "0") String duration) {
+                      @Parameter(description = "Duration for timed operation. Default: 0") @RequestParam(value = "duration", defaultValue = "0") String duration,
+                      @Parameter(description="Client-chosen key naming this command, sent again unchanged on retries") @RequestHeader(value = RelayIdempotencyService.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+                      @Parameter(hidden = true) @RequestHeader(value = ClusterService.FORWARDED_HEADER, required = false) String forwardedBy,
+                      @Parameter(hidden = true) @RequestAttribute(value = ClientAddress.ATTRIBUTE, required = false) String client) {
+        int timed;
         try{
-            int timed = Integer.parseInt(duration);
-            relayService.timed(slot,timed);
+            timed = Integer.parseInt(duration);
         }
         catch (Exception e){
             throw new IllegalArgumentException("Duration " + duration + " is not a valid integer.");
         }
+        relayIdempotencyService.execute(idempotencyKey, "TIMED " + rack + "/" + slot + " " + timed, 1,
+                () -> clusterService.serve(forwardedBy, client, () -> {
+                    relayService.timed(rack, slot, timed);
+                    return null;
+                }));
    }
+
+    /**
+     * Performs a bulk operation across slots in parallel. With {@code Accept: application/x-ndjson} each slot's
+     * result is written as soon as its device answers; otherwise the results are returned as one JSON array.
+     * Either way a summary record comes last.
+     * @param rack Name of the rack
+     * @param operation on, off, status or power_cycle
+     * @param slots Slots to operate on; all mapped slots when omitted
+     * @param delay Seconds to hold relays off during a power cycle
+     * @return One SlotResult per slot in completion order, then a BulkSummary.
+     */
+    @Operation(summary = "Bulk Relay Operation", description = "Perform an operation (ON, OFF, STATUS, POWER_CYCLE) across the given slots, or all mapped slots, in parallel. Request application/x-ndjson to stream each slot's result as it completes. A summary record comes last.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "operation successful",
+                    content = { @Content(mediaType = MediaType.APPLICATION_NDJSON_VALUE, schema = @Schema(oneOf = { SlotResult.class, BulkSummary.class })),
+                                @Content(mediaType = MediaType.APPLICATION_JSON_VALUE, schema = @Schema(oneOf = { SlotResult.class, BulkSummary.class })) }),
+            @ApiResponse(responseCode = "400", description = "Invalid operation.")
+    })
+    @PostMapping(value = "{rack}/relay/bulk/{operation}", produces = { MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_NDJSON_VALUE })
+    public Flux<Object> bulk(@Parameter(description="Rack to operate on") @PathVariable("rack") String rack,
+                             @Parameter(description="Operation to perform i.e. ON, OFF, STATUS, POWER_CYCLE") @PathVariable("operation") String operation,
+                             @Parameter(description="Slots to operate on. Default: all mapped slots") @RequestParam(value = "slots", required = false) List<Integer> slots,
+                             @Parameter(description="Seconds to hold relays off during a power cycle. Default: 5") @RequestParam(value = "delay", defaultValue = "5") Integer delay) {
+        return relayBulkService.stream(rack, RelayOperation.fromString(operation), slots, delay);
+    }
 }
@@ -18,9 +18,13 @@ package com.cats.resources;
  * SPDX-License-Identifier: Apache-2.0
  */
 
+import com.cats.exceptions.MappingConflictException;
 import com.cats.exceptions.SlotMappingException;
+import com.cats.service.RackRegistry;
 import com.cats.service.SlotMappingService;
+import com.cats.utils.CachedJson;
 import com.cats.utils.SlotToPortMappings;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -30,15 +34,22 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import jakarta.annotation.PostConstruct;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
- * Slot Mapping Resource defines implementation for modifying slots -> device:port mappings
+ * Slot Mapping Resource defines implementation for modifying slots -> device:port mappings.
+ * Writes may be made conditional with If-Match or the version param, so concurrent editors cannot overwrite
+ * each other's changes unseen.
  */
 @RestController
 @RequestMapping("/mappings")
@@ -49,86 +60,228 @@ public class SlotMappingResource {
     @Autowired
     private SlotMappingService mappingService;
 
-    @Operation(summary = "Get Slot Mappings", description = "Get all slot mappings for the rack")
+    @Autowired
+    private RackRegistry rackRegistry;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /**
+     * Mappings of each rack as served, serialized once per mappings snapshot
+     */
+    private CachedJson mappings;
+
+    @PostConstruct
+    public void init() {
+        mappings = new CachedJson(objectMapper);
+    }
+
+    /**
+     * Serialized mappings of a rack; snapshots are immutable, so each one is its own version
+     */
+    private CachedJson.Rendered rendered(String rack, SlotToPortMappings snapshot) {
+        return mappings.render(rackRegistry.resolve(rack).getName(), snapshot, () -> snapshot);
+    }
+
+    /**
+     * Answer a write with the committed mappings and their ETag, ready for the next conditional write
+     */
+    private ResponseEntity<byte[]> written(String rack, SlotToPortMappings committed) {
+        CachedJson.Rendered current = rendered(rack, committed);
+        return CachedJson.respond(null, current.getEtag(), current::getBody);
+    }
+
+    /**
+     * Version a write was made against, taken from the version param or else from If-Match. An If-Match that no
+     * longer names the current mappings conflicts straight away; the version itself is checked again when the
+     * change is committed.
+     *
+     * @return the expected version, or null if the write is unconditional
+     * @throws MappingConflictException
+     */
+    private Long expectedVersion(String rack, Long version, String ifMatch) {
+        if (version != null) {
+            return version;
+        }
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        SlotToPortMappings snapshot = mappingService.getMappings(rack);
+        if (!CachedJson.matchesStrongly(ifMatch, rendered(rack, snapshot).getEtag())) {
+            throw new MappingConflictException("Slot mappings of rack " + rackRegistry.resolve(rack).getName()
+                    + " have changed since " + ifMatch + ", now at version " + snapshot.getVersion(), snapshot.getVersion());
+        }
+        return snapshot.getVersion();
+    }
+
+    @Operation(summary = "Get Slot Mappings", description = "Get all slot mappings for the rack. Send the ETag back in If-None-Match to get 304 while the mappings are unchanged.")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "operation successful",
                     content = { @Content(mediaType = "application/json", schema = @Schema(implementation = SlotToPortMappings.class)) }),
+            @ApiResponse(responseCode = "304", description = "Slot mappings unchanged since the ETag in If-None-Match."),
             @ApiResponse(responseCode = "400", description = "Cannot fetch slot mappings for rack."),
             @ApiResponse(responseCode = "404", description = "Slot mappings not found for rack.")
     })
     @GetMapping(value = "", produces = MediaType.APPLICATION_JSON_VALUE)
-    public SlotToPortMappings getMappings(){
-        return mappingService.getMappings();
+    public ResponseEntity<byte[]> getMappings(@Parameter(description="Rack the mappings belong to. Default: the only rack served") @RequestParam(value = "rack", required = false) String rack,
+                                              @Parameter(description="ETag of the mappings the client holds") @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch){
+        CachedJson.Rendered current = rendered(rack, mappingService.getMappings(rack));
+        return CachedJson.respond(ifNoneMatch, current.getEtag(), current::getBody);
     }
 
-    @Operation(summary = "Set Slot Mappings", description = "Set the slot mappings for the rack")
+    @Operation(summary = "Set Slot Mappings", description = "Set the slot mappings for the rack. Send the ETag in If-Match, or the version in the version param, to refuse the write if the mappings changed meanwhile.")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "operation successful",
                     content = { @Content(mediaType = "application/json", schema = @Schema(implementation = SlotToPortMappings.class)) }),
-            @ApiResponse(responseCode = "400", description = "Cannot set provided slot mappings for rack.")
+            @ApiResponse(responseCode = "400", description = "Cannot set provided slot mappings for rack."),
+            @ApiResponse(responseCode = "409", description = "Slot mappings changed since the expected version; the current version is in the message.")
     })
     @PostMapping(value = "", produces = MediaType.APPLICATION_JSON_VALUE)
-    public SlotToPortMappings setMappings(@Parameter(description = "Provided slot mappings to set for rack") @RequestBody SlotToPortMappings slotToPortMappings) throws IOException, SlotMappingException {
-        mappingService.setMappings(slotToPortMappings.getMappings());
-        return mappingService.getMappings();
+    public ResponseEntity<byte[]> setMappings(@Parameter(description="Rack the mappings belong to. Default: the only rack served") @RequestParam(value = "rack", required = false) String rack,
+                                              @Parameter(description="Version the mappings were edited from") @RequestParam(value = "version", required = false) Long version,
+                                              @Parameter(description="ETag of the mappings that were edited") @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                              @Parameter(description = "Provided slot mappings to set for rack") @RequestBody SlotToPortMappings slotToPortMappings) throws IOException, SlotMappingException {
+        return written(rack, mappingService.setMappings(rack, slotToPortMappings.getMappings(), expectedVersion(rack, version, ifMatch)));
     }
 
-    @Operation(summary = "Delete Slot Mappings", description = "Delete all slot mappings for the rack")
+    @Operation(summary = "Delete Slot Mappings", description = "Delete all slot mappings for the rack. Send the ETag in If-Match, or the version in the version param, to refuse the delete if the mappings changed meanwhile.")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "operation successful"),
             @ApiResponse(responseCode = "400", description = "Cannot delete slot mappings for rack."),
-            @ApiResponse(responseCode = "404", description = "Slot mappings not found for rack.")
+            @ApiResponse(responseCode = "404", description = "Slot mappings not found for rack."),
+            @ApiResponse(responseCode = "409", description = "Slot mappings changed since the expected version; the current version is in the message.")
     })
     @DeleteMapping("")
-    public void deleteMappings() throws IOException{
-        mappingService.removeMappings();
+    public ResponseEntity<Void> deleteMappings(@Parameter(description="Rack the mappings belong to. Default: the only rack served") @RequestParam(value = "rack", required = false) String rack,
+                                               @Parameter(description="Version the delete was decided on") @RequestParam(value = "version", required = false) Long version,
+                                               @Parameter(description="ETag of the mappings the delete was decided on") @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) throws IOException{
+        SlotToPortMappings committed = mappingService.removeMappings(rack, expectedVersion(rack, version, ifMatch));
+        return ResponseEntity.ok().eTag(rendered(rack, committed).getEtag()).build();
     }
 
-    @Operation(summary = "Get Slot Mapping", description = "Get the existing slot mapping for the provided slot")
+    @Operation(summary = "Get Slot Mapping", description = "Get the existing slot mapping for the provided slot. Carries the ETag of the rack's mappings, so If-None-Match gets 304 while they are unchanged.")
     @ApiResponses(value = {
-            @ApiResponse(responseCode = "200", description = "operation successful", useReturnTypeSchema = true),
+            @ApiResponse(responseCode = "200", description = "operation successful",
+                    content = { @Content(mediaType = "application/json", schema = @Schema(type = "object", example = "{\"1\": \"1:1\"}")) }),
+            @ApiResponse(responseCode = "304", description = "Slot mappings unchanged since the ETag in If-None-Match."),
             @ApiResponse(responseCode = "400", description = "Cannot get slot mapping for provided slot."),
             @ApiResponse(responseCode = "404", description = "Mapping not found for slot.")
     })
     @GetMapping(value = "/{slot}", produces = MediaType.APPLICATION_JSON_VALUE)
-    public Map<String, String> getMapping(@Parameter(description="Slot to query for mapping") @PathVariable("slot") String slot) throws SlotMappingException{
+    public ResponseEntity<byte[]> getMapping(@Parameter(description="Rack the mappings belong to. Default: the only rack served") @RequestParam(value = "rack", required = false) String rack,
+                                          @Parameter(description="Slot to query for mapping") @PathVariable("slot") String slot,
+                                          @Parameter(description="ETag of the mappings the client holds") @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) throws SlotMappingException{
+        SlotToPortMappings snapshot = mappingService.getMappings(rack);
+        String etag = rendered(rack, snapshot).getEtag();
         Map<String, String> mapping = new HashMap<>();
 
-        String deviceInfo = mappingService.getMapping(slot);
+        String deviceInfo = snapshot.getMapping(slot);
         mapping.put(slot, deviceInfo);
 
-        return mapping;
+        return CachedJson.respond(ifNoneMatch, etag, () -> {
+            try {
+                return objectMapper.writeValueAsBytes(mapping);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
     }
 
-    @Operation(summary = "Set Slot Mapping for Slot", description = "Set the slot mapping for the provided slot")
+    @Operation(summary = "Get Slots of Device", description = "Get the slots mapped to a device, in slot order. Carries the ETag of the rack's mappings, so If-None-Match gets 304 while they are unchanged.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "operation successful",
+                    content = { @Content(mediaType = "application/json", schema = @Schema(type = "object", example = "{\"5\": \"2:1\", \"6\": \"2:2\"}")) }),
+            @ApiResponse(responseCode = "304", description = "Slot mappings unchanged since the ETag in If-None-Match.")
+    })
+    @GetMapping(value = "/devices/{deviceId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> getSlotsOfDevice(@Parameter(description="Rack the mappings belong to. Default: the only rack served") @RequestParam(value = "rack", required = false) String rack,
+                                                   @Parameter(description="Device to list the slots of") @PathVariable("deviceId") String deviceId,
+                                                   @Parameter(description="ETag of the mappings the client holds") @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        SlotToPortMappings snapshot = mappingService.getMappings(rack);
+        String etag = rendered(rack, snapshot).getEtag();
+        Map<String, String> slots = new LinkedHashMap<>();
+        for (String slot : snapshot.slotsOf(deviceId)) {
+            slots.put(slot, snapshot.getMappings().get(slot));
+        }
+        return CachedJson.respond(ifNoneMatch, etag, () -> {
+            try {
+                return objectMapper.writeValueAsBytes(slots);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Operation(summary = "Remap Device", description = "Move every slot mapped to a device onto the same ports of another device, in one commit. Send the ETag in If-Match, or the version in the version param, to refuse the remap if the mappings changed meanwhile.")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "operation successful",
                     content = { @Content(mediaType = "application/json", schema = @Schema(implementation = SlotToPortMappings.class)) }),
-            @ApiResponse(responseCode = "400", description = "Cannot set slot mapping for provided slot.")
+            @ApiResponse(responseCode = "400", description = "No slot maps to the device, or the target device lacks a port; nothing was changed."),
+            @ApiResponse(responseCode = "409", description = "Slot mappings changed since the expected version; the current version is in the message.")
+    })
+    @PostMapping(value = "/devices/{deviceId}/remap", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> remapDevice(@Parameter(description="Rack the mappings belong to. Default: the only rack served") @RequestParam(value = "rack", required = false) String rack,
+                                              @Parameter(description="Device the slots map to now") @PathVariable("deviceId") String deviceId,
+                                              @Parameter(description="Device the slots should map to") @RequestParam("to") String toDeviceId,
+                                              @Parameter(description="Version the remap was decided on") @RequestParam(value = "version", required = false) Long version,
+                                              @Parameter(description="ETag of the mappings the remap was decided on") @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch)
+            throws IOException, SlotMappingException{
+        return written(rack, mappingService.remapDevice(rack, deviceId, toDeviceId, expectedVersion(rack, version, ifMatch)));
+    }
+
+    @Operation(summary = "Swap Slots", description = "Swap the mappings of two slots, in one commit. Send the ETag in If-Match, or the version in the version param, to refuse the swap if the mappings changed meanwhile.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "operation successful",
+                    content = { @Content(mediaType = "application/json", schema = @Schema(implementation = SlotToPortMappings.class)) }),
+            @ApiResponse(responseCode = "400", description = "A slot is not in the mappings; nothing was changed."),
+            @ApiResponse(responseCode = "409", description = "Slot mappings changed since the expected version; the current version is in the message.")
+    })
+    @PostMapping(value = "/{slot}/swap", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> swapSlots(@Parameter(description="Rack the mappings belong to. Default: the only rack served") @RequestParam(value = "rack", required = false) String rack,
+                                            @Parameter(description="Slot to swap") @PathVariable("slot") String first,
+                                            @Parameter(description="Slot to swap it with") @RequestParam("with") String second,
+                                            @Parameter(description="Version the swap was decided on") @RequestParam(value = "version", required = false) Long version,
+                                            @Parameter(description="ETag of the mappings the swap was decided on") @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch)
+            throws IOException, SlotMappingException{
+        return written(rack, mappingService.swapSlots(rack, first, second, expectedVersion(rack, version, ifMatch)));
+    }
+
+    @Operation(summary = "Set Slot Mapping for Slot", description = "Set the slot mapping for the provided slot. Send the ETag in If-Match, or the version in the version param, to refuse the write if the mappings changed meanwhile.")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "operation successful",
+                    content = { @Content(mediaType = "application/json", schema = @Schema(implementation = SlotToPortMappings.class)) }),
+            @ApiResponse(responseCode = "400", description = "Cannot set slot mapping for provided slot."),
+            @ApiResponse(responseCode = "409", description = "Slot mappings changed since the expected version; the current version is in the message.")
     })
     @PostMapping(value = "/{slot}", produces = MediaType.APPLICATION_JSON_VALUE)
-    public SlotToPortMappings setMapping(@Parameter(description="Slot to set mapping on") @PathVariable("slot") String slot,
-                                         @Parameter(description="Desired mapping to set for slot - i.e. 'device:port'") @RequestParam("mapping") String mapping)
+    public ResponseEntity<byte[]> setMapping(@Parameter(description="Rack the mappings belong to. Default: the only rack served") @RequestParam(value = "rack", required = false) String rack,
+                                             @Parameter(description="Slot to set mapping on") @PathVariable("slot") String slot,
+                                             @Parameter(description="Desired mapping to set for slot - i.e. 'device:port'") @RequestParam("mapping") String mapping,
+                                             @Parameter(description="Version the mapping was edited from") @RequestParam(value = "version", required = false) Long version,
+                                             @Parameter(description="ETag of the mappings that were edited") @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch)
             throws IOException, SlotMappingException{
         if(mapping == null){
             log.error("Mapping request for slot " + slot + " did not include query param");
             throw new SlotMappingException("Mapping request for slot " + slot + " did not include query param");
         }
 
-        mappingService.setMapping(slot, mapping);
-        return mappingService.getMappings();
+        return written(rack, mappingService.setMapping(rack, slot, mapping, expectedVersion(rack, version, ifMatch)));
     }
 
-    @Operation(summary = "Remove Slot Mapping", description = "Remove the slot mapping for the provided slot")
+    @Operation(summary = "Remove Slot Mapping", description = "Remove the slot mapping for the provided slot. Send the ETag in If-Match, or the version in the version param, to refuse the removal if the mappings changed meanwhile.")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "operation successful",
                     content = { @Content(mediaType = "application/json", schema = @Schema(implementation = SlotToPortMappings.class)) }),
             @ApiResponse(responseCode = "400", description = "Cannot remove slot mapping for provided slot."),
-            @ApiResponse(responseCode = "404", description = "Mapping not found for slot.")
+            @ApiResponse(responseCode = "404", description = "Mapping not found for slot."),
+            @ApiResponse(responseCode = "409", description = "Slot mappings changed since the expected version; the current version is in the message.")
     })
     @DeleteMapping("/{slot}")
-    public SlotToPortMappings removeMapping(@Parameter(description="Slot to remove mapping for") @PathVariable("slot") String slot)
+    public ResponseEntity<byte[]> removeMapping(@Parameter(description="Rack the mappings belong to. Default: the only rack served") @RequestParam(value = "rack", required = false) String rack,
+                                                @Parameter(description="Slot to remove mapping for") @PathVariable("slot") String slot,
+                                                @Parameter(description="Version the removal was decided on") @RequestParam(value = "version", required = false) Long version,
+                                                @Parameter(description="ETag of the mappings the removal was decided on") @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch)
             throws IOException, SlotMappingException{
-        return mappingService.removeMapping(slot);
+        return written(rack, mappingService.removeMapping(rack, slot, expectedVersion(rack, version, ifMatch)));
     }
 }
\ No newline at end of file
@@ -0,0 +1,134 @@
+package com.cats.service;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.dto.Change;
+import com.cats.dto.ChangeFeed;
+import com.cats.dto.ChangeType;
+import com.cats.events.RelayStateChangedEvent;
+import com.cats.events.SlotMappingsChangedEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Bounded log of changes to the slot mappings and to the observed state of relay ports, each numbered by a
+ * sequence that only grows, so clients mirroring the rack can fetch just what changed since they last looked.
+ * When the changes a client needs have already been dropped from the log, or the client's sequence comes from an
+ * earlier run of this instance, it is told to resync from a full read.
+ */
+@Service
+@Slf4j
+public class ChangeFeedService {
+
+    /**
+     * Number of changes kept; older ones are dropped.
+     */
+    @Value("${changeLogCapacity:10000}")
+    int capacity;
+
+    /**
+     * Identifies this run of the instance, since sequence numbers start again after a restart.
+     */
+    private final long epoch = System.currentTimeMillis();
+
+    /**
+     * Ring of changes, the change with sequence s at s % capacity. Guarded by this.
+     */
+    private Change[] changes;
+    private long latest;
+
+    @PostConstruct
+    public void init() {
+        changes = new Change[capacity];
+    }
+
+    @EventListener
+    public void onStateChanged(RelayStateChangedEvent event) {
+        if (event.getCurrent() == null) {
+            return;
+        }
+        Change change = new Change();
+        change.setType(ChangeType.STATE);
+        change.setTimestamp(event.getObservedAt());
+        change.setDeviceId(event.getDeviceId());
+        change.setPort(event.getPort());
+        change.setStatus(event.getCurrent());
+        append(change);
+    }
+
+    @EventListener
+    public void onMappingsChanged(SlotMappingsChangedEvent event) {
+        for (Map.Entry<String, String> slot : new TreeMap<>(event.getSlots()).entrySet()) {
+            Change change = new Change();
+            change.setType(ChangeType.MAPPING);
+            change.setTimestamp(event.getChangedAt());
+            change.setRack(event.getRack());
+            change.setSlot(slot.getKey());
+            change.setMapping(slot.getValue());
+            change.setVersion(event.getVersion());
+            append(change);
+        }
+    }
+
+    /**
+     * Number a change and add it to the log, dropping the oldest change if the log is full.
+     */
+    private synchronized void append(Change change) {
+        change.setSequence(++latest);
+        changes[(int) (latest % capacity)] = change;
+    }
+
+    /**
+     * Get the changes after a sequence number, oldest first.
+     * @param since sequence of the last change the client has seen, 0 for everything still in the log
+     * @param epoch epoch the sequence belongs to, or null to skip the check
+     * @param limit maximum number of changes returned
+     * @return ChangeFeed, with resyncRequired set and no changes if the client cannot catch up from the log
+     */
+    public synchronized ChangeFeed getChanges(long since, Long epoch, int limit) {
+        ChangeFeed feed = new ChangeFeed();
+        feed.setEpoch(this.epoch);
+        long oldest = Math.max(1, latest - capacity + 1);
+        boolean otherRun = epoch != null && epoch != this.epoch;
+        if (otherRun || since > latest || since < oldest - 1) {
+            feed.setSequence(latest);
+            feed.setResyncRequired(true);
+            feed.setChanges(new ArrayList<>());
+            return feed;
+        }
+        long last = Math.min(latest, since + limit);
+        List<Change> result = new ArrayList<>();
+        for (long sequence = since + 1; sequence <= last; sequence++) {
+            result.add(changes[(int) (sequence % capacity)]);
+        }
+        feed.setSequence(last);
+        feed.setMore(last < latest);
+        feed.setResyncRequired(false);
+        feed.setChanges(result);
+        return feed;
+    }
+}
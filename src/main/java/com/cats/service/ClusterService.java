@@ -0,0 +1,479 @@
+package com.cats.service;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.dto.ClusterStatus;
+import com.cats.exceptions.DeviceUnreachableException;
+import com.cats.exceptions.ForwardedRequestException;
+import com.cats.relay.RelayDevice;
+import com.cats.utils.ClientAddress;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Spreads the relay devices over several instances without an external coordinator. Every instance is given the
+ * same device configuration and the same static list of peers; each device is owned by one live peer, picked by
+ * consistent hashing of its device ID, and only the owner talks to it. A request that reaches another instance is
+ * forwarded to the owner over a pooled HTTP client. Peers are probed on a fixed interval; a peer that stops
+ * answering drops out of the ring, so only its devices move to the remaining peers, and moves back when it returns.
+ */
+@Service
+@Slf4j
+public class ClusterService {
+
+    /**
+     * Header marking a request forwarded by a peer; the receiving instance serves it locally whatever its own view
+     * of the ring, so a request is forwarded at most once. Only honoured on requests that come from a peer's
+     * address, see {@link #isForwardedByPeer}.
+     */
+    public static final String FORWARDED_HEADER = "X-Relay-Forwarded-By";
+
+    /**
+     * Whether devices are shared out between peers.
+     */
+    @Value("${clusterEnabled:false}")
+    boolean enabled;
+
+    /**
+     * Base URL peers use to reach this instance, including the context path, e.g. http://10.0.0.1:9090/relay.
+     */
+    @Value("${clusterSelf:}")
+    String self;
+
+    /**
+     * Comma-separated base URLs of every instance in the cluster; this instance is added if missing.
+     */
+    @Value("${clusterPeers:}")
+    String peers;
+
+    /**
+     * Points each peer gets on the hash ring; more points spread devices more evenly.
+     */
+    @Value("${clusterVirtualNodes:128}")
+    int virtualNodes;
+
+    /**
+     * Consecutive failed probes after which a peer is taken out of the ring.
+     */
+    @Value("${clusterFailureThreshold:2}")
+    int failureThreshold;
+
+    /**
+     * Milliseconds to wait for a peer to answer a probe.
+     */
+    @Value("${clusterProbeTimeoutMs:1000}")
+    long probeTimeoutMs;
+
+    /**
+     * Milliseconds to wait for a peer to answer a forwarded request; longer than a device call may take.
+     */
+    @Value("${clusterForwardTimeoutMs:20000}")
+    long forwardTimeoutMs;
+
+    /**
+     * Maximum number of pooled connections to each peer.
+     */
+    @Value("${clusterMaxConnections:32}")
+    int maxConnections;
+
+    @Autowired
+    RelayDeviceManager relayDeviceManager;
+
+    private static final ThreadLocal<Boolean> FORWARDED = new ThreadLocal<>();
+
+    private List<String> members = Collections.emptyList();
+
+    /**
+     * Addresses of every member, resolved once at startup; forwarded requests are only trusted from these.
+     */
+    private Set<String> memberAddresses = Collections.emptySet();
+    private final Map<String, Integer> failures = new ConcurrentHashMap<>();
+    private final Set<String> down = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Hash ring of the live peers; replaced, never modified, when a peer goes down or comes back.
+     */
+    private volatile NavigableMap<Long, String> ring = Collections.emptyNavigableMap();
+
+    private ConnectionProvider connections;
+    private WebClient client;
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        if (self == null || self.isBlank()) {
+            throw new IllegalArgumentException("clusterSelf must be set when clusterEnabled is true");
+        }
+        self = normalize(self);
+        List<String> all = new ArrayList<>();
+        all.add(self);
+        for (String peer : peers.split(",")) {
+            if (!peer.isBlank() && !all.contains(normalize(peer))) {
+                all.add(normalize(peer));
+            }
+        }
+        members = Collections.unmodifiableList(all);
+        memberAddresses = resolve(members);
+        connections = ConnectionProvider.builder("relay-cluster")
+                .maxConnections(maxConnections * members.size())
+                .pendingAcquireTimeout(Duration.ofMillis(forwardTimeoutMs))
+                .build();
+        client = WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create(connections).keepAlive(true)))
+                .build();
+        rebuild();
+        log.info("Cluster mode with peers {}, this instance is {}", members, self);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (connections != null) {
+            connections.dispose();
+        }
+    }
+
+    private static Set<String> resolve(List<String> urls) {
+        Set<String> addresses = new HashSet<>();
+        for (String url : urls) {
+            String host = URI.create(url).getHost();
+            try {
+                for (InetAddress address : InetAddress.getAllByName(host)) {
+                    addresses.add(address.getHostAddress());
+                }
+            } catch (UnknownHostException e) {
+                log.warn("Cannot resolve cluster peer {}, requests it forwards will not be trusted", url);
+            }
+        }
+        return Collections.unmodifiableSet(addresses);
+    }
+
+    private static String normalize(String url) {
+        String trimmed = url.trim();
+        return trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed;
+    }
+
+    /**
+     * Probe every other peer and rebalance when one goes down or comes back.
+     */
+    @Scheduled(fixedDelayString = "${clusterHeartbeatMs:2000}")
+    public void heartbeat() {
+        if (!enabled) {
+            return;
+        }
+        Flux.fromIterable(members)
+                .filter(peer -> !peer.equals(self))
+                .flatMap(peer -> client.get().uri(peer + "/cluster")
+                        .header(FORWARDED_HEADER, self)
+                        .retrieve()
+                        .toBodilessEntity()
+                        .timeout(Duration.ofMillis(probeTimeoutMs))
+                        .map(response -> peer)
+                        .doOnNext(this::markUp)
+                        .onErrorResume(e -> {
+                            markFailed(peer, e.getMessage());
+                            return Mono.empty();
+                        }))
+                .blockLast();
+    }
+
+    private void markUp(String peer) {
+        failures.remove(peer);
+        if (down.remove(peer)) {
+            log.info("Cluster peer {} is back, rebalancing", peer);
+            rebuild();
+        }
+    }
+
+    private void markFailed(String peer, String reason) {
+        int count = failures.merge(peer, 1, Integer::sum);
+        if (count >= failureThreshold && down.add(peer)) {
+            log.warn("Cluster peer {} is down ({}), rebalancing", peer, reason);
+            rebuild();
+        }
+    }
+
+    private synchronized void rebuild() {
+        NavigableMap<Long, String> next = new TreeMap<>();
+        for (String peer : members) {
+            if (!down.contains(peer)) {
+                for (int i = 0; i < virtualNodes; i++) {
+                    next.put(hash(peer + "#" + i), peer);
+                }
+            }
+        }
+        ring = Collections.unmodifiableNavigableMap(next);
+    }
+
+    /**
+     * Position of a key on the ring: the first eight bytes of its MD5 digest, identical on every peer.
+     */
+    static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = value << 8 | (digest[i] & 0xFF);
+            }
+            return value;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Get the peer that owns a device
+     * @param deviceId
+     * @return base URL of the owning peer; this instance when cluster mode is off
+     */
+    public String ownerOf(String deviceId) {
+        NavigableMap<Long, String> current = ring;
+        if (!enabled || current.isEmpty()) {
+            return self;
+        }
+        Map.Entry<Long, String> entry = current.ceilingEntry(hash(deviceId));
+        return entry != null ? entry.getValue() : current.firstEntry().getValue();
+    }
+
+    /**
+     * Whether this instance owns a device and should talk to it.
+     * @param deviceId
+     * @return boolean
+     */
+    public boolean isLocal(String deviceId) {
+        return !enabled || self.equals(ownerOf(deviceId));
+    }
+
+    /**
+     * Get the devices this instance owns, in configuration order
+     * @return List of RelayDevice
+     */
+    public List<RelayDevice> getLocalDevices() {
+        return relayDeviceManager.getRelayDevices().stream()
+                .filter(device -> isLocal(device.getDeviceId()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Whether a request marked with {@link #FORWARDED_HEADER} really comes from a peer: the header names a member of
+     * the cluster and the request was sent from a member's address. Anyone else gets the header ignored, so a
+     * client cannot make an instance act on a device it does not own.
+     * @param forwardedBy value of {@link #FORWARDED_HEADER}
+     * @param client address the request came from; looked up from the current request when null
+     * @return boolean
+     */
+    public boolean isForwardedByPeer(String forwardedBy, String client) {
+        if (forwardedBy == null || !enabled) {
+            return false;
+        }
+        String address = client != null ? client : ClientAddress.current();
+        if (members.contains(normalize(forwardedBy)) && address != null && memberAddresses.contains(address)) {
+            return true;
+        }
+        log.warn("Ignoring {} header naming {} on a request from {}", FORWARDED_HEADER, forwardedBy, address);
+        return false;
+    }
+
+    /**
+     * Serve a request on this instance, whoever owns the device, when it was forwarded by a peer. Other requests
+     * are routed as usual.
+     * @param forwardedBy value of {@link #FORWARDED_HEADER}; null when the request came from a client
+     * @param client address the request came from; looked up from the current request when null
+     * @param request
+     * @return the request's result
+     */
+    public <T> T serve(String forwardedBy, String client, Supplier<T> request) {
+        if (!isForwardedByPeer(forwardedBy, client)) {
+            return request.get();
+        }
+        FORWARDED.set(Boolean.TRUE);
+        try {
+            return request.get();
+        } finally {
+            FORWARDED.remove();
+        }
+    }
+
+    /**
+     * Run a request for a device on its owner, see {@link #route(String, Supplier, Function, boolean)}. The request
+     * is retried on the device's new owner if its peer cannot be reached.
+     */
+    public <T> T route(String deviceId, Supplier<T> local, Function<String, T> remote) {
+        return route(deviceId, local, remote, true);
+    }
+
+    /**
+     * Run a request for a device on its owner: here when this instance owns it, otherwise forwarded. A peer that
+     * cannot be reached is taken out of the ring straight away and the request goes to the device's new owner.
+     * @param deviceId device the request is for
+     * @param local runs the request on this instance
+     * @param remote forwards the request to the given peer, through {@link #forward}
+     * @param idempotent whether the request may run twice; if not, it is only retried when the peer could not even
+     *                   be connected to, as a request cut off later may already have been carried out
+     * @return the request's result
+     * @throws DeviceUnreachableException if a request that may not run twice was cut off on its way to the peer
+     */
+    public <T> T route(String deviceId, Supplier<T> local, Function<String, T> remote, boolean idempotent) {
+        if (FORWARDED.get() != null) {
+            return local.get();
+        }
+        while (true) {
+            String owner = ownerOf(deviceId);
+            if (owner == null || owner.equals(self)) {
+                return local.get();
+            }
+            try {
+                return remote.apply(owner);
+            } catch (PeerUnreachableException e) {
+                failures.put(owner, failureThreshold);
+                markFailed(owner, e.getMessage());
+                if (!idempotent && e.sent) {
+                    throw new DeviceUnreachableException("Peer " + owner + " stopped answering; the request may have "
+                            + "been carried out and is not retried");
+                }
+            }
+        }
+    }
+
+    /**
+     * Send a request to a peer and wait for its answer.
+     * @param peer base URL of the peer
+     * @param method
+     * @param type type of the answer; Void for none
+     * @param path path below the peer's base URL, with {placeholders} for the variables
+     * @param variables values for the placeholders, encoded into the path
+     * @return the answer
+     * @throws ForwardedRequestException if the peer answered with an error status
+     */
+    public <T> T forward(String peer, HttpMethod method, Class<T> type, String path, Object... variables) {
+        try {
+            return forwardAsync(peer, method, type, forwardTimeoutMs, path, variables).block();
+        } catch (WebClientRequestException e) {
+            throw new PeerUnreachableException(e);
+        }
+    }
+
+    /**
+     * Send a request to a peer without waiting for its answer, for requests that may take long by design.
+     * @param peer base URL of the peer
+     * @param method
+     * @param type type of the answer; Void for none
+     * @param timeoutMs how long the peer may take to answer
+     * @param path path below the peer's base URL, with {placeholders} for the variables
+     * @param variables values for the placeholders, encoded into the path
+     * @return the answer; fails with ForwardedRequestException if the peer answered with an error status
+     */
+    public <T> Mono<T> forwardAsync(String peer, HttpMethod method, Class<T> type, long timeoutMs, String path, Object... variables) {
+        return client.method(method).uri(peer + path, variables)
+                .header(FORWARDED_HEADER, self)
+                .exchangeToMono(response -> {
+                    if (response.statusCode().isError()) {
+                        return response.bodyToMono(String.class).defaultIfEmpty("")
+                                .flatMap(body -> Mono.error(new ForwardedRequestException(response.statusCode(), body)));
+                    }
+                    return response.bodyToMono(type);
+                })
+                .timeout(Duration.ofMillis(timeoutMs))
+                .onErrorMap(TimeoutException.class, e -> new DeviceUnreachableException(
+                        "Peer " + peer + " did not answer within " + timeoutMs + " ms"));
+    }
+
+    /**
+     * Milliseconds a forwarded request may take on top of whatever time the request itself asks for
+     * @return long
+     */
+    public long getForwardTimeoutMs() {
+        return forwardTimeoutMs;
+    }
+
+    /**
+     * Get this instance's view of the cluster
+     * @return ClusterStatus
+     */
+    public ClusterStatus getStatus() {
+        ClusterStatus status = new ClusterStatus();
+        status.setEnabled(enabled);
+        if (enabled) {
+            status.setSelf(self);
+            Map<String, Boolean> up = new LinkedHashMap<>();
+            members.forEach(peer -> up.put(peer, !down.contains(peer)));
+            status.setPeers(up);
+        }
+        status.setOwnedDevices(getLocalDevices().stream().map(RelayDevice::getDeviceId).collect(Collectors.toList()));
+        return status;
+    }
+
+    /**
+     * A forwarded request that got no answer from the peer.
+     */
+    private static final class PeerUnreachableException extends RuntimeException {
+        /**
+         * Whether the request may have reached the peer, i.e. the connection was made before it failed.
+         */
+        final boolean sent;
+
+        PeerUnreachableException(Throwable cause) {
+            super(cause.getMessage(), cause);
+            boolean connected = true;
+            for (Throwable next = cause; next != null; next = next.getCause()) {
+                if (next instanceof ConnectException) {
+                    connected = false;
+                }
+            }
+            this.sent = connected;
+        }
+    }
+}
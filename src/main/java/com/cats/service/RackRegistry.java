@@ -0,0 +1,307 @@
+package com.cats.service;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.config.RelayConfiguration;
+import com.cats.events.RacksChangedEvent;
+import com.cats.events.RelayDevicesChangedEvent;
+import com.cats.exceptions.RackBusyException;
+import com.cats.exceptions.RackNotFoundException;
+import com.cats.relay.RackConfig;
+import com.cats.relay.RelayDevice;
+import com.cats.relay.RelayDeviceConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+/**
+ * Index of the racks this service serves. A device belongs to the rack named by its rack property, or to the
+ * default rack when it has none; settings for a rack come from the racks section of config.yml.
+ * An instance serving a single rack answers to any rack name, so clients of the one-rack-per-instance
+ * deployment keep working unchanged.
+ */
+@Service
+@Slf4j
+public class RackRegistry {
+
+    /**
+     * Rack of devices configured without a rack.
+     */
+    public static final String DEFAULT_RACK = "default";
+
+    @Value("${slotMappingFilePath}")
+    String defaultMappingFile;
+
+    @Value("${bulkConcurrency:16}")
+    int defaultBulkConcurrency;
+
+    @Value("${jobThreads:4}")
+    int defaultJobThreads;
+
+    @Value("${jobQueueCapacity:32}")
+    int defaultJobQueueCapacity;
+
+    /**
+     * Maximum number of single-slot requests served on one rack at once, unless the rack sets its own.
+     */
+    @Value("${rackMaxConcurrentCalls:64}")
+    int defaultMaxConcurrentCalls;
+
+    @Autowired
+    RelayConfiguration relayConfiguration;
+
+    @Autowired
+    RelayDeviceManager relayDeviceManager;
+
+    @Autowired
+    ApplicationEventPublisher eventPublisher;
+
+    /**
+     * Racks by name; replaced, never modified, when the device set changes.
+     */
+    private volatile Map<String, Rack> racks = Collections.emptyMap();
+
+    @PostConstruct
+    public void init() {
+        rebuild();
+    }
+
+    @EventListener
+    public void onDevicesChanged(RelayDevicesChangedEvent event) {
+        rebuild();
+    }
+
+    /**
+     * Pick up changed rack settings, i.e. after the racks section of config.yml was reloaded.
+     */
+    public void refresh() {
+        rebuild();
+    }
+
+    /**
+     * Find the rack a request names.
+     * @param name rack name from the request; may be null when only one rack is served
+     * @return Rack
+     * @throws RackNotFoundException if several racks are served and none has this name
+     */
+    public Rack resolve(String name) {
+        Map<String, Rack> current = racks;
+        Rack rack = name == null ? null : current.get(name);
+        if (rack == null && current.size() == 1) {
+            rack = current.values().iterator().next();
+        }
+        if (rack == null) {
+            throw new RackNotFoundException("No rack " + name + ", racks served are " + current.keySet());
+        }
+        return rack;
+    }
+
+    /**
+     * Get every rack served, in configuration order
+     * @return List of Rack
+     */
+    public List<Rack> getRacks() {
+        return new ArrayList<>(racks.values());
+    }
+
+    /**
+     * Get the devices of a rack, in configuration order
+     * @param rack
+     * @return List of RelayDevice
+     */
+    public List<RelayDevice> getDevices(Rack rack) {
+        List<RelayDevice> devices = new ArrayList<>();
+        for (RelayDeviceConfig config : relayDeviceManager.getDeviceConfigs()) {
+            if (rack.getName().equals(rackOf(config))) {
+                RelayDevice device = relayDeviceManager.getDevice(config.getDeviceId());
+                if (device != null) {
+                    devices.add(device);
+                }
+            }
+        }
+        return devices;
+    }
+
+    /**
+     * Whether a device belongs to a rack, without listing the rack's devices
+     * @param rack
+     * @param deviceId
+     * @return boolean
+     */
+    public boolean contains(Rack rack, String deviceId) {
+        RelayDeviceConfig config = relayDeviceManager.getDeviceConfig(deviceId);
+        return config != null && rack.getName().equals(rackOf(config));
+    }
+
+    private static String rackOf(RelayDeviceConfig config) {
+        return config.getRack() == null ? DEFAULT_RACK : config.getRack();
+    }
+
+    private synchronized void rebuild() {
+        Map<String, RackConfig> settings = new LinkedHashMap<>();
+        if (relayConfiguration.getRacks() != null) {
+            for (RackConfig config : relayConfiguration.getRacks()) {
+                if (config.getName() == null) {
+                    throw new IllegalArgumentException("Rack configured without a name " + config);
+                }
+                settings.put(config.getName(), config);
+            }
+        }
+        List<String> names = new ArrayList<>(settings.keySet());
+        for (RelayDeviceConfig device : relayDeviceManager.getDeviceConfigs()) {
+            if (!names.contains(rackOf(device))) {
+                names.add(rackOf(device));
+            }
+        }
+        if (names.isEmpty()) {
+            names.add(DEFAULT_RACK);
+        }
+
+        Map<String, Rack> previous = racks;
+        Map<String, Rack> next = new LinkedHashMap<>();
+        List<String> updated = new ArrayList<>();
+        for (String name : names) {
+            Rack rack = create(name, settings.getOrDefault(name, new RackConfig()));
+            Rack existing = previous.get(name);
+            if (existing != null && existing.hasSettingsOf(rack)) {
+                // keep unchanged racks, so requests in flight hold on to the same bulkhead
+                rack = existing;
+            } else if (existing != null) {
+                updated.add(name);
+            }
+            next.put(name, rack);
+        }
+        List<String> removed = new ArrayList<>(previous.keySet());
+        removed.removeAll(next.keySet());
+        racks = Collections.unmodifiableMap(next);
+        if (!previous.keySet().equals(next.keySet()) || !updated.isEmpty()) {
+            log.info("Serving racks {}, updated {}, removed {}", next.keySet(), updated, removed);
+        }
+        if (!updated.isEmpty() || !removed.isEmpty()) {
+            eventPublisher.publishEvent(new RacksChangedEvent(updated, removed));
+        }
+    }
+
+    private Rack create(String name, RackConfig config) {
+        String mappingFile = config.getMappingFile();
+        if (mappingFile == null) {
+            if (DEFAULT_RACK.equals(name)) {
+                mappingFile = defaultMappingFile;
+            } else {
+                Path defaults = Paths.get(defaultMappingFile);
+                mappingFile = defaults.resolveSibling("mappings-" + name.replaceAll("[^A-Za-z0-9._-]", "_") + ".json").toString();
+            }
+        }
+        return new Rack(name, mappingFile,
+                config.getBulkConcurrency() != null ? config.getBulkConcurrency() : defaultBulkConcurrency,
+                config.getJobThreads() != null ? config.getJobThreads() : defaultJobThreads,
+                config.getJobQueueCapacity() != null ? config.getJobQueueCapacity() : defaultJobQueueCapacity,
+                config.getMaxConcurrentCalls() != null ? config.getMaxConcurrentCalls() : defaultMaxConcurrentCalls);
+    }
+
+    /**
+     * One rack and its resource budgets. Each rack gets its own bulk scheduler, job executor and bulkhead for
+     * single-slot requests, so a rack with slow or unreachable devices cannot starve the others.
+     */
+    public static final class Rack {
+        private final String name;
+        private final String mappingFile;
+        private final int bulkConcurrency;
+        private final int jobThreads;
+        private final int jobQueueCapacity;
+        private final int maxConcurrentCalls;
+        private final Semaphore calls;
+
+        Rack(String name, String mappingFile, int bulkConcurrency, int jobThreads, int jobQueueCapacity, int maxConcurrentCalls) {
+            this.name = name;
+            this.mappingFile = mappingFile;
+            this.bulkConcurrency = bulkConcurrency;
+            this.jobThreads = jobThreads;
+            this.jobQueueCapacity = jobQueueCapacity;
+            this.maxConcurrentCalls = maxConcurrentCalls;
+            this.calls = new Semaphore(maxConcurrentCalls);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getMappingFile() {
+            return mappingFile;
+        }
+
+        public int getBulkConcurrency() {
+            return bulkConcurrency;
+        }
+
+        public int getJobThreads() {
+            return jobThreads;
+        }
+
+        public int getJobQueueCapacity() {
+            return jobQueueCapacity;
+        }
+
+        public int getMaxConcurrentCalls() {
+            return maxConcurrentCalls;
+        }
+
+        boolean hasSettingsOf(Rack other) {
+            return mappingFile.equals(other.mappingFile)
+                    && bulkConcurrency == other.bulkConcurrency
+                    && jobThreads == other.jobThreads
+                    && jobQueueCapacity == other.jobQueueCapacity
+                    && maxConcurrentCalls == other.maxConcurrentCalls;
+        }
+
+        /**
+         * Run a single-slot request inside the rack's bulkhead.
+         * @throws RackBusyException if the rack already has maxConcurrentCalls requests in flight
+         */
+        public <T> T call(Supplier<T> request) {
+            if (!calls.tryAcquire()) {
+                throw new RackBusyException("Rack " + name + " is serving " + maxConcurrentCalls + " requests already, try again later");
+            }
+            try {
+                return request.get();
+            } finally {
+                calls.release();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
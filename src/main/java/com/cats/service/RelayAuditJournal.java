@@ -0,0 +1,395 @@
+package com.cats.service;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.dto.AuditEntry;
+import com.cats.dto.AuditSource;
+import com.cats.utils.ClientAddress;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Append-only journal of relay commands, written through memory-mapped segment files of fixed 128 byte records.
+ * Appending claims a record index with a single atomic increment and writes the fields straight into the mapping,
+ * so the command path never takes a lock or makes a system call; the operating system writes the pages back and
+ * they are forced to disk periodically and on every rollover. A record only counts once its commit marker,
+ * written last, is set, so a record torn by a crash is skipped on restart.
+ *
+ * <pre>
+ *   0 timestamp millis (long)   8 slot (int)     12 port (int)      16 client address (16 bytes, IPv4-mapped)
+ *  32 latency micros (int)     36 operation     37 success         38 source     39 device id length
+ *  40 device id (up to 80 bytes, UTF-8)        120 commit marker (long)
+ * </pre>
+ * A device id longer than 80 bytes is not journaled rather than cut short, since a query could never match it.
+ */
+@Service
+@Slf4j
+public class RelayAuditJournal {
+
+    static final int RECORD_SIZE = 128;
+    static final int MAX_DEVICE_ID_BYTES = 80;
+    private static final int COMMIT_OFFSET = 120;
+    private static final long COMMIT = 0x5245_4C41_5941_5544L;
+    private static final String SEGMENT_PREFIX = "audit-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String[] OPERATIONS = { "", "ON", "OFF", "TIMED" };
+    private static final AuditSource[] SOURCES = AuditSource.values();
+
+    /**
+     * Ordered access to the commit marker, so a reader that sees it set also sees the rest of the record.
+     */
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    /**
+     * Whether relay commands are journaled.
+     */
+    @Value("${auditEnabled:true}")
+    boolean enabled;
+
+    /**
+     * Directory holding the journal segments.
+     */
+    @Value("${auditDirectory:./relayms/audit}")
+    String directory;
+
+    /**
+     * Number of records per segment file before rolling over to a new one.
+     */
+    @Value("${auditSegmentRecords:65536}")
+    int segmentRecords;
+
+    /**
+     * Number of segment files kept; the oldest is deleted once a rollover exceeds it.
+     */
+    @Value("${auditMaxSegments:16}")
+    int maxSegments;
+
+    private volatile Segment current;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Path dir = Paths.get(directory);
+        Files.createDirectories(dir);
+        List<Path> segments = listSegments();
+        if (segments.isEmpty()) {
+            current = Segment.open(segmentPath(1), 1, segmentRecords);
+        } else {
+            Path last = segments.get(segments.size() - 1);
+            current = Segment.open(last, sequenceOf(last), segmentRecords);
+        }
+        log.info("Audit journal {} resumed at record {}", current.path, current.next.get());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    /**
+     * Periodically write dirty journal pages back to disk.
+     */
+    @Scheduled(fixedDelayString = "${auditFlushIntervalMs:1000}")
+    public void flush() {
+        Segment segment = current;
+        if (segment != null) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * Record a command issued through the API, a job or a bulk request. The client address is recorded when the
+     * command runs on a servlet request thread.
+     * @param source API or JOB
+     * @param operation ON, OFF or TIMED
+     * @param slot
+     * @param deviceId
+     * @param port
+     * @param success whether the device accepted the command
+     * @param nanos elapsed time of the device call
+     */
+    public void recordCommand(AuditSource source, String operation, Integer slot, String deviceId, Integer port, boolean success, long nanos) {
+        if (enabled) {
+            append(source, operation, slot, deviceId, port, ClientAddress.current(), success, nanos);
+        }
+    }
+
+    /**
+     * Record a command issued by the reconciler, which works on device ports rather than slots.
+     * @param operation ON or OFF
+     * @param deviceId
+     * @param port
+     * @param success whether the device accepted the command
+     * @param nanos elapsed time of the device call
+     */
+    public void recordCorrection(String operation, String deviceId, Integer port, boolean success, long nanos) {
+        if (enabled) {
+            append(AuditSource.RECONCILER, operation, 0, deviceId, port, null, success, nanos);
+        }
+    }
+
+    private void append(AuditSource source, String operation, Integer slot, String deviceId, Integer port,
+                        String client, boolean success, long nanos) {
+        try {
+            while (true) {
+                Segment segment = current;
+                int index = segment.next.getAndIncrement();
+                if (index < segment.capacity) {
+                    segment.write(index, System.currentTimeMillis(), slot, port, deviceId, client,
+                            (int) Math.min(Integer.MAX_VALUE, nanos / 1000), operationCode(operation), success, (byte) source.ordinal());
+                    return;
+                }
+                roll(segment);
+            }
+        } catch (Exception e) {
+            log.warn("Could not journal {} on device {} port {}: {}", operation, deviceId, port, e.getMessage());
+        }
+    }
+
+    private static byte operationCode(String operation) {
+        for (int i = 1; i < OPERATIONS.length; i++) {
+            if (OPERATIONS[i].equals(operation)) {
+                return (byte) i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Start a new segment once the given one is full, unless another thread already has.
+     */
+    private synchronized void roll(Segment full) throws IOException {
+        if (current != full) {
+            return;
+        }
+        full.buffer.force();
+        current = Segment.open(segmentPath(full.sequence + 1), full.sequence + 1, segmentRecords);
+        List<Path> segments = listSegments();
+        for (int i = 0; i < segments.size() - maxSegments; i++) {
+            Files.deleteIfExists(segments.get(i));
+        }
+        log.info("Audit journal rolled over to {}", current.path);
+    }
+
+    /**
+     * Find journaled commands, newest first.
+     * @param slot only this slot, or null for any
+     * @param deviceId only this device, or null for any
+     * @param port only this port, or null for any
+     * @param from inclusive start of the range
+     * @param to inclusive end of the range
+     * @param limit maximum number of entries returned
+     * @return List of AuditEntry
+     */
+    public List<AuditEntry> query(Integer slot, String deviceId, Integer port, Instant from, Instant to, int limit) {
+        List<AuditEntry> result = new ArrayList<>();
+        if (!enabled) {
+            return result;
+        }
+        long fromMs = from.toEpochMilli();
+        long toMs = to.toEpochMilli();
+        Predicate<AuditEntry> filter = entry -> (slot == null || slot.equals(entry.getSlot()))
+                && (deviceId == null || deviceId.equals(entry.getDeviceId()))
+                && (port == null || port.equals(entry.getPort()));
+        Segment segment = current;
+        try {
+            List<Path> segments = listSegments();
+            for (int s = segments.size() - 1; s >= 0 && result.size() < limit; s--) {
+                Path path = segments.get(s);
+                ByteBuffer buffer;
+                if (path.equals(segment.path)) {
+                    buffer = segment.buffer;
+                } else {
+                    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    } catch (NoSuchFileException e) {
+                        // deleted by a rollover since it was listed
+                        continue;
+                    }
+                }
+                for (int i = buffer.capacity() / RECORD_SIZE - 1; i >= 0 && result.size() < limit; i--) {
+                    int offset = i * RECORD_SIZE;
+                    if ((long) LONGS.getAcquire(buffer, offset + COMMIT_OFFSET) != COMMIT) {
+                        continue;
+                    }
+                    long timestamp = buffer.getLong(offset);
+                    if (timestamp < fromMs || timestamp > toMs) {
+                        continue;
+                    }
+                    AuditEntry entry = read(buffer, offset);
+                    if (filter.test(entry)) {
+                        result.add(entry);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not read audit journal: {}", e.getMessage());
+        }
+        return result;
+    }
+
+    private static AuditEntry read(ByteBuffer buffer, int offset) {
+        AuditEntry entry = new AuditEntry();
+        entry.setTimestamp(Instant.ofEpochMilli(buffer.getLong(offset)));
+        entry.setSlot(buffer.getInt(offset + 8));
+        entry.setPort(buffer.getInt(offset + 12));
+        entry.setDeviceId(readDeviceId(buffer, offset + 39));
+        entry.setClient(readAddress(buffer, offset + 16));
+        entry.setLatencyMicros((long) buffer.getInt(offset + 32));
+        int operation = buffer.get(offset + 36);
+        entry.setOperation(operation > 0 && operation < OPERATIONS.length ? OPERATIONS[operation] : null);
+        entry.setSuccess(buffer.get(offset + 37) != 0);
+        int source = buffer.get(offset + 38);
+        entry.setSource(source >= 0 && source < SOURCES.length ? SOURCES[source] : null);
+        return entry;
+    }
+
+    private static String readDeviceId(ByteBuffer buffer, int offset) {
+        int length = Math.min(MAX_DEVICE_ID_BYTES, buffer.get(offset) & 0xFF);
+        byte[] bytes = new byte[length];
+        buffer.get(offset + 1, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String readAddress(ByteBuffer buffer, int offset) {
+        byte[] bytes = new byte[16];
+        buffer.get(offset, bytes);
+        if (Arrays.equals(bytes, new byte[16])) {
+            return null;
+        }
+        try {
+            return InetAddress.getByAddress(bytes).getHostAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(Paths.get(directory))) {
+            return files.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                            && path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private Path segmentPath(long sequence) {
+        return Paths.get(directory, String.format("%s%010d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    }
+
+    private static long sequenceOf(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * One mapped segment file and the index of its next free record.
+     */
+    private static final class Segment {
+        final Path path;
+        final long sequence;
+        final int capacity;
+        final MappedByteBuffer buffer;
+        final AtomicInteger next;
+
+        private Segment(Path path, long sequence, int capacity, MappedByteBuffer buffer, int next) {
+            this.path = path;
+            this.sequence = sequence;
+            this.capacity = capacity;
+            this.buffer = buffer;
+            this.next = new AtomicInteger(next);
+        }
+
+        /**
+         * Map a segment, creating it if needed, and resume after its last committed record.
+         */
+        static Segment open(Path path, long sequence, int records) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // an existing segment keeps the size it was created with
+                int capacity = channel.size() > 0 ? (int) (channel.size() / RECORD_SIZE) : records;
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) capacity * RECORD_SIZE);
+                int next = capacity;
+                while (next > 0 && buffer.getLong((next - 1) * RECORD_SIZE + COMMIT_OFFSET) != COMMIT) {
+                    next--;
+                }
+                return new Segment(path, sequence, capacity, buffer, next);
+            }
+        }
+
+        void write(int index, long timestamp, int slot, int port, String deviceId, String client,
+                   int latencyMicros, byte operation, boolean success, byte source) {
+            int offset = index * RECORD_SIZE;
+            byte[] id = deviceId == null ? new byte[0] : deviceId.getBytes(StandardCharsets.UTF_8);
+            if (id.length > MAX_DEVICE_ID_BYTES) {
+                throw new IllegalArgumentException("device id longer than " + MAX_DEVICE_ID_BYTES + " bytes");
+            }
+            // a record left torn by a crash may be reused after restart, so clear it first
+            for (int i = 8; i < COMMIT_OFFSET; i += 8) {
+                buffer.putLong(offset + i, 0);
+            }
+            buffer.putLong(offset, timestamp);
+            buffer.putInt(offset + 8, slot);
+            buffer.putInt(offset + 12, port);
+            byte[] address = ClientAddress.parseLiteral(client);
+            if (address != null && address.length == 4) {
+                // store IPv4 as IPv4-mapped IPv6 so every address takes the same 16 bytes
+                buffer.putShort(offset + 26, (short) 0xFFFF);
+                buffer.put(offset + 28, address);
+            } else if (address != null) {
+                buffer.put(offset + 16, address);
+            }
+            buffer.putInt(offset + 32, latencyMicros);
+            buffer.put(offset + 36, operation);
+            buffer.put(offset + 37, (byte) (success ? 1 : 0));
+            buffer.put(offset + 38, source);
+            buffer.put(offset + 39, (byte) id.length);
+            buffer.put(offset + 40, id);
+            LONGS.setRelease(buffer, offset + COMMIT_OFFSET, COMMIT);
+        }
+    }
+}
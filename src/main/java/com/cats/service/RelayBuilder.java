@@ -19,13 +19,25 @@ package com.cats.service;
  */
 
 import com.cats.relay.RelayDevice;
-import com.cats.relay.WebRelayXWR4R1;
+import com.cats.relay.RelayDeviceConfig;
+import com.cats.relay.driver.RelayCapability;
+import com.cats.relay.driver.RelayDriver;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.TreeMap;
 
+/**
+ * Builds relay devices through the {@link RelayDriver} registered for their type.
+ */
 @Service
+@Slf4j
 public class RelayBuilder {
 
     /**
@@ -34,6 +46,21 @@ public class RelayBuilder {
     @Value("${deviceReadTimeout}")
     Long readTimeout;
 
+    /**
+     * Relay drivers by type
+     */
+    private final Map<String, RelayDriver> drivers = new TreeMap<>();
+
+    public RelayBuilder() {
+        for (RelayDriver driver : ServiceLoader.load(RelayDriver.class, RelayBuilder.class.getClassLoader())) {
+            RelayDriver previous = drivers.put(driver.getType(), driver);
+            if (previous != null) {
+                log.warn("Relay driver {} replaces {} for type {}", driver.getClass().getName(),
+                        previous.getClass().getName(), driver.getType());
+            }
+        }
+        log.info("Relay drivers: {}", drivers.keySet());
+    }
 
     /**
      * Get the relay device
@@ -45,15 +72,7 @@ public class RelayBuilder {
      * @return RelayDevice
      */
     public RelayDevice get(String type, String deviceId, String host, Integer port, Integer maxPorts) {
-        RelayDevice device;
-        switch (type) {
-            case "XWR4R1":
-                device = new WebRelayXWR4R1(deviceId, host, port, maxPorts, type, readTimeout);
-                break;
-            default:
-                throw new IllegalArgumentException("Cannot identify relay device");
-        }
-        return device;
+        return get(type, deviceId, host, port, maxPorts, null);
     }
 
     /**
@@ -67,14 +86,49 @@ public class RelayBuilder {
      * @return RelayDevice
      */
     public RelayDevice get(String type, String deviceId, String host, Integer port, Integer maxPorts, List<Boolean> invertRelays) {
-        RelayDevice device;
-        switch (type) {
-            case "XWR4R1":
-                device = new WebRelayXWR4R1(deviceId, host, port, maxPorts, invertRelays, type, readTimeout);
-                break;
-            default:
-                throw new IllegalArgumentException("Cannot identify relay device");
+        RelayDeviceConfig config = new RelayDeviceConfig();
+        config.setType(type);
+        config.setDeviceId(deviceId);
+        config.setHost(host);
+        config.setPort(port);
+        config.setMaxPort(maxPorts);
+        if (invertRelays != null) {
+            config.getInvertRelays().addAll(invertRelays);
+        }
+        return get(config);
+    }
+
+    /**
+     * Get the relay device
+     * @param config
+     * @return RelayDevice
+     */
+    public RelayDevice get(RelayDeviceConfig config) {
+        return driver(config.getType()).create(config, readTimeout);
+    }
+
+    /**
+     * Get the capabilities of a relay type
+     * @param type
+     * @return Set of RelayCapability
+     */
+    public Set<RelayCapability> getCapabilities(String type) {
+        return driver(type).getCapabilities();
+    }
+
+    /**
+     * Get the relay types a driver is registered for
+     * @return Set of type names
+     */
+    public Set<String> getTypes() {
+        return Collections.unmodifiableSet(drivers.keySet());
+    }
+
+    private RelayDriver driver(String type) {
+        RelayDriver driver = drivers.get(type);
+        if (driver == null) {
+            throw new IllegalArgumentException("Cannot identify relay device type " + type + ", supported types are " + drivers.keySet());
         }
-        return device;
+        return driver;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,182 @@
+package com.cats.service;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.dto.BulkSummary;
+import com.cats.dto.SlotResult;
+import com.cats.events.RacksChangedEvent;
+import com.cats.relay.Relay;
+import com.cats.relay.RelayDevice;
+import com.cats.relay.RelayOperation;
+import com.cats.relay.driver.RelayCapability;
+import com.cats.service.RackRegistry.Rack;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fans a relay operation out across slots in parallel, emitting each slot's result as soon as its device answers.
+ */
+@Service
+@Slf4j
+public class RelayBulkService {
+
+    @Autowired
+    RelayService relayService;
+
+    @Autowired
+    SlotMappingService slotMappingService;
+
+    @Autowired
+    RackRegistry rackRegistry;
+
+    @Autowired
+    ClusterService clusterService;
+
+    /**
+     * Workers for the blocking device calls by rack, so they never run on a request or event loop thread and a
+     * rack with slow devices cannot hold up another rack's bulk requests.
+     */
+    private final Map<String, Scheduler> schedulers = new ConcurrentHashMap<>();
+
+    @PreDestroy
+    public void shutdown() {
+        schedulers.values().forEach(Scheduler::dispose);
+    }
+
+    /**
+     * Retire the workers of racks rebuilt or no longer served, once their calls in flight are done; a rebuilt rack
+     * gets new workers sized by its new settings on its next bulk request.
+     */
+    @EventListener
+    public void onRacksChanged(RacksChangedEvent event) {
+        List<String> names = new ArrayList<>(event.getUpdated());
+        names.addAll(event.getRemoved());
+        for (String name : names) {
+            Scheduler scheduler = schedulers.remove(name);
+            if (scheduler != null) {
+                scheduler.disposeGracefully().subscribe();
+            }
+        }
+    }
+
+    private Scheduler scheduler(Rack rack) {
+        return schedulers.computeIfAbsent(rack.getName(), name ->
+                Schedulers.newBoundedElastic(rack.getBulkConcurrency(), Integer.MAX_VALUE, "relay-bulk-" + name));
+    }
+
+    /**
+     * Run the operation on each slot, in completion order rather than slot order.
+     * ON and OFF for slots on a device with {@link RelayCapability#BULK_COMMAND} are sent as one command per device;
+     * every other slot gets its own call.
+     * @param rack rack the slots belong to
+     * @param operation operation to perform
+     * @param slots slots to operate on; all mapped slots when null or empty
+     * @param cycleDelay seconds to hold relays off during a power cycle
+     * @return Flux of SlotResult
+     */
+    public Flux<SlotResult> execute(String rack, RelayOperation operation, List<Integer> slots, Integer cycleDelay) {
+        Rack target = rackRegistry.resolve(rack);
+        List<Integer> targets = (slots == null || slots.isEmpty()) ? slotMappingService.getMappedSlots(rack) : slots;
+        List<Mono<List<SlotResult>>> calls = new ArrayList<>();
+        List<Integer> single = targets;
+        if (operation == RelayOperation.ON || operation == RelayOperation.OFF) {
+            single = new ArrayList<>();
+            Map<RelayDevice, Map<Integer, Integer>> grouped = groupByBulkDevice(rack, targets, single);
+            grouped.forEach((device, portsBySlot) -> calls.add(
+                    Mono.fromCallable(() -> relayService.applyToDevice(device, portsBySlot, operation))));
+        }
+        single.forEach(slot -> calls.add(Mono.fromCallable(() -> List.of(relayService.apply(rack, slot, operation, cycleDelay)))));
+        Scheduler scheduler = scheduler(target);
+        return Flux.fromIterable(calls)
+                .flatMap(call -> call.subscribeOn(scheduler), target.getBulkConcurrency())
+                .flatMapIterable(results -> results);
+    }
+
+    /**
+     * Group the slots whose device accepts several ports in one command, and is owned by this instance, by device.
+     * @param rack rack the slots belong to
+     * @param targets slots to operate on
+     * @param single receives the slots that need a call of their own, including unmapped ones
+     * @return device port for each slot, per device
+     */
+    private Map<RelayDevice, Map<Integer, Integer>> groupByBulkDevice(String rack, List<Integer> targets, List<Integer> single) {
+        Map<RelayDevice, Map<Integer, Integer>> grouped = new LinkedHashMap<>();
+        for (Integer slot : targets) {
+            Relay relay;
+            try {
+                relay = slotMappingService.getRelayDeviceAtSlot(rack, slot);
+            } catch (Exception e) {
+                relay = null;
+            }
+            if (relay == null || !relay.getDevice().getCapabilities().contains(RelayCapability.BULK_COMMAND)
+                    || !clusterService.isLocal(relay.getDevice().getDeviceId())) {
+                // left to the per-slot path, which reports the mapping error in the slot's result
+                // and forwards slots of devices another peer owns
+                single.add(slot);
+            } else {
+                grouped.computeIfAbsent(relay.getDevice(), device -> new LinkedHashMap<>()).put(slot, relay.getPort());
+            }
+        }
+        return grouped;
+    }
+
+    /**
+     * Run the operation on each slot and follow the per-slot results with a summary record.
+     * @param rack rack the slots belong to
+     * @param operation operation to perform
+     * @param slots slots to operate on; all mapped slots when null or empty
+     * @param cycleDelay seconds to hold relays off during a power cycle
+     * @return Flux of SlotResult, then one BulkSummary
+     */
+    public Flux<Object> stream(String rack, RelayOperation operation, List<Integer> slots, Integer cycleDelay) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicInteger succeeded = new AtomicInteger();
+            AtomicInteger failed = new AtomicInteger();
+            return execute(rack, operation, slots, cycleDelay)
+                    .doOnNext(result -> (Boolean.TRUE.equals(result.getSuccess()) ? succeeded : failed).incrementAndGet())
+                    .cast(Object.class)
+                    .concatWith(Mono.fromSupplier(() -> {
+                        BulkSummary summary = new BulkSummary();
+                        summary.setOperation(operation);
+                        summary.setSucceeded(succeeded.get());
+                        summary.setFailed(failed.get());
+                        summary.setTotal(succeeded.get() + failed.get());
+                        summary.setDurationMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+                        log.info("Bulk {} finished: {}", operation, summary);
+                        return summary;
+                    }));
+        });
+    }
+}
@@ -0,0 +1,219 @@
+package com.cats.service;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.dto.RelayResponse;
+import com.cats.events.RelayDevicesChangedEvent;
+import com.cats.relay.RelayDevice;
+import com.cats.relay.Status;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Orders ON/OFF commands per relay port, keyed by device:port. Every command is numbered by a sequence that only
+ * grows per port and runs one at a time with the others on the port, so the state read back after a command is
+ * the state that command left. Commands that queue up while one runs are collapsed, last writer wins: only the
+ * newest runs, and the older ones answer with the state it achieved, marked superseded, or with its failure.
+ * Every caller waits for the answer to its own command. There is no worker thread: a waiting caller that finds the
+ * port idle runs the commands queued at that moment, which always include its own, so it runs at most one batch
+ * and never commands queued after it took the batch. A command may therefore run on another caller's thread and
+ * must carry its own context (bulkhead, audit source) rather than read the thread it runs on.
+ * <p>
+ * Only commands submitted here are ordered. Multi-port writes through {@link RelayDevice#setStates}, i.e. bulk
+ * requests to devices with one-command bulk support and reconciler corrections, go to the device directly and can
+ * interleave with a queued command on one of their ports; the state read back afterwards still reflects the device.
+ */
+@Service
+@Slf4j
+public class RelayCommandSequencer {
+
+    private final Map<String, PortQueue> queues = new ConcurrentHashMap<>();
+
+    /**
+     * Run a command on a port in order with the other commands on it.
+     * @param deviceId
+     * @param port
+     * @param command switches the port and returns the state read back
+     * @return RelayResponse with the state achieved, the command's sequence number and whether it was superseded
+     */
+    public RelayResponse submit(String deviceId, Integer port, Supplier<Status> command) {
+        PortQueue queue = queue(deviceId, port);
+        Command queued;
+        // numbered and queued together, so the queue is always in sequence order
+        synchronized (queue) {
+            queued = new Command(queue.sequence.incrementAndGet(), command);
+            queue.pending.add(queued);
+        }
+        return await(queue, queued, deviceId, port);
+    }
+
+    /**
+     * Run a command on a port only if no command was numbered on it after a given one, e.g. to end a pulse unless
+     * the port was commanded since the pulse started.
+     * @param deviceId
+     * @param port
+     * @param sequence sequence number of the last command the caller expects on the port
+     * @param command switches the port and returns the state read back
+     * @return RelayResponse as for {@link #submit}, or null if a newer command was submitted and this one was dropped
+     */
+    public RelayResponse submitIfLatest(String deviceId, Integer port, long sequence, Supplier<Status> command) {
+        PortQueue queue = queue(deviceId, port);
+        Command queued;
+        synchronized (queue) {
+            if (queue.sequence.get() != sequence) {
+                return null;
+            }
+            queued = new Command(queue.sequence.incrementAndGet(), command);
+            queue.pending.add(queued);
+        }
+        return await(queue, queued, deviceId, port);
+    }
+
+    private PortQueue queue(String deviceId, Integer port) {
+        return queues.computeIfAbsent(deviceId + ":" + port, key -> new PortQueue());
+    }
+
+    private static RelayResponse await(PortQueue queue, Command queued, String deviceId, Integer port) {
+        drain(queue, queued);
+
+        Status status;
+        try {
+            status = queued.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+        RelayResponse response = new RelayResponse();
+        response.setStatus(status);
+        response.setSequence(queued.sequence);
+        if (queued.superseded) {
+            response.setSuperseded(true);
+            log.info("Command {} on relay device {} port {} was superseded, port is {}", queued.sequence, deviceId, port, status);
+        }
+        return response;
+    }
+
+    /**
+     * Wait until a command is answered, running the queued batch whenever the port is idle. The batch is taken
+     * once per turn, so a caller runs at most the batch holding its own command, however fast the queue refills.
+     */
+    private static void drain(PortQueue queue, Command own) {
+        boolean interrupted = false;
+        while (!own.result.isDone()) {
+            if (queue.draining.compareAndSet(false, true)) {
+                try {
+                    List<Command> batch = new ArrayList<>();
+                    for (Command next = queue.pending.poll(); next != null; next = queue.pending.poll()) {
+                        batch.add(next);
+                    }
+                    if (!batch.isEmpty()) {
+                        run(batch);
+                    }
+                } finally {
+                    queue.draining.set(false);
+                    synchronized (queue) {
+                        queue.notifyAll();
+                    }
+                }
+            } else {
+                synchronized (queue) {
+                    // the runner clears draining before it notifies under this monitor, so no wake-up is lost
+                    if (queue.draining.get() && !own.result.isDone()) {
+                        try {
+                            queue.wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Run the newest command of a batch. The ones it superseded never ran and answer with its outcome: the state
+     * it achieved, or the exception it failed with.
+     */
+    private static void run(List<Command> batch) {
+        Command newest = batch.get(batch.size() - 1);
+        for (Command command : batch) {
+            if (command != newest) {
+                command.superseded = true;
+            }
+        }
+        Status status;
+        try {
+            status = newest.command.get();
+        } catch (RuntimeException e) {
+            batch.forEach(command -> command.result.completeExceptionally(e));
+            return;
+        } catch (Error e) {
+            // answer every caller before the error unwinds the thread that ran the batch
+            batch.forEach(command -> command.result.completeExceptionally(e));
+            throw e;
+        }
+        batch.forEach(command -> command.result.complete(status));
+    }
+
+    @EventListener
+    public void onDevicesChanged(RelayDevicesChangedEvent event) {
+        for (String deviceId : event.getRemoved()) {
+            queues.keySet().removeIf(key -> key.startsWith(deviceId + ":"));
+        }
+    }
+
+    /**
+     * Commands waiting on one port.
+     */
+    private static final class PortQueue {
+        final AtomicLong sequence = new AtomicLong();
+        final Queue<Command> pending = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean draining = new AtomicBoolean();
+    }
+
+    private static final class Command {
+        final long sequence;
+        final Supplier<Status> command;
+        final CompletableFuture<Status> result = new CompletableFuture<>();
+        volatile boolean superseded;
+
+        Command(long sequence, Supplier<Status> command) {
+            this.sequence = sequence;
+            this.command = command;
+        }
+    }
+}
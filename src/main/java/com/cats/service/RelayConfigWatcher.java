@@ -0,0 +1,159 @@
+package com.cats.service;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.config.RelayConfiguration;
+import com.cats.config.YamlPropertySourceFactory;
+import com.cats.events.RelayDevicesChangedEvent;
+import com.cats.relay.RackConfig;
+import com.cats.relay.RelayDeviceConfig;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.support.EncodedResource;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the relay device configuration file and applies changes to the device registry without a restart.
+ * Reloading runs on its own thread; request threads keep reading the previous registry until the new one is swapped in.
+ */
+@Service
+@Slf4j
+public class RelayConfigWatcher {
+
+    /**
+     * Whether config.yml is watched for changes.
+     */
+    @Value("${configWatchEnabled:true}")
+    boolean enabled;
+
+    /**
+     * Milliseconds to wait for a burst of file events to settle before reloading, since editors often write in steps.
+     */
+    @Value("${configWatchDebounceMs:500}")
+    long debounceMs;
+
+    @Autowired
+    RelayDeviceManager relayDeviceManager;
+
+    @Autowired
+    RelayConfiguration relayConfiguration;
+
+    @Autowired
+    RackRegistry rackRegistry;
+
+    private WatchService watchService;
+    private Thread watcher;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Path file = Paths.get(RelayConfiguration.CONFIG_FILE).toAbsolutePath().normalize();
+        watchService = FileSystems.getDefault().newWatchService();
+        // watch the directory rather than the file, so a file replaced by rename is seen too
+        file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        watcher = new Thread(() -> watch(file), "relay-config-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        log.info("Watching {} for relay device changes", file);
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
+    }
+
+    private void watch(Path file) {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                do {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        changed |= file.getFileName().equals(event.context());
+                    }
+                    key.reset();
+                    key = watchService.poll(debounceMs, TimeUnit.MILLISECONDS);
+                } while (key != null);
+                if (changed) {
+                    reload(file);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            log.debug("Stopped watching {}", file);
+        }
+    }
+
+    /**
+     * Re-read the configuration file and apply it, devices first and then rack settings. A file that cannot be
+     * parsed or holds an invalid device leaves the current devices and racks untouched.
+     * @param file
+     * @return the event describing what changed, or null if the file could not be applied
+     */
+    public RelayDevicesChangedEvent reload(Path file) {
+        try {
+            PropertySource<?> source = new YamlPropertySourceFactory()
+                    .createPropertySource(null, new EncodedResource(new FileSystemResource(file)));
+            List<RelayDeviceConfig> relays = new Binder(ConfigurationPropertySources.from(source))
+                    .bind("relays", Bindable.listOf(RelayDeviceConfig.class))
+                    .orElseGet(ArrayList::new);
+            if (relays.isEmpty()) {
+                // most likely caught mid-write; an empty rack is never intended
+                throw new IllegalArgumentException("no relay devices configured");
+            }
+            List<RackConfig> racks = new Binder(ConfigurationPropertySources.from(source))
+                    .bind("racks", Bindable.listOf(RackConfig.class))
+                    .orElse(null);
+            RelayDevicesChangedEvent event = relayDeviceManager.apply(relays);
+            relayConfiguration.setRacks(racks);
+            rackRegistry.refresh();
+            return event;
+        } catch (Exception e) {
+            log.error("Could not apply relay configuration {}, keeping current devices: {}", file, e.getMessage());
+            return null;
+        }
+    }
+}
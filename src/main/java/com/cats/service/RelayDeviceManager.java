@@ -19,16 +19,43 @@ package com.cats.service;
  */
 
 import com.cats.config.RelayConfiguration;
+import com.cats.events.RelayDevicesChangedEvent;
+import com.cats.exceptions.DeviceNotFoundException;
 import com.cats.relay.RelayDevice;
 import com.cats.relay.RelayDeviceConfig;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
+/**
+ * Registry of the relay devices on the rack, indexed by device id.
+ * The registry is an immutable snapshot swapped in one volatile write, so readers never lock
+ * and always see a consistent set of devices; changes are serialized and rebuild only the devices that changed.
+ */
 @Service
 @Slf4j
 public class RelayDeviceManager {
@@ -39,10 +66,13 @@ public class RelayDeviceManager {
     @Autowired
     RelayBuilder relayBuilder;
 
+    @Autowired
+    ApplicationEventPublisher eventPublisher;
+
     /**
-     * List of Relay Devices
+     * Current snapshot of the relay devices
      */
-    List<RelayDevice> relayDevices = new ArrayList<>();
+    private volatile Registry registry = new Registry(new LinkedHashMap<>(), new LinkedHashMap<>());
 
 
     /**
@@ -53,8 +83,34 @@ public class RelayDeviceManager {
         if ( relayConfiguration.getRelays() == null ) {
             throw new IllegalArgumentException("Relay configuration is null. Please configure relay devices.");
         }
+        apply(relayConfiguration.getRelays());
+        log.info(String.valueOf(getRelayDevices()));
+    }
+
+    /**
+     * Release any connections held to the relay devices.
+     */
+    @PreDestroy
+    public void shutdown() {
+        getRelayDevices().forEach(RelayDevice::close);
+    }
+
+    /**
+     * Replace the device set with the given configuration. Devices whose configuration is unchanged are kept as is,
+     * changed devices are rebuilt and devices no longer configured are dropped.
+     * @param configs full device configuration
+     * @return the event describing what changed
+     * @throws IllegalArgumentException if any device configuration is invalid; nothing is changed in that case
+     */
+    public synchronized RelayDevicesChangedEvent apply(List<RelayDeviceConfig> configs) {
+        Registry current = registry;
+        Map<String, RelayDevice> devices = new LinkedHashMap<>();
+        Map<String, RelayDeviceConfig> deviceConfigs = new LinkedHashMap<>();
+        List<String> added = new ArrayList<>();
+        List<String> updated = new ArrayList<>();
+        Set<String> foldedIds = new HashSet<>();
 
-        for(RelayDeviceConfig device: relayConfiguration.getRelays()){
+        for(RelayDeviceConfig device: configs){
 
             if(device.getType() == null
                     || device.getDeviceId() == null
@@ -63,12 +119,168 @@ public class RelayDeviceManager {
                     || device.getMaxPort() == null) {
                 throw new IllegalArgumentException("Some required properties are null "+device);
             }
+            String deviceId = device.getDeviceId();
+            // ids are looked up ignoring case, so ids differing only in case are duplicates too
+            if (!foldedIds.add(fold(deviceId))) {
+                throw new IllegalArgumentException("Duplicate relay device id " + deviceId);
+            }
+
+            RelayDeviceConfig previous = current.configs.get(deviceId);
+            if (device.equals(previous)) {
+                devices.put(deviceId, current.devices.get(deviceId));
+            } else {
+                devices.put(deviceId, relayBuilder.get(device));
+                (previous == null ? added : updated).add(deviceId);
+            }
+            deviceConfigs.put(deviceId, device);
+        }
+
+        List<String> removed = new ArrayList<>(current.devices.keySet());
+        removed.removeAll(devices.keySet());
+
+        RelayDevicesChangedEvent event = new RelayDevicesChangedEvent(added, updated, removed);
+        if (added.isEmpty() && updated.isEmpty() && removed.isEmpty()) {
+            return event;
+        }
+        registry = new Registry(devices, deviceConfigs);
+        for (Map.Entry<String, RelayDevice> previous : current.devices.entrySet()) {
+            if (devices.get(previous.getKey()) != previous.getValue()) {
+                previous.getValue().close();
+            }
+        }
+        if (!current.devices.isEmpty()) {
+            log.info("Relay devices changed: added {}, updated {}, removed {}", added, updated, removed);
+        }
+        eventPublisher.publishEvent(event);
+        return event;
+    }
+
+    /**
+     * Add a relay device and persist it to config.yml.
+     * @param config
+     * @return the event describing what changed
+     * @throws IOException if config.yml could not be written; the device is not added in that case
+     */
+    public synchronized RelayDevicesChangedEvent register(RelayDeviceConfig config) throws IOException {
+        if (config.getDeviceId() != null && getDeviceConfig(config.getDeviceId()) != null) {
+            throw new IllegalArgumentException("Relay device " + config.getDeviceId() + " is already registered");
+        }
+        List<RelayDeviceConfig> configs = getDeviceConfigs();
+        configs.add(config);
+        return applyAndPersist(configs);
+    }
+
+    /**
+     * Add several relay devices at once and persist them to config.yml.
+     * @param configs
+     * @return the event describing what changed
+     * @throws IOException if config.yml could not be written; no device is added in that case
+     */
+    public synchronized RelayDevicesChangedEvent registerAll(List<RelayDeviceConfig> configs) throws IOException {
+        List<RelayDeviceConfig> all = getDeviceConfigs();
+        for (RelayDeviceConfig config : configs) {
+            if (config.getDeviceId() != null && getDeviceConfig(config.getDeviceId()) != null) {
+                throw new IllegalArgumentException("Relay device " + config.getDeviceId() + " is already registered");
+            }
+            all.add(config);
+        }
+        return applyAndPersist(all);
+    }
+
+    /**
+     * Replace the configuration of a relay device and persist it to config.yml.
+     * @param deviceId
+     * @param config
+     * @return the event describing what changed
+     * @throws IOException if config.yml could not be written; the device is not changed in that case
+     */
+    public synchronized RelayDevicesChangedEvent update(String deviceId, RelayDeviceConfig config) throws IOException {
+        RelayDeviceConfig current = getDeviceConfig(deviceId);
+        if (current == null) {
+            throw new DeviceNotFoundException("No relay with device id present " + deviceId);
+        }
+        // keep the id as registered, whatever case the caller used
+        config.setDeviceId(current.getDeviceId());
+        List<RelayDeviceConfig> configs = getDeviceConfigs();
+        configs.replaceAll(existing -> existing == current ? config : existing);
+        return applyAndPersist(configs);
+    }
 
-            relayDevices.add(relayBuilder.get(device.getType(),device.getDeviceId(),device.getHost(), device.getPort(),
-                    device.getMaxPort(),device.getInvertRelays()));
+    /**
+     * Remove a relay device and persist the removal to config.yml.
+     * @param deviceId
+     * @return the event describing what changed
+     * @throws IOException if config.yml could not be written; the device is not removed in that case
+     */
+    public synchronized RelayDevicesChangedEvent deregister(String deviceId) throws IOException {
+        RelayDeviceConfig current = getDeviceConfig(deviceId);
+        if (current == null) {
+            throw new DeviceNotFoundException("No relay with device id present " + deviceId);
+        }
+        List<RelayDeviceConfig> configs = getDeviceConfigs();
+        configs.removeIf(existing -> existing == current);
+        return applyAndPersist(configs);
+    }
+
+    /**
+     * Apply the configuration, then write it back so it survives a restart. If the write fails the previous
+     * devices are restored, so memory and file never disagree.
+     */
+    private RelayDevicesChangedEvent applyAndPersist(List<RelayDeviceConfig> configs) throws IOException {
+        List<RelayDeviceConfig> previous = getDeviceConfigs();
+        RelayDevicesChangedEvent event = apply(configs);
+        try {
+            persist(configs);
+        } catch (IOException e) {
+            log.error("Could not write relay configuration, restoring previous devices: {}", e.getMessage());
+            apply(previous);
+            throw e;
+        }
+        return event;
+    }
+
+    /**
+     * Rewrite the relays section of config.yml, keeping any other settings in it. The file is replaced
+     * by an atomic rename so the config watcher never reads it half written.
+     */
+    private void persist(List<RelayDeviceConfig> configs) throws IOException {
+        Path file = Paths.get(RelayConfiguration.CONFIG_FILE);
+        DumperOptions options = new DumperOptions();
+        options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+        Yaml yaml = new Yaml(options);
+
+        Map<String, Object> document = null;
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                document = yaml.load(reader);
+            }
+        }
+        if (document == null) {
+            document = new LinkedHashMap<>();
         }
+        List<Map<String, Object>> relays = new ArrayList<>();
+        for (RelayDeviceConfig config : configs) {
+            Map<String, Object> relay = new LinkedHashMap<>();
+            relay.put("host", config.getHost());
+            relay.put("port", config.getPort());
+            relay.put("deviceId", config.getDeviceId());
+            relay.put("type", config.getType());
+            relay.put("maxPort", config.getMaxPort());
+            if (config.getRack() != null) {
+                relay.put("rack", config.getRack());
+            }
+            if (config.getInvertRelays() != null && !config.getInvertRelays().isEmpty()) {
+                relay.put("invertRelays", config.getInvertRelays());
+            }
+            relays.add(relay);
+        }
+        document.put("relays", relays);
 
-        log.info(String.valueOf(relayDevices));
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            yaml.dump(document, writer);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
     }
 
     /**
@@ -76,6 +288,56 @@ public class RelayDeviceManager {
      * @return List of RelayDevice
      */
     public List<RelayDevice> getRelayDevices(){
-        return relayDevices;
+        return registry.list;
+    }
+
+    /**
+     * Get a relay device by id, ignoring case as slot mappings always have
+     * @param deviceId
+     * @return RelayDevice, or null if there is no such device
+     */
+    public RelayDevice getDevice(String deviceId) {
+        return deviceId == null ? null : registry.devicesByFoldedId.get(fold(deviceId));
+    }
+
+    /**
+     * Get the configuration of a relay device by id, ignoring case
+     * @param deviceId
+     * @return RelayDeviceConfig, or null if there is no such device
+     */
+    public RelayDeviceConfig getDeviceConfig(String deviceId) {
+        return deviceId == null ? null : registry.configsByFoldedId.get(fold(deviceId));
+    }
+
+    private static String fold(String deviceId) {
+        return deviceId.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Get the configuration of every relay device, in configuration order
+     * @return List of RelayDeviceConfig
+     */
+    public List<RelayDeviceConfig> getDeviceConfigs() {
+        return new ArrayList<>(registry.configs.values());
+    }
+
+    /**
+     * Immutable snapshot of the devices and the configuration they were built from.
+     */
+    private static final class Registry {
+        final Map<String, RelayDevice> devices;
+        final Map<String, RelayDeviceConfig> configs;
+        final List<RelayDevice> list;
+        final Map<String, RelayDevice> devicesByFoldedId = new HashMap<>();
+        final Map<String, RelayDeviceConfig> configsByFoldedId = new HashMap<>();
+
+        Registry(Map<String, RelayDevice> devices, Map<String, RelayDeviceConfig> configs) {
+            this.devices = Collections.unmodifiableMap(devices);
+            this.configs = Collections.unmodifiableMap(configs);
+            this.list = Collections.unmodifiableList(new ArrayList<>(devices.values()));
+            // apply rejects ids differing only in case, so folding keeps every device
+            devices.forEach((id, device) -> devicesByFoldedId.put(fold(id), device));
+            configs.forEach((id, config) -> configsByFoldedId.put(fold(id), config));
+        }
     }
 }
@@ -0,0 +1,368 @@
+package com.cats.service;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.dto.DiscoveryResult;
+import com.cats.relay.RelayDeviceConfig;
+import com.cats.relay.WebRelayXWR4R1;
+import com.cats.relay.driver.WebRelayXWR4R1Driver;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Finds relay devices on the LAN so they do not have to be listed in config.yml by hand.
+ * A scan runs in two steps: non-blocking connects to every address in the range from a single selector, each with
+ * its own deadline, then a fetch of stateFull.xml from the hosts that accepted, to confirm they are relays and
+ * count their ports. Found devices are proposed as configuration and, on request, registered.
+ */
+@Service
+@Slf4j
+public class RelayDiscoveryService {
+
+    private static final Pattern RELAY_STATE = Pattern.compile("relay\\d+state");
+
+    /**
+     * Most addresses a single scan may cover.
+     */
+    @Value("${discoveryMaxHosts:4096}")
+    int maxHosts;
+
+    /**
+     * Maximum number of connects in flight at once.
+     */
+    @Value("${discoveryConcurrency:256}")
+    int concurrency;
+
+    /**
+     * Milliseconds each host gets to accept a connection.
+     */
+    @Value("${discoveryConnectTimeoutMs:500}")
+    long connectTimeoutMs;
+
+    /**
+     * Milliseconds each responding host gets to return stateFull.xml.
+     */
+    @Value("${discoveryFetchTimeoutMs:2000}")
+    long fetchTimeoutMs;
+
+    @Autowired
+    RelayDeviceManager relayDeviceManager;
+
+    private final WebClient client = WebClient.create();
+
+    /**
+     * Scan an address range for relay devices.
+     * @param range CIDR block such as 192.168.100.0/24, a range such as 192.168.100.10-192.168.100.50, or one address
+     * @param port TCP port the devices serve HTTP on
+     * @param register whether to register the devices found
+     * @return DiscoveryResult
+     * @throws IOException if the devices found could not be persisted to config.yml
+     */
+    public DiscoveryResult discover(String range, int port, boolean register) throws IOException {
+        long start = System.nanoTime();
+        List<InetAddress> hosts = expand(range, maxHosts);
+        List<InetAddress> open = connect(hosts, port);
+        Map<String, Integer> relays = fingerprint(open, port);
+
+        List<RelayDeviceConfig> found = new ArrayList<>();
+        List<String> known = new ArrayList<>();
+        Set<String> registered = relayDeviceManager.getDeviceConfigs().stream()
+                .filter(config -> config.getPort() != null && config.getPort() == port)
+                .map(RelayDeviceConfig::getHost)
+                .collect(Collectors.toSet());
+        int nextId = nextDeviceId();
+        for (Map.Entry<String, Integer> relay : relays.entrySet()) {
+            if (registered.contains(relay.getKey())) {
+                known.add(relay.getKey());
+                continue;
+            }
+            RelayDeviceConfig config = new RelayDeviceConfig();
+            config.setDeviceId(String.valueOf(nextId++));
+            config.setHost(relay.getKey());
+            config.setPort(port);
+            config.setMaxPort(relay.getValue());
+            config.setType(WebRelayXWR4R1Driver.TYPE);
+            found.add(config);
+        }
+        if (register && !found.isEmpty()) {
+            relayDeviceManager.registerAll(found);
+        }
+
+        DiscoveryResult result = new DiscoveryResult();
+        result.setRange(range);
+        result.setPort(port);
+        result.setScanned(hosts.size());
+        result.setResponded(open.size());
+        result.setDevices(found);
+        result.setKnown(known);
+        result.setRegistered(register && !found.isEmpty());
+        result.setDurationMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        log.info("Discovery of {} port {} scanned {} hosts, {} accepted, {} new relay devices, {} already registered, in {} ms",
+                range, port, hosts.size(), open.size(), found.size(), known.size(), result.getDurationMs());
+        return result;
+    }
+
+    /**
+     * Expand an IPv4 range into its addresses. The network and broadcast addresses of a CIDR block are left out.
+     * @param range CIDR block, start-end range or single address
+     * @param maxHosts largest number of addresses accepted
+     * @return List of InetAddress in ascending order
+     * @throws IllegalArgumentException if the range is malformed or too large
+     */
+    public static List<InetAddress> expand(String range, int maxHosts) {
+        long first;
+        long last;
+        String trimmed = range == null ? "" : range.trim();
+        if (trimmed.contains("/")) {
+            String[] parts = trimmed.split("/", 2);
+            int prefix = parsePrefix(parts[1], range);
+            long mask = prefix == 0 ? 0 : (0xFFFFFFFFL << (32 - prefix)) & 0xFFFFFFFFL;
+            first = toLong(parts[0], range) & mask;
+            last = first | (~mask & 0xFFFFFFFFL);
+            if (prefix <= 30) {
+                first++;
+                last--;
+            }
+        } else if (trimmed.contains("-")) {
+            String[] parts = trimmed.split("-", 2);
+            first = toLong(parts[0], range);
+            last = toLong(parts[1], range);
+        } else {
+            first = toLong(trimmed, range);
+            last = first;
+        }
+        if (last < first) {
+            throw new IllegalArgumentException("Range " + range + " ends before it starts.");
+        }
+        if (last - first + 1 > maxHosts) {
+            throw new IllegalArgumentException("Range " + range + " covers " + (last - first + 1) + " addresses, more than the " + maxHosts + " allowed.");
+        }
+        List<InetAddress> hosts = new ArrayList<>((int) (last - first + 1));
+        for (long address = first; address <= last; address++) {
+            byte[] bytes = { (byte) (address >> 24), (byte) (address >> 16), (byte) (address >> 8), (byte) address };
+            try {
+                hosts.add(InetAddress.getByAddress(bytes));
+            } catch (UnknownHostException e) {
+                // cannot happen for a four byte address
+                throw new IllegalStateException(e);
+            }
+        }
+        return hosts;
+    }
+
+    /**
+     * Connect to every host at once from one selector, at most discoveryConcurrency in flight, and keep those
+     * that accept within discoveryConnectTimeoutMs.
+     */
+    List<InetAddress> connect(List<InetAddress> hosts, int port) throws IOException {
+        List<InetAddress> open = new ArrayList<>();
+        Iterator<InetAddress> pending = hosts.iterator();
+        int active = 0;
+        try (Selector selector = Selector.open()) {
+            while (pending.hasNext() || active > 0) {
+                while (pending.hasNext() && active < concurrency) {
+                    InetAddress host = pending.next();
+                    SocketChannel channel = SocketChannel.open();
+                    try {
+                        channel.configureBlocking(false);
+                        if (channel.connect(new InetSocketAddress(host, port))) {
+                            open.add(host);
+                            channel.close();
+                        } else {
+                            channel.register(selector, SelectionKey.OP_CONNECT,
+                                    new Attempt(host, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectTimeoutMs)));
+                            active++;
+                        }
+                    } catch (IOException e) {
+                        channel.close();
+                    }
+                }
+
+                selector.select(Math.max(1, Math.min(connectTimeoutMs, 50)));
+                for (SelectionKey key : selector.selectedKeys()) {
+                    Attempt attempt = (Attempt) key.attachment();
+                    try {
+                        if (((SocketChannel) key.channel()).finishConnect()) {
+                            open.add(attempt.host);
+                        }
+                    } catch (IOException e) {
+                        // refused or unreachable
+                    }
+                    key.cancel();
+                    key.channel().close();
+                    active--;
+                }
+                selector.selectedKeys().clear();
+
+                long now = System.nanoTime();
+                for (SelectionKey key : selector.keys()) {
+                    if (key.isValid() && now - ((Attempt) key.attachment()).deadline > 0) {
+                        key.cancel();
+                        key.channel().close();
+                        active--;
+                    }
+                }
+            }
+        }
+        open.sort(Comparator.comparingLong(host -> toLong(host.getHostAddress(), host.getHostAddress())));
+        return open;
+    }
+
+    /**
+     * Fetch stateFull.xml from every host in parallel and keep those that answer with relay states.
+     * @return number of relay ports by host, in address order
+     */
+    Map<String, Integer> fingerprint(List<InetAddress> hosts, int port) {
+        Map<String, Integer> relays = new TreeMap<>(Comparator.comparingLong((String host) -> toLong(host, host)));
+        Flux.fromIterable(hosts)
+                .flatMap(host -> client.get()
+                        .uri(uriBuilder -> uriBuilder
+                                .scheme("http")
+                                .host(host.getHostAddress())
+                                .port(port)
+                                .path(WebRelayXWR4R1.STATE_PATH)
+                                .build())
+                        .retrieve()
+                        .bodyToMono(String.class)
+                        .timeout(Duration.ofMillis(fetchTimeoutMs))
+                        .map(xml -> Map.entry(host.getHostAddress(), countRelays(xml)))
+                        .onErrorResume(e -> Mono.empty()), concurrency)
+                .filter(answer -> answer.getValue() > 0)
+                .doOnNext(answer -> relays.put(answer.getKey(), answer.getValue()))
+                .blockLast();
+        return relays;
+    }
+
+    /**
+     * @return number of relayNstate elements in a state document, or 0 if it is not one
+     */
+    static int countRelays(String xml) {
+        try {
+            DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
+            builderFactory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            Document document = builderFactory.newDocumentBuilder()
+                    .parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+            if (!"datavalues".equals(document.getDocumentElement().getNodeName())) {
+                return 0;
+            }
+            NodeList children = document.getDocumentElement().getChildNodes();
+            int count = 0;
+            for (int i = 0; i < children.getLength(); i++) {
+                Node child = children.item(i);
+                if (child.getNodeType() == Node.ELEMENT_NODE && RELAY_STATE.matcher(child.getNodeName()).matches()) {
+                    count++;
+                }
+            }
+            return count;
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return one more than the highest numeric device id registered
+     */
+    private int nextDeviceId() {
+        int max = 0;
+        for (RelayDeviceConfig config : relayDeviceManager.getDeviceConfigs()) {
+            try {
+                max = Math.max(max, Integer.parseInt(config.getDeviceId()));
+            } catch (NumberFormatException e) {
+                // non-numeric ids do not take part in numbering
+            }
+        }
+        return max + 1;
+    }
+
+    private static int parsePrefix(String prefix, String range) {
+        try {
+            int value = Integer.parseInt(prefix.trim());
+            if (value >= 0 && value <= 32) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid prefix length in range " + range);
+    }
+
+    private static long toLong(String address, String range) {
+        String[] octets = address.trim().split("\\.");
+        if (octets.length != 4) {
+            throw new IllegalArgumentException("Invalid IPv4 address in range " + range);
+        }
+        long value = 0;
+        for (String octet : octets) {
+            int part;
+            try {
+                part = Integer.parseInt(octet);
+            } catch (NumberFormatException e) {
+                part = -1;
+            }
+            if (part < 0 || part > 255) {
+                throw new IllegalArgumentException("Invalid IPv4 address in range " + range);
+            }
+            value = value << 8 | part;
+        }
+        return value;
+    }
+
+    /**
+     * Host being connected to and the time its connect gives up, from System.nanoTime.
+     */
+    private static final class Attempt {
+        final InetAddress host;
+        final long deadline;
+
+        Attempt(InetAddress host, long deadline) {
+            this.host = host;
+            this.deadline = deadline;
+        }
+    }
+}
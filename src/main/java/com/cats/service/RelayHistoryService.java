@@ -0,0 +1,259 @@
+package com.cats.service;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.dto.LatencyBucket;
+import com.cats.dto.LatencySummary;
+import com.cats.dto.StateTransition;
+import com.cats.events.RelayDevicesChangedEvent;
+import com.cats.events.RelayStateChangedEvent;
+import com.cats.relay.Status;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded in-memory history of port state transitions and device call latency.
+ * Each port and device gets a fixed-size ring of primitive arrays, so recording a sample allocates nothing
+ * and the oldest samples are overwritten once a ring is full.
+ */
+@Service
+@Slf4j
+public class RelayHistoryService {
+
+    private static final Status[] STATUSES = Status.values();
+
+    /**
+     * Number of state transitions kept per port.
+     */
+    @Value("${historyTransitionsPerPort:256}")
+    int transitionsPerPort;
+
+    /**
+     * Number of latency samples kept per device.
+     */
+    @Value("${historyLatencySamplesPerDevice:4096}")
+    int latencySamplesPerDevice;
+
+    private final Map<String, TransitionRing> transitions = new ConcurrentHashMap<>();
+    private final Map<String, LatencyRing> latencies = new ConcurrentHashMap<>();
+
+    @EventListener
+    public void onStateChanged(RelayStateChangedEvent event) {
+        if (event.getCurrent() == null) {
+            return;
+        }
+        transitions.computeIfAbsent(event.getDeviceId() + ":" + event.getPort(), key -> new TransitionRing(transitionsPerPort))
+                .add(event.getObservedAt().toEpochMilli(), event.getCurrent());
+    }
+
+    /**
+     * Record how long one call to a device took.
+     * @param deviceId
+     * @param nanos elapsed time of the call
+     */
+    public void recordLatency(String deviceId, long nanos) {
+        latencies.computeIfAbsent(deviceId, key -> new LatencyRing(latencySamplesPerDevice))
+                .add(System.currentTimeMillis(), nanos / 1000);
+    }
+
+    /**
+     * Get the state transitions of a port within a time range, oldest first.
+     * @param deviceId
+     * @param port
+     * @param from inclusive start of the range
+     * @param to inclusive end of the range
+     * @return List of StateTransition
+     */
+    public List<StateTransition> getTransitions(String deviceId, Integer port, Instant from, Instant to) {
+        TransitionRing ring = transitions.get(deviceId + ":" + port);
+        return ring == null ? new ArrayList<>() : ring.query(from.toEpochMilli(), to.toEpochMilli());
+    }
+
+    /**
+     * Summarize device call latency within a time range, split into equal-width buckets.
+     * @param deviceId
+     * @param from inclusive start of the range
+     * @param to inclusive end of the range
+     * @param bucketCount number of buckets to downsample into; 0 for none
+     * @return LatencySummary
+     */
+    public LatencySummary getLatency(String deviceId, Instant from, Instant to, int bucketCount) {
+        LatencySummary summary = new LatencySummary();
+        summary.setDeviceId(deviceId);
+        summary.setFrom(from);
+        summary.setTo(to);
+        summary.setCount(0);
+        LatencyRing ring = latencies.get(deviceId);
+        if (ring == null) {
+            return summary;
+        }
+
+        long fromMs = from.toEpochMilli();
+        long toMs = to.toEpochMilli();
+        long[][] samples = ring.query(fromMs, toMs);
+        long[] times = samples[0];
+        long[] micros = samples[1];
+        if (micros.length == 0) {
+            return summary;
+        }
+
+        summary.setCount(micros.length);
+        long[] sorted = micros.clone();
+        Arrays.sort(sorted);
+        summary.setMinMicros(sorted[0]);
+        summary.setMaxMicros(sorted[sorted.length - 1]);
+        summary.setAvgMicros(Arrays.stream(sorted).sum() / sorted.length);
+        summary.setP50Micros(percentile(sorted, 50));
+        summary.setP95Micros(percentile(sorted, 95));
+        summary.setP99Micros(percentile(sorted, 99));
+
+        if (bucketCount > 0) {
+            long width = Math.max(1, (toMs - fromMs + bucketCount) / bucketCount);
+            int[] count = new int[bucketCount];
+            long[] min = new long[bucketCount];
+            long[] max = new long[bucketCount];
+            long[] sum = new long[bucketCount];
+            Arrays.fill(min, Long.MAX_VALUE);
+            for (int i = 0; i < times.length; i++) {
+                int b = (int) Math.min(bucketCount - 1, (times[i] - fromMs) / width);
+                count[b]++;
+                sum[b] += micros[i];
+                min[b] = Math.min(min[b], micros[i]);
+                max[b] = Math.max(max[b], micros[i]);
+            }
+            List<LatencyBucket> buckets = new ArrayList<>(bucketCount);
+            for (int b = 0; b < bucketCount; b++) {
+                LatencyBucket bucket = new LatencyBucket();
+                bucket.setStart(Instant.ofEpochMilli(fromMs + b * width));
+                bucket.setCount(count[b]);
+                if (count[b] > 0) {
+                    bucket.setMinMicros(min[b]);
+                    bucket.setMaxMicros(max[b]);
+                    bucket.setAvgMicros(sum[b] / count[b]);
+                }
+                buckets.add(bucket);
+            }
+            summary.setBuckets(buckets);
+        }
+        return summary;
+    }
+
+    /**
+     * Drop all history for a device, i.e. when it is removed from the rack.
+     * @param deviceId
+     */
+    public void removeDevice(String deviceId) {
+        latencies.remove(deviceId);
+        transitions.keySet().removeIf(key -> key.startsWith(deviceId + ":"));
+    }
+
+    @EventListener
+    public void onDevicesChanged(RelayDevicesChangedEvent event) {
+        event.getRemoved().forEach(this::removeDevice);
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * Ring of (timestamp, state) pairs for one port.
+     */
+    private static final class TransitionRing {
+        private final long[] times;
+        private final byte[] states;
+        private int next;
+        private int size;
+
+        TransitionRing(int capacity) {
+            times = new long[capacity];
+            states = new byte[capacity];
+        }
+
+        synchronized void add(long time, Status status) {
+            times[next] = time;
+            states[next] = (byte) status.ordinal();
+            next = (next + 1) % times.length;
+            size = Math.min(size + 1, times.length);
+        }
+
+        synchronized List<StateTransition> query(long from, long to) {
+            List<StateTransition> result = new ArrayList<>();
+            int start = (next - size + times.length) % times.length;
+            for (int i = 0; i < size; i++) {
+                int idx = (start + i) % times.length;
+                if (times[idx] >= from && times[idx] <= to) {
+                    result.add(new StateTransition(Instant.ofEpochMilli(times[idx]), STATUSES[states[idx]]));
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Ring of (timestamp, microseconds) pairs for one device.
+     */
+    private static final class LatencyRing {
+        private final long[] times;
+        private final int[] micros;
+        private int next;
+        private int size;
+
+        LatencyRing(int capacity) {
+            times = new long[capacity];
+            micros = new int[capacity];
+        }
+
+        synchronized void add(long time, long elapsedMicros) {
+            times[next] = time;
+            micros[next] = (int) Math.min(Integer.MAX_VALUE, elapsedMicros);
+            next = (next + 1) % times.length;
+            size = Math.min(size + 1, times.length);
+        }
+
+        /**
+         * @return two parallel arrays, timestamps and microseconds, oldest first
+         */
+        synchronized long[][] query(long from, long to) {
+            long[] outTimes = new long[size];
+            long[] outMicros = new long[size];
+            int n = 0;
+            int start = (next - size + times.length) % times.length;
+            for (int i = 0; i < size; i++) {
+                int idx = (start + i) % times.length;
+                if (times[idx] >= from && times[idx] <= to) {
+                    outTimes[n] = times[idx];
+                    outMicros[n] = micros[idx];
+                    n++;
+                }
+            }
+            return new long[][] { Arrays.copyOf(outTimes, n), Arrays.copyOf(outMicros, n) };
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.cats.service;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Deduplicates relay commands retried with the same Idempotency-Key header. The first request with a key runs the
+ * command; a retry within the window gets the first request's result without touching the device, waiting for it if
+ * the first request is still running. A key whose command failed is forgotten, so the retry runs it again.
+ */
+@Service
+@Slf4j
+public class RelayIdempotencyService {
+
+    /**
+     * Request header naming a command, chosen by the client and sent again unchanged on retries.
+     */
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+    /**
+     * Milliseconds a key is remembered after its first attempt completed. A key is never forgotten while its
+     * command is still running.
+     */
+    @Value("${idempotencyWindowMs:60000}")
+    long windowMs;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    private final Map<String, Attempt> attempts = new ConcurrentHashMap<>();
+
+    /**
+     * Run a command once per key.
+     * @param key value of the Idempotency-Key header, or null to always run the command
+     * @param request describes the command, so a key reused for a different command is refused
+     * @param deviceCalls number of device calls the command makes, counted as saved when a retry is deduplicated
+     * @param command
+     * @return the result of the first run of the command with this key
+     * @throws IllegalArgumentException if the key was used for a different command within the window
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, String request, int deviceCalls, Supplier<T> command) {
+        if (key == null) {
+            return command.get();
+        }
+        long now = System.currentTimeMillis();
+        Attempt first = new Attempt(request);
+        Attempt attempt = attempts.compute(key, (k, current) -> current == null || current.expired(now, windowMs) ? first : current);
+        if (!attempt.request.equals(request)) {
+            throw new IllegalArgumentException(IDEMPOTENCY_KEY_HEADER + " " + key + " was already used for " + attempt.request);
+        }
+        if (attempt != first) {
+            log.info("Answering retried {} with the result of its first attempt", request);
+            try {
+                T result = (T) attempt.result.join();
+                meterRegistry.counter("relay.device.calls.saved", "reason", "idempotency-key").increment(deviceCalls);
+                return result;
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+        boolean succeeded = false;
+        try {
+            T result = command.get();
+            first.complete(result);
+            succeeded = true;
+            return result;
+        } catch (Throwable e) {
+            first.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            if (!succeeded) {
+                attempts.remove(key, first);
+            }
+        }
+    }
+
+    /**
+     * Forget keys whose window has passed since their command completed.
+     */
+    @Scheduled(fixedDelayString = "${idempotencyWindowMs:60000}")
+    public void purge() {
+        long now = System.currentTimeMillis();
+        attempts.values().removeIf(attempt -> attempt.expired(now, windowMs));
+    }
+
+    /**
+     * The first request with a key, and its result once known.
+     */
+    private static final class Attempt {
+        final String request;
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        /**
+         * When the command completed, 0 while it is running.
+         */
+        volatile long completedAt;
+
+        Attempt(String request) {
+            this.request = request;
+        }
+
+        void complete(Object value) {
+            completedAt = System.currentTimeMillis();
+            result.complete(value);
+        }
+
+        boolean expired(long now, long windowMs) {
+            long completed = completedAt;
+            return completed != 0 && now - completed > windowMs;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.cats.service;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.dto.JobState;
+import com.cats.dto.RelayJobStatus;
+import com.cats.dto.SlotResult;
+import com.cats.events.RacksChangedEvent;
+import com.cats.exceptions.JobNotFoundException;
+import com.cats.exceptions.JobRejectedException;
+import com.cats.relay.RelayOperation;
+import com.cats.service.RackRegistry.Rack;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * Runs long fan-out relay operations as asynchronous jobs on a bounded executor per rack
+ * and keeps a bounded history of finished jobs for polling. A job's slots are fanned out through
+ * {@link RelayBulkService}, so they run in parallel up to the rack's bulkConcurrency.
+ */
+@Service
+@Slf4j
+public class RelayJobService {
+
+    /**
+     * Maximum number of finished jobs kept for polling.
+     */
+    @Value("${jobRetentionCount:100}")
+    int jobRetentionCount;
+
+    /**
+     * Minutes a finished job is kept for polling.
+     */
+    @Value("${jobRetentionMinutes:60}")
+    long jobRetentionMinutes;
+
+    @Autowired
+    RelayBulkService relayBulkService;
+
+    @Autowired
+    SlotMappingService slotMappingService;
+
+    @Autowired
+    RackRegistry rackRegistry;
+
+    /**
+     * Jobs by job ID, both active and finished.
+     */
+    private final Map<String, RelayJob> jobs = new ConcurrentHashMap<>();
+
+    /**
+     * IDs of finished jobs, oldest first, used for eviction.
+     */
+    private final Deque<String> finishedJobs = new ConcurrentLinkedDeque<>();
+
+    /**
+     * Job executors by rack, sized by the rack's jobThreads and jobQueueCapacity.
+     */
+    private final Map<String, ThreadPoolExecutor> executors = new ConcurrentHashMap<>();
+
+    @PreDestroy
+    public void shutdown() {
+        executors.values().forEach(ThreadPoolExecutor::shutdownNow);
+    }
+
+    /**
+     * Retire the executors of racks rebuilt or no longer served; jobs already accepted still run to the end, and
+     * a rebuilt rack gets an executor sized by its new settings on its next job.
+     */
+    @EventListener
+    public void onRacksChanged(RacksChangedEvent event) {
+        List<String> names = new ArrayList<>(event.getUpdated());
+        names.addAll(event.getRemoved());
+        for (String name : names) {
+            ThreadPoolExecutor executor = executors.remove(name);
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    private ThreadPoolExecutor executor(Rack rack) {
+        return executors.computeIfAbsent(rack.getName(), name -> {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(rack.getJobThreads(), rack.getJobThreads(), 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(rack.getJobQueueCapacity()), new CustomizableThreadFactory("relay-job-" + name + "-"));
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        });
+    }
+
+    /**
+     * Submit a fan-out operation as a job.
+     * @param rack rack the slots belong to
+     * @param operation operation to perform on each slot
+     * @param slots slots to operate on; all mapped slots when null or empty
+     * @param cycleDelay seconds to hold relays off during a power cycle
+     * @return RelayJobStatus of the queued job
+     * @throws JobRejectedException if the rack's job queue is full
+     */
+    public RelayJobStatus submit(String rack, RelayOperation operation, List<Integer> slots, Integer cycleDelay) {
+        if (cycleDelay == null || cycleDelay < 0) {
+            throw new IllegalArgumentException("Cycle delay " + cycleDelay + " must be a non-negative integer.");
+        }
+        ThreadPoolExecutor executor = executor(rackRegistry.resolve(rack));
+        List<Integer> targets = (slots == null || slots.isEmpty()) ? slotMappingService.getMappedSlots(rack) : slots;
+        RelayJob job = new RelayJob(UUID.randomUUID().toString(), rack, operation, List.copyOf(targets), cycleDelay);
+        jobs.put(job.id, job);
+        try {
+            try {
+                job.future = executor.submit(() -> run(job));
+            } catch (RejectedExecutionException e) {
+                if (!executor.isShutdown()) {
+                    throw e;
+                }
+                // retired by a rack change since it was looked up; the rack's current executor takes the job
+                executors.values().remove(executor);
+                job.future = executor(rackRegistry.resolve(rack)).submit(() -> run(job));
+            }
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.id);
+            throw new JobRejectedException("Job queue is full, cannot accept " + operation + " job for rack " + rack);
+        }
+        log.info("Submitted job {} to {} {} slots on rack {}", job.id, operation, targets.size(), rack);
+        return job.toStatus();
+    }
+
+    /**
+     * Get the status of a job.
+     * @param jobId
+     * @return RelayJobStatus
+     * @throws JobNotFoundException
+     */
+    public RelayJobStatus getStatus(String jobId) {
+        return getJob(jobId).toStatus();
+    }
+
+    /**
+     * Get the per-slot results a job has produced so far.
+     * @param jobId
+     * @return List of SlotResult
+     * @throws JobNotFoundException
+     */
+    public List<SlotResult> getResults(String jobId) {
+        return new ArrayList<>(getJob(jobId).results);
+    }
+
+    /**
+     * Get the status of all known jobs, newest first.
+     * @return List of RelayJobStatus
+     */
+    public List<RelayJobStatus> getJobs() {
+        return jobs.values().stream()
+                .map(RelayJob::toStatus)
+                .sorted(Comparator.comparing(RelayJobStatus::getSubmittedAt).reversed())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Cancel a job. Queued jobs never start; running jobs start no further slots.
+     * @param jobId
+     * @return RelayJobStatus
+     * @throws JobNotFoundException
+     */
+    public RelayJobStatus cancel(String jobId) {
+        RelayJob job = getJob(jobId);
+        if (job.state.compareAndSet(JobState.QUEUED, JobState.CANCELLED)) {
+            if (job.future != null) {
+                job.future.cancel(false);
+            }
+            finish(job);
+            log.info("Cancelled queued job {}", jobId);
+        } else if (job.state.compareAndSet(JobState.RUNNING, JobState.CANCELLED)) {
+            if (job.future != null) {
+                job.future.cancel(true);
+            }
+            log.info("Cancelled running job {}", jobId);
+        }
+        return job.toStatus();
+    }
+
+    private RelayJob getJob(String jobId) {
+        RelayJob job = jobs.get(jobId);
+        if (job == null) {
+            throw new JobNotFoundException("No job found with id " + jobId);
+        }
+        return job;
+    }
+
+    private void run(RelayJob job) {
+        if (!job.state.compareAndSet(JobState.QUEUED, JobState.RUNNING)) {
+            return;
+        }
+        job.startedAt = Instant.now();
+        try {
+            // cancelling interrupts this thread, which stops the fan-out
+            relayBulkService.execute(job.rack, job.operation, job.slots, job.cycleDelay)
+                    .doOnNext(result -> {
+                        if (!Boolean.TRUE.equals(result.getSuccess())) {
+                            job.failed.incrementAndGet();
+                        }
+                        job.results.add(result);
+                    })
+                    .blockLast();
+            job.state.compareAndSet(JobState.RUNNING, JobState.COMPLETED);
+        } catch (RuntimeException e) {
+            if (job.state.compareAndSet(JobState.RUNNING, JobState.FAILED)) {
+                log.error("Job {} failed", job.id, e);
+                job.error = e.getMessage();
+            }
+        } finally {
+            finish(job);
+        }
+    }
+
+    private void finish(RelayJob job) {
+        synchronized (job) {
+            if (job.finishedAt != null) {
+                return;
+            }
+            job.finishedAt = Instant.now();
+        }
+        log.info("Job {} finished as {} with {}/{} slots failed", job.id, job.state.get(), job.failed.get(), job.slots.size());
+        finishedJobs.addLast(job.id);
+        evict();
+    }
+
+    /**
+     * Drop finished jobs that have outlived the retention window, even while no other job finishes.
+     */
+    @Scheduled(fixedDelayString = "${jobRetentionSweepMs:60000}")
+    public void purge() {
+        evict();
+    }
+
+    /**
+     * Drop finished jobs beyond the retention count or older than the retention window.
+     */
+    private void evict() {
+        Instant cutoff = Instant.now().minus(jobRetentionMinutes, ChronoUnit.MINUTES);
+        String oldest;
+        while ((oldest = finishedJobs.peekFirst()) != null) {
+            RelayJob job = jobs.get(oldest);
+            boolean expired = job == null || job.finishedAt.isBefore(cutoff);
+            if (!expired && finishedJobs.size() <= jobRetentionCount) {
+                break;
+            }
+            if (finishedJobs.remove(oldest)) {
+                jobs.remove(oldest);
+            }
+        }
+    }
+
+    /**
+     * In-memory state of a single job.
+     */
+    private static class RelayJob {
+        final String id;
+        final String rack;
+        final RelayOperation operation;
+        final List<Integer> slots;
+        final Integer cycleDelay;
+        final AtomicReference<JobState> state = new AtomicReference<>(JobState.QUEUED);
+        final Queue<SlotResult> results = new ConcurrentLinkedQueue<>();
+        final AtomicInteger failed = new AtomicInteger();
+        final Instant submittedAt = Instant.now();
+        volatile Instant startedAt;
+        volatile Instant finishedAt;
+        volatile String error;
+        volatile Future<?> future;
+
+        RelayJob(String id, String rack, RelayOperation operation, List<Integer> slots, Integer cycleDelay) {
+            this.id = id;
+            this.rack = rack;
+            this.operation = operation;
+            this.slots = slots;
+            this.cycleDelay = cycleDelay;
+        }
+
+        RelayJobStatus toStatus() {
+            RelayJobStatus status = new RelayJobStatus();
+            status.setJobId(id);
+            status.setRack(rack);
+            status.setOperation(operation);
+            status.setState(state.get());
+            status.setTotalSlots(slots.size());
+            status.setCompletedSlots(results.size());
+            status.setFailedSlots(failed.get());
+            status.setSubmittedAt(submittedAt);
+            status.setStartedAt(startedAt);
+            status.setFinishedAt(finishedAt);
+            status.setError(error);
+            return status;
+        }
+    }
+}
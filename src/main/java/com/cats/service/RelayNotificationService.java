@@ -0,0 +1,147 @@
+package com.cats.service;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.events.RelayDevicesChangedEvent;
+import com.cats.exceptions.CapabilityNotSupportedException;
+import com.cats.exceptions.DeviceNotFoundException;
+import com.cats.exceptions.NotificationRejectedException;
+import com.cats.relay.RelayDevice;
+import com.cats.relay.Status;
+import com.cats.relay.driver.RelayCapability;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Accepts state notifications pushed by relay devices and records them as observed state, so the state store's
+ * subscribers see a change as soon as the device reports it. A notification is only accepted from the address
+ * the device is configured at, and must carry the shared token when one is configured.
+ * Devices heard from recently are polled less often by the reconciler, see {@link #isPushing(String)}.
+ */
+@Service
+@Slf4j
+public class RelayNotificationService {
+
+    /**
+     * Whether pushed notifications are accepted.
+     */
+    @Value("${notificationsEnabled:false}")
+    boolean enabled;
+
+    /**
+     * Token devices must send with each notification; empty to rely on the source address alone.
+     */
+    @Value("${notificationToken:}")
+    String token;
+
+    /**
+     * Milliseconds after its last notification that a device still counts as pushing.
+     */
+    @Value("${notificationStaleMs:300000}")
+    long staleMs;
+
+    @Autowired
+    RelayDeviceManager relayDeviceManager;
+
+    @Autowired
+    RelayStateStore relayStateStore;
+
+    /**
+     * Time of the last accepted notification by device id, from System.currentTimeMillis.
+     */
+    private final Map<String, Long> lastNotification = new ConcurrentHashMap<>();
+
+    /**
+     * Authenticate a notification and record the state it carries.
+     * @param deviceId device the notification claims to come from
+     * @param client address the notification was received from
+     * @param presentedToken token sent with the notification, if any
+     * @param body notification as received
+     * @return List of Status, one per port starting at port 1
+     * @throws NotificationRejectedException if notifications are disabled or the sender is not the device
+     * @throws DeviceNotFoundException if there is no such device
+     * @throws CapabilityNotSupportedException if the device does not send notifications
+     */
+    public List<Status> accept(String deviceId, String client, String presentedToken, String body) {
+        if (!enabled) {
+            throw new NotificationRejectedException("State notifications are disabled.");
+        }
+        RelayDevice device = relayDeviceManager.getDevice(deviceId);
+        if (device == null) {
+            throw new DeviceNotFoundException("No relay device " + deviceId);
+        }
+        if (!device.getCapabilities().contains(RelayCapability.PUSH_NOTIFICATIONS)) {
+            throw new CapabilityNotSupportedException("Relay device " + deviceId + " of type " + device.getType() + " does not send state notifications.");
+        }
+        authenticate(device, client, presentedToken);
+
+        List<Status> statuses = device.parseNotification(body);
+        relayStateStore.recordObserved(deviceId, statuses);
+        lastNotification.put(deviceId, System.currentTimeMillis());
+        log.debug("Relay device {} notified state {}", deviceId, statuses);
+        return statuses;
+    }
+
+    /**
+     * Whether a device has pushed its state recently enough that polling it can slow down.
+     * @param deviceId
+     * @return true if the last notification is younger than notificationStaleMs
+     */
+    public boolean isPushing(String deviceId) {
+        Long last = lastNotification.get(deviceId);
+        return last != null && System.currentTimeMillis() - last < staleMs;
+    }
+
+    @EventListener
+    public void onDevicesChanged(RelayDevicesChangedEvent event) {
+        // an updated device may have moved to another address, so it has to prove itself again
+        event.getUpdated().forEach(lastNotification::remove);
+        event.getRemoved().forEach(lastNotification::remove);
+    }
+
+    private void authenticate(RelayDevice device, String client, String presentedToken) {
+        if (!token.isEmpty() && (presentedToken == null || !MessageDigest.isEqual(
+                token.getBytes(StandardCharsets.UTF_8), presentedToken.getBytes(StandardCharsets.UTF_8)))) {
+            throw new NotificationRejectedException("Invalid notification token for relay device " + device.getDeviceId());
+        }
+        if (client == null) {
+            throw new NotificationRejectedException("Cannot determine the sender of the notification for relay device " + device.getDeviceId());
+        }
+        try {
+            InetAddress sender = InetAddress.getByName(client);
+            if (!Arrays.asList(InetAddress.getAllByName(device.getHost())).contains(sender)) {
+                throw new NotificationRejectedException("Notification for relay device " + device.getDeviceId() + " was not sent from " + device.getHost());
+            }
+        } catch (UnknownHostException e) {
+            throw new NotificationRejectedException("Cannot resolve relay device " + device.getDeviceId() + " at " + device.getHost());
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.cats.service;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.beans.DriftEvent;
+import com.cats.beans.PortState;
+import com.cats.beans.ReconcileReport;
+import com.cats.relay.RelayDevice;
+import com.cats.relay.Status;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Polls every relay device once per interval and reapplies the last commanded state to any port that has drifted,
+ * i.e. after a device power-cycles and its relays fall back to their defaults.
+ * Devices that push their state (see {@link RelayNotificationService}) are polled on the longer
+ * reconcilePushedIntervalMs instead, as long as their notifications keep arriving.
+ */
+@Service
+@Slf4j
+public class RelayReconciler {
+
+    /**
+     * Whether the background reconcile loop runs.
+     */
+    @Value("${reconcileEnabled:false}")
+    boolean enabled;
+
+    /**
+     * Milliseconds between reconcile runs.
+     */
+    @Value("${reconcileIntervalMs:30000}")
+    long intervalMs;
+
+    /**
+     * Milliseconds between polls of a device that is pushing its state.
+     */
+    @Value("${reconcilePushedIntervalMs:300000}")
+    long pushedIntervalMs;
+
+    /**
+     * Number of recent drift events kept for the report.
+     */
+    @Value("${reconcileDriftHistory:100}")
+    int driftHistory;
+
+    /**
+     * Maximum number of devices polled at once.
+     */
+    @Value("${reconcileConcurrency:8}")
+    int concurrency;
+
+    @Autowired
+    ClusterService clusterService;
+
+    @Autowired
+    RelayService relayService;
+
+    @Autowired
+    RelayStateStore relayStateStore;
+
+    @Autowired
+    RelayAuditJournal relayAuditJournal;
+
+    @Autowired
+    RelayNotificationService relayNotificationService;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong driftDetected = new AtomicLong();
+    private final AtomicLong corrections = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final Deque<DriftEvent> recentDrift = new ConcurrentLinkedDeque<>();
+    private volatile Instant lastRunAt;
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * Time each device was last polled by the reconciler, from System.currentTimeMillis.
+     */
+    private final Map<String, Long> lastPolledAt = new ConcurrentHashMap<>();
+
+    /**
+     * Scheduled reconcile run; does nothing unless reconcileEnabled is set. The run goes on in the background rather
+     * than holding the scheduler thread shared with the other scheduled tasks, and a tick that finds the previous
+     * run still going is skipped.
+     */
+    @Scheduled(fixedDelayString = "${reconcileIntervalMs:30000}", initialDelayString = "${reconcileIntervalMs:30000}")
+    public void scheduledReconcile() {
+        if (enabled && running.compareAndSet(false, true)) {
+            run(true)
+                    .doFinally(signal -> running.set(false))
+                    .subscribe(null, e -> log.warn("Reconcile run failed: {}", e.getMessage()));
+        }
+    }
+
+    /**
+     * Poll every device once and converge any drifted ports.
+     */
+    public void reconcile() {
+        run(false).block();
+    }
+
+    /**
+     * @param paced whether to skip pushing devices polled within reconcilePushedIntervalMs
+     */
+    private Mono<Void> run(boolean paced) {
+        // in cluster mode each peer reconciles only the devices it owns
+        List<RelayDevice> devices = clusterService.getLocalDevices();
+        Set<String> deviceIds = devices.stream().map(RelayDevice::getDeviceId).collect(Collectors.toSet());
+        lastPolledAt.keySet().retainAll(deviceIds);
+        long now = System.currentTimeMillis();
+        return Flux.fromIterable(devices)
+                .filter(device -> !paced || isDue(device, now))
+                .flatMap(device -> Mono.fromRunnable(() -> reconcile(device))
+                        .subscribeOn(Schedulers.boundedElastic()), concurrency)
+                .then(Mono.fromRunnable(() -> {
+                    runs.incrementAndGet();
+                    lastRunAt = Instant.now();
+                    meterRegistry.counter("relay.reconcile.runs").increment();
+                }));
+    }
+
+    /**
+     * Whether a device should be polled in the run starting now. Pushing devices are skipped until their
+     * longer interval has passed.
+     */
+    private boolean isDue(RelayDevice device, long now) {
+        if (!relayNotificationService.isPushing(device.getDeviceId())) {
+            return true;
+        }
+        Long last = lastPolledAt.get(device.getDeviceId());
+        return last == null || now - last >= pushedIntervalMs;
+    }
+
+    /**
+     * Poll a single device and set every drifted port back to its desired state in one batched command.
+     * The correction spans several ports, so it is not ordered by {@link RelayCommandSequencer}; a command that
+     * changes a port's desired state meanwhile is seen as drift, and settled, on the next run.
+     * @param device
+     */
+    void reconcile(RelayDevice device) {
+        String deviceId = device.getDeviceId();
+        lastPolledAt.put(deviceId, System.currentTimeMillis());
+        List<Status> observed;
+        try {
+            observed = relayService.pollDevice(device);
+        } catch (Exception e) {
+            errors.incrementAndGet();
+            Counter.builder("relay.reconcile.errors").tag("device", deviceId).register(meterRegistry).increment();
+            log.warn("Reconcile could not poll relay device {}: {}", deviceId, e.getMessage());
+            return;
+        }
+
+        Map<Integer, Status> drift = new TreeMap<>();
+        List<DriftEvent> events = new ArrayList<>();
+        for (PortState state : relayStateStore.getDeviceState(deviceId).values()) {
+            Integer port = state.getPort();
+            if (state.getDesired() == null || port > observed.size()) {
+                continue;
+            }
+            Status actual = device.relay(port).toLogical(observed.get(port - 1));
+            if (actual != Status.UNKNOWN && actual != state.getDesired()) {
+                drift.put(port, state.getDesired());
+                DriftEvent event = new DriftEvent();
+                event.setDeviceId(deviceId);
+                event.setPort(port);
+                event.setDesired(state.getDesired());
+                event.setObserved(actual);
+                event.setDetectedAt(Instant.now());
+                events.add(event);
+            }
+        }
+        if (drift.isEmpty()) {
+            return;
+        }
+
+        driftDetected.addAndGet(drift.size());
+        Counter.builder("relay.reconcile.drift").tag("device", deviceId).register(meterRegistry).increment(drift.size());
+        log.warn("Relay device {} drifted from desired state on ports {}, reapplying", deviceId, drift.keySet());
+        boolean corrected;
+        long start = System.nanoTime();
+        try {
+            device.setStates(drift);
+            corrected = true;
+            corrections.addAndGet(drift.size());
+            Counter.builder("relay.reconcile.corrections").tag("device", deviceId).register(meterRegistry).increment(drift.size());
+        } catch (Exception e) {
+            corrected = false;
+            errors.incrementAndGet();
+            Counter.builder("relay.reconcile.errors").tag("device", deviceId).register(meterRegistry).increment();
+            log.warn("Reconcile could not correct relay device {}: {}", deviceId, e.getMessage());
+        }
+        long elapsed = System.nanoTime() - start;
+        for (DriftEvent event : events) {
+            relayAuditJournal.recordCorrection(event.getDesired().name(), deviceId, event.getPort(), corrected, elapsed);
+            event.setCorrected(corrected);
+            recentDrift.addFirst(event);
+        }
+        while (recentDrift.size() > driftHistory) {
+            recentDrift.pollLast();
+        }
+    }
+
+    /**
+     * Get the reconciler's counters and most recent drift events.
+     * @return ReconcileReport
+     */
+    public ReconcileReport getReport() {
+        ReconcileReport report = new ReconcileReport();
+        report.setEnabled(enabled);
+        report.setIntervalMs(intervalMs);
+        report.setRuns(runs.get());
+        report.setDriftDetected(driftDetected.get());
+        report.setCorrections(corrections.get());
+        report.setErrors(errors.get());
+        report.setLastRunAt(lastRunAt);
+        report.setRecentDrift(new ArrayList<>(recentDrift));
+        return report;
+    }
+}
@@ -18,12 +18,34 @@ package com.cats.service;
  * SPDX-License-Identifier: Apache-2.0
  */
 
+import com.cats.beans.PortState;
+import com.cats.dto.AuditSource;
+import com.cats.dto.RelayResponse;
+import com.cats.dto.SlotResult;
 import com.cats.exceptions.SlotMappingException;
 import com.cats.relay.Relay;
+import com.cats.relay.RelayDevice;
+import com.cats.relay.RelayOperation;
 import com.cats.relay.Status;
+import com.cats.relay.driver.RelayCapability;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
 import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 @Service
 @Slf4j
@@ -32,60 +54,389 @@ public class RelayService {
     @Autowired
     SlotMappingService slotMappingService;
 
+    @Autowired
+    RelayStateStore relayStateStore;
+
+    @Autowired
+    RelayHistoryService relayHistoryService;
+
+    @Autowired
+    RelayAuditJournal relayAuditJournal;
+
+    @Autowired
+    RackRegistry rackRegistry;
+
+    @Autowired
+    ClusterService clusterService;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    RelayCommandSequencer relayCommandSequencer;
+
+    /**
+     * Age in milliseconds up to which an observed state is trusted to skip an idempotent ON/OFF.
+     */
+    @Value("${idempotentMaxStateAgeMs:5000}")
+    long idempotentMaxStateAgeMs;
+
+    /**
+     * Set while a job or bulk request drives this thread through {@link #apply}, to tell its commands apart from
+     * direct API calls in the audit journal.
+     */
+    private static final ThreadLocal<Boolean> IN_BATCH = new ThreadLocal<>();
+
+    /**
+     * Scheduled ends of emulated pulses, by device:port, cancelled when the port is commanded again.
+     */
+    private final Map<String, Disposable> pulseEnds = new ConcurrentHashMap<>();
+
     /**
      * Returns the status of the relay device and port (ON, OFF, or UNKNOWN).
      */
-    public Status getRelayStatus(Integer slot) {
-        Relay relay = getRelayAtSlot(slot);
-        return relay.status();
+    public Status getRelayStatus(String rack, Integer slot) {
+        Relay relay = getRelayAtSlot(rack, slot);
+        return clusterService.route(relay.getDevice().getDeviceId(),
+                () -> inBulkhead(rack, IN_BATCH.get() != null, () -> pollDevice(relay.getDevice()).get(relay.getPort() - 1)),
+                owner -> clusterService.forward(owner, HttpMethod.GET, RelayResponse.class,
+                        "/{rack}/{slot}/relay/status", rack, slot).getStatus());
+    }
+
+    /**
+     * Reads the status of every port on a device and records it as the observed state.
+     * @param device device to read
+     * @return List of Status, one per port starting at port 1
+     */
+    public List<Status> pollDevice(RelayDevice device) {
+        List<Status> statuses;
+        long start = System.nanoTime();
+        try {
+            statuses = device.status();
+        } finally {
+            relayHistoryService.recordLatency(device.getDeviceId(), System.nanoTime() - start);
+        }
+        relayStateStore.recordObserved(device.getDeviceId(), statuses);
+        return statuses;
     }
 
     /**
      * Turns the relay device on / off.
      * @return Status of the relay device and port (ON, OFF, or UNKNOWN).
      */
-    public Status turnOnOff(Integer slot, String operation) {
-        operation = operation.toUpperCase();
-        Relay relay = getRelayAtSlot(slot);
+    public Status turnOnOff(String rack, Integer slot, String operation) {
+        return turnOnOff(rack, slot, operation, false).getStatus();
+    }
+
+    /**
+     * Turns the relay device on / off, in order with the other commands on the same port.
+     * @param idempotent skip the device when the port was observed in the requested state within
+     *                   idempotentMaxStateAgeMs
+     * @return RelayResponse with the status the port was left in, the command's sequence number on the port, and
+     *         whether a newer command superseded it
+     */
+    public RelayResponse turnOnOff(String rack, Integer slot, String operation, boolean idempotent) {
+        Relay relay = getRelayAtSlot(rack, slot);
+        String requested = operation.toUpperCase();
+        if (!requested.equals("ON") && !requested.equals("OFF")) {
+            throw new IllegalArgumentException(operation + " is an invalid operation setting. ");
+        }
+        // the command may run on whichever caller drains the port, so it carries this caller's context with it
+        boolean batch = IN_BATCH.get() != null;
+        return clusterService.route(relay.getDevice().getDeviceId(), () -> {
+                    cancelPulseEnd(relay.getDevice().getDeviceId(), relay.getPort());
+                    return relayCommandSequencer.submit(relay.getDevice().getDeviceId(), relay.getPort(), () -> inBulkhead(rack, batch, () -> {
+                        Status current = idempotent ? freshState(relay, requested) : null;
+                        return current != null ? current : switchRelay(relay, slot, requested, auditSource(batch));
+                    }));
+                },
+                owner -> clusterService.forward(owner, HttpMethod.POST, RelayResponse.class,
+                        "/{rack}/{slot}/relay/{operation}?idempotent={idempotent}", rack, slot, operation, idempotent));
+    }
+
+    /**
+     * The state of a port if it was recently observed in the requested state, so the command can be skipped.
+     * Observed states are raw, so inverted ports are compared as commanded. Still records the requested state as
+     * desired, as the command would have.
+     * @return Status as read from the device, or null if the device must be commanded
+     */
+    private Status freshState(Relay relay, String operation) {
+        String deviceId = relay.getDevice().getDeviceId();
+        Status requested = Status.valueOf(operation);
+        PortState state = relayStateStore.getPortState(deviceId, relay.getPort());
+        if (state == null || state.getObserved() == null || relay.toLogical(state.getObserved()) != requested
+                || state.getObservedAt().isBefore(Instant.now().minusMillis(idempotentMaxStateAgeMs))) {
+            return null;
+        }
+        relayStateStore.recordDesired(deviceId, relay.getPort(), requested);
+        // the command and the status read that follows it
+        meterRegistry.counter("relay.device.calls.saved", "reason", "state").increment(2);
+        log.info("Relay device {} port {} is already {}, skipping the command", deviceId, relay.getPort(), operation);
+        return state.getObserved();
+    }
+
+    /**
+     * Switch the port the command was queued on; looking the slot up again could pick another port if the mapping
+     * changed meanwhile.
+     */
+    private Status switchRelay(Relay relay, Integer slot, String operation, AuditSource source) {
+        long start = System.nanoTime();
 
         switch (operation) {
             case "ON":
                 try {
                     relay.on();
+                    relayHistoryService.recordLatency(relay.getDevice().getDeviceId(), System.nanoTime() - start);
+                    relayAuditJournal.recordCommand(source, "ON", slot, relay.getDevice().getDeviceId(), relay.getPort(), true, System.nanoTime() - start);
+                    relayStateStore.recordDesired(relay.getDevice().getDeviceId(), relay.getPort(), Status.ON);
                     log.info("Relay device for slot {} is turned on", slot);
                     break;
                 } catch (Exception e) {
+                    relayAuditJournal.recordCommand(source, "ON", slot, relay.getDevice().getDeviceId(), relay.getPort(), false, System.nanoTime() - start);
                     e.printStackTrace();
                     throw new IllegalArgumentException("Bad slot: " + slot + " is not valid. \n" + e);
                 }
             case "OFF":
                 try {
                     relay.off();
+                    relayHistoryService.recordLatency(relay.getDevice().getDeviceId(), System.nanoTime() - start);
+                    relayAuditJournal.recordCommand(source, "OFF", slot, relay.getDevice().getDeviceId(), relay.getPort(), true, System.nanoTime() - start);
+                    relayStateStore.recordDesired(relay.getDevice().getDeviceId(), relay.getPort(), Status.OFF);
                     log.info("Relay device for slot {} is turned off", slot);
                     break;
                 } catch (Exception e) {
+                    relayAuditJournal.recordCommand(source, "OFF", slot, relay.getDevice().getDeviceId(), relay.getPort(), false, System.nanoTime() - start);
                     throw new IllegalArgumentException("Bad slot: " + slot + " is not valid. \n" + e);
                 }
             default:
                 throw new IllegalArgumentException(operation + " is an invalid operation setting. ");
         }
-        return relay.status();
+        return pollDevice(relay.getDevice()).get(relay.getPort() - 1);
+    }
+
+    /**
+     * Turns the relay device on for a specified duration. Devices with {@link RelayCapability#DEVICE_PULSE} time the
+     * pulse themselves; for any other device the port is turned on now and off again once the duration has passed.
+     * Both ends of the pulse are ordered with the other commands on the port, and the emulated end is dropped if the
+     * port is commanded again before it is due.
+     */
+    public void timed(String rack, Integer slot, Integer duration) {
+        Relay relay = getRelayAtSlot(rack, slot);
+        String deviceId = relay.getDevice().getDeviceId();
+        boolean batch = IN_BATCH.get() != null;
+        clusterService.route(deviceId, () -> {
+                    cancelPulseEnd(deviceId, relay.getPort());
+                    RelayResponse response = relayCommandSequencer.submit(deviceId, relay.getPort(),
+                            () -> inBulkhead(rack, batch, () -> pulse(relay, slot, duration, auditSource(batch))));
+                    if (!Boolean.TRUE.equals(response.getSuperseded()) && !relay.getDevice().getCapabilities().contains(RelayCapability.DEVICE_PULSE)) {
+                        schedulePulseEnd(relay, slot, duration, response.getSequence(), auditSource(batch));
+                    }
+                    return response;
+                },
+                owner -> clusterService.forward(owner, HttpMethod.POST, Void.class,
+                        "/{rack}/{slot}/relay/timed?duration={duration}", rack, slot, duration), false);
     }
 
     /**
-     * Turns the relay device on for a specified duration.
+     * @return UNKNOWN, as the port is mid-pulse
      */
-    public void timed(Integer slot, Integer duration) {
-        Relay relay = getRelayAtSlot(slot);
-        relay.timed(duration);
+    private Status pulse(Relay relay, Integer slot, Integer duration, AuditSource source) {
+        boolean devicePulse = relay.getDevice().getCapabilities().contains(RelayCapability.DEVICE_PULSE);
+        if (!devicePulse && duration <= 0) {
+            throw new IllegalArgumentException("Relay device for slot " + slot + " has no default pulse time, a duration is required.");
+        }
+        long start = System.nanoTime();
+        try {
+            if (devicePulse) {
+                relay.timed(duration);
+            } else {
+                relay.on();
+            }
+        } catch (RuntimeException e) {
+            relayAuditJournal.recordCommand(source, "TIMED", slot, relay.getDevice().getDeviceId(), relay.getPort(), false, System.nanoTime() - start);
+            throw e;
+        }
+        relayAuditJournal.recordCommand(source, "TIMED", slot, relay.getDevice().getDeviceId(), relay.getPort(), true, System.nanoTime() - start);
+        // a pulse ends in a state nobody asked for explicitly, so stop reconciling the port
+        relayStateStore.recordDesired(relay.getDevice().getDeviceId(), relay.getPort(), null);
         log.info("Setting relay device for slot {} to turn on for {} seconds", slot, duration);
+        return Status.UNKNOWN;
+    }
+
+    /**
+     * Schedule the end of an emulated pulse, replacing any end still pending on the port.
+     * @param sequence sequence number of the command that started the pulse
+     */
+    private void schedulePulseEnd(Relay relay, Integer slot, Integer duration, long sequence, AuditSource source) {
+        String key = relay.getDevice().getDeviceId() + ":" + relay.getPort();
+        Disposable.Swap end = Disposables.swap();
+        Disposable previous = pulseEnds.put(key, end);
+        if (previous != null) {
+            previous.dispose();
+        }
+        end.update(Schedulers.boundedElastic().schedule(() -> {
+            pulseEnds.remove(key, end);
+            endPulse(relay, slot, sequence, source);
+        }, duration, TimeUnit.SECONDS));
+    }
+
+    private void cancelPulseEnd(String deviceId, Integer port) {
+        Disposable end = pulseEnds.remove(deviceId + ":" + port);
+        if (end != null) {
+            end.dispose();
+            log.info("Relay device {} port {} was commanded mid-pulse, cancelled the scheduled pulse end", deviceId, port);
+        }
+    }
+
+    /**
+     * Turn an emulated pulse off, unless the port was commanded after the pulse started; that command decides the
+     * state the port is left in.
+     * @param sequence sequence number of the command that started the pulse
+     */
+    private void endPulse(Relay relay, Integer slot, long sequence, AuditSource source) {
+        try {
+            RelayResponse response = relayCommandSequencer.submitIfLatest(relay.getDevice().getDeviceId(), relay.getPort(), sequence, () -> {
+                relay.off();
+                return pollDevice(relay.getDevice()).get(relay.getPort() - 1);
+            });
+            if (response == null) {
+                log.info("Relay device {} port {} was commanded mid-pulse, leaving it as is", relay.getDevice().getDeviceId(), relay.getPort());
+            }
+        } catch (Exception e) {
+            relayAuditJournal.recordCommand(source, "OFF", slot, relay.getDevice().getDeviceId(), relay.getPort(), false, 0);
+            log.error("Could not end timed pulse on slot {}: {}", slot, e.getMessage());
+        }
+    }
+
+    /**
+     * Applies a bulk operation to a single slot, capturing any failure in the result rather than throwing.
+     * @param rack rack the slot belongs to
+     * @param slot slot to operate on
+     * @param operation operation to perform
+     * @param cycleDelay seconds to hold the relay off during a power cycle
+     * @return SlotResult
+     */
+    public SlotResult apply(String rack, Integer slot, RelayOperation operation, Integer cycleDelay) {
+        SlotResult result = new SlotResult();
+        result.setSlot(slot);
+        long start = System.nanoTime();
+        IN_BATCH.set(Boolean.TRUE);
+        try {
+            switch (operation) {
+                case ON:
+                case OFF:
+                    result.setStatus(turnOnOff(rack, slot, operation.name()));
+                    break;
+                case STATUS:
+                    result.setStatus(getRelayStatus(rack, slot));
+                    break;
+                case POWER_CYCLE:
+                    turnOnOff(rack, slot, RelayOperation.OFF.name());
+                    TimeUnit.SECONDS.sleep(cycleDelay);
+                    result.setStatus(turnOnOff(rack, slot, RelayOperation.ON.name()));
+                    break;
+                default:
+                    throw new IllegalArgumentException(operation + " is an invalid operation setting. ");
+            }
+            result.setSuccess(true);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.setSuccess(false);
+            result.setError("Interrupted during " + operation);
+        } catch (Exception e) {
+            log.warn("Operation {} failed on slot {}: {}", operation, slot, e.getMessage());
+            result.setSuccess(false);
+            result.setError(e.getMessage());
+        } finally {
+            IN_BATCH.remove();
+        }
+        result.setDurationMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return result;
+    }
+
+    /**
+     * Turns several ports of one device on or off with a single command, for devices with
+     * {@link RelayCapability#BULK_COMMAND}. Failures are captured in the results rather than thrown.
+     * The command spans several ports, so it is not ordered by {@link RelayCommandSequencer} with single-port
+     * commands sent to the same ports meanwhile.
+     * @param device device the ports belong to
+     * @param portsBySlot device port for each slot to operate on
+     * @param operation ON or OFF
+     * @return SlotResult for each slot, in slot order
+     */
+    public List<SlotResult> applyToDevice(RelayDevice device, Map<Integer, Integer> portsBySlot, RelayOperation operation) {
+        if (operation != RelayOperation.ON && operation != RelayOperation.OFF) {
+            throw new IllegalArgumentException(operation + " cannot be sent as one command.");
+        }
+        String deviceId = device.getDeviceId();
+        Status desired = operation == RelayOperation.ON ? Status.ON : Status.OFF;
+        Map<Integer, Status> states = new TreeMap<>();
+        portsBySlot.values().forEach(port -> states.put(port, desired));
+        // not sequenced, so a pulse still running on one of the ports must not turn it off afterwards
+        states.keySet().forEach(port -> cancelPulseEnd(deviceId, port));
+
+        long start = System.nanoTime();
+        String error = null;
+        List<Status> observed = null;
+        try {
+            device.setStates(states);
+        } catch (Exception e) {
+            error = e.getMessage();
+        }
+        long elapsed = System.nanoTime() - start;
+        relayHistoryService.recordLatency(deviceId, elapsed);
+        for (Map.Entry<Integer, Integer> entry : new TreeMap<>(portsBySlot).entrySet()) {
+            relayAuditJournal.recordCommand(AuditSource.JOB, operation.name(), entry.getKey(), deviceId, entry.getValue(), error == null, elapsed);
+        }
+        if (error == null) {
+            states.keySet().forEach(port -> relayStateStore.recordDesired(deviceId, port, desired));
+            log.info("Relay device {} ports {} turned {}", deviceId, states.keySet(), operation);
+            try {
+                observed = pollDevice(device);
+            } catch (Exception e) {
+                error = e.getMessage();
+            }
+        } else {
+            log.warn("Operation {} failed on relay device {}: {}", operation, deviceId, error);
+        }
+
+        long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        List<SlotResult> results = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : new TreeMap<>(portsBySlot).entrySet()) {
+            SlotResult result = new SlotResult();
+            result.setSlot(entry.getKey());
+            result.setSuccess(error == null);
+            result.setError(error);
+            if (observed != null) {
+                result.setStatus(observed.get(entry.getValue() - 1));
+            }
+            result.setDurationMs(durationMs);
+            results.add(result);
+        }
+        return results;
+    }
+
+    private static AuditSource auditSource(boolean batch) {
+        return batch ? AuditSource.JOB : AuditSource.API;
+    }
+
+    /**
+     * Runs a direct API call inside the bulkhead of its rack. Jobs and bulk requests are already bounded by the
+     * rack's own executors, so calls they make pass straight through.
+     * @param batch whether the call was made by a job or bulk request, captured on the thread that made it
+     */
+    private <T> T inBulkhead(String rack, boolean batch, Supplier<T> call) {
+        if (batch) {
+            return call.get();
+        }
+        return rackRegistry.resolve(rack).call(call);
     }
 
     /**
      * Returns the relay device at the specified slot.
      */
-    private Relay getRelayAtSlot(Integer slot) throws SlotMappingException {
-        Relay relay = slotMappingService.getRelayDeviceAtSlot(slot);
+    private Relay getRelayAtSlot(String rack, Integer slot) throws SlotMappingException {
+        Relay relay = slotMappingService.getRelayDeviceAtSlot(rack, slot);
         if (relay == null) {
             throw new SlotMappingException("No relay found on slot " + slot);
         }
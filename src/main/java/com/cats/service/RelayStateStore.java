@@ -0,0 +1,187 @@
+package com.cats.service;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.beans.PortState;
+import com.cats.events.RelayDevicesChangedEvent;
+import com.cats.events.RelayStateChangedEvent;
+import com.cats.relay.Status;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory model of the desired and last observed state of every relay port, keyed by device:port.
+ * Entries are replaced rather than modified, so a PortState handed out by this class never changes.
+ * A {@link RelayStateChangedEvent} is published whenever the observed state of a port changes.
+ */
+@Service
+@Slf4j
+public class RelayStateStore {
+
+    @Autowired
+    ApplicationEventPublisher eventPublisher;
+
+    /**
+     * Port state by device:port.
+     */
+    private final Map<String, PortState> ports = new ConcurrentHashMap<>();
+
+    /**
+     * Raised whenever the desired or observed state of any port changes, so readers can tell whether what they
+     * hold is still current. Reading a port back in the state it already had only refreshes its timestamp and
+     * leaves the version alone.
+     */
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * Record the state a port was last successfully commanded to.
+     * @param deviceId
+     * @param port
+     * @param desired ON or OFF, or null to stop tracking a desired state for the port
+     */
+    public void recordDesired(String deviceId, Integer port, Status desired) {
+        Instant now = Instant.now();
+        Status[] previous = new Status[1];
+        ports.compute(key(deviceId, port), (key, current) -> {
+            previous[0] = current == null ? null : current.getDesired();
+            PortState next = copy(current, deviceId, port);
+            next.setDesired(desired);
+            next.setDesiredAt(desired == null ? null : now);
+            return next;
+        });
+        if (previous[0] != desired) {
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * Record the states read back from a device, one per port starting at port 1.
+     * @param deviceId
+     * @param statuses
+     */
+    public void recordObserved(String deviceId, List<Status> statuses) {
+        for (int i = 0; i < statuses.size(); i++) {
+            recordObserved(deviceId, i + 1, statuses.get(i));
+        }
+    }
+
+    /**
+     * Record the state read back from a single port.
+     * @param deviceId
+     * @param port
+     * @param observed
+     */
+    public void recordObserved(String deviceId, Integer port, Status observed) {
+        Instant now = Instant.now();
+        Status[] previous = new Status[1];
+        ports.compute(key(deviceId, port), (key, current) -> {
+            previous[0] = current == null ? null : current.getObserved();
+            PortState next = copy(current, deviceId, port);
+            next.setObserved(observed);
+            next.setObservedAt(now);
+            return next;
+        });
+        if (previous[0] != observed) {
+            version.incrementAndGet();
+            eventPublisher.publishEvent(new RelayStateChangedEvent(deviceId, port, previous[0], observed, now));
+        }
+    }
+
+    /**
+     * Get the state of a port.
+     * @param deviceId
+     * @param port
+     * @return PortState, or null if nothing is known about the port
+     */
+    public PortState getPortState(String deviceId, Integer port) {
+        return ports.get(key(deviceId, port));
+    }
+
+    /**
+     * Get the state of every known port on a device.
+     * @param deviceId
+     * @return PortState by port number
+     */
+    public Map<Integer, PortState> getDeviceState(String deviceId) {
+        Map<Integer, PortState> result = new TreeMap<>();
+        ports.values().stream()
+                .filter(state -> state.getDeviceId().equals(deviceId))
+                .forEach(state -> result.put(state.getPort(), state));
+        return result;
+    }
+
+    /**
+     * Get the state of every known port.
+     * @return List of PortState
+     */
+    public List<PortState> getAll() {
+        return new ArrayList<>(ports.values());
+    }
+
+    /**
+     * Forget everything known about a device, i.e. when it is removed from the rack.
+     * @param deviceId
+     */
+    public void removeDevice(String deviceId) {
+        if (ports.values().removeIf(state -> state.getDeviceId().equals(deviceId))) {
+            version.incrementAndGet();
+        }
+    }
+
+    /**
+     * Get the version of the port states, raised whenever a desired or observed state changes.
+     * @return long
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    @EventListener
+    public void onDevicesChanged(RelayDevicesChangedEvent event) {
+        event.getRemoved().forEach(this::removeDevice);
+    }
+
+    private static String key(String deviceId, Integer port) {
+        return deviceId + ":" + port;
+    }
+
+    private static PortState copy(PortState current, String deviceId, Integer port) {
+        PortState next = new PortState();
+        next.setDeviceId(deviceId);
+        next.setPort(port);
+        if (current != null) {
+            next.setDesired(current.getDesired());
+            next.setDesiredAt(current.getDesiredAt());
+            next.setObserved(current.getObserved());
+            next.setObservedAt(current.getObservedAt());
+        }
+        return next;
+    }
+}
@@ -0,0 +1,188 @@
+package com.cats.service;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.beans.PortState;
+import com.cats.dto.SlotWaitResult;
+import com.cats.events.RelayStateChangedEvent;
+import com.cats.relay.Relay;
+import com.cats.relay.Status;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits for slots to reach a state, as seen by the state store: after a command, a status read, a reconcile poll or
+ * a notification pushed by the device. A waiting request holds no thread; it is completed by the thread that
+ * records the transition, or by a timer when it gives up. Only states observed after the request count; when the
+ * state last observed already matches but is older, the device is read once to confirm it. Targets and answers are
+ * states as commanded, unlike /status and ON/OFF: those answer with raw device states, as the store holds them,
+ * which inverted ports read the opposite way.
+ */
+@Service
+@Slf4j
+public class RelayWaitService {
+
+    /**
+     * Longest a single request may wait, in milliseconds.
+     */
+    @Value("${waitMaxTimeoutMs:300000}")
+    long maxTimeoutMs;
+
+    @Autowired
+    SlotMappingService slotMappingService;
+
+    @Autowired
+    RelayStateStore relayStateStore;
+
+    @Autowired
+    ClusterService clusterService;
+
+    @Autowired
+    RelayService relayService;
+
+    /**
+     * Waiting requests by device:port.
+     */
+    private final Map<String, Set<Waiter>> waiters = new ConcurrentHashMap<>();
+
+    /**
+     * Wait until the observed state of a slot is the target state.
+     * @param rack
+     * @param slot
+     * @param target ON or OFF
+     * @param timeoutMs how long to wait before answering with the state last observed
+     * @param forwarded whether a peer forwarded the request, see {@link ClusterService#isForwardedByPeer}
+     * @return SlotWaitResult, completed as soon as the state is reached or the timeout passes
+     */
+    public Mono<SlotWaitResult> await(String rack, Integer slot, Status target, long timeoutMs, boolean forwarded) {
+        if (target == Status.UNKNOWN) {
+            throw new IllegalArgumentException("Can only wait for ON or OFF.");
+        }
+        if (timeoutMs < 0 || timeoutMs > maxTimeoutMs) {
+            throw new IllegalArgumentException("Timeout " + timeoutMs + " must be between 0 and " + maxTimeoutMs + " ms.");
+        }
+        Relay relay = slotMappingService.getRelayDeviceAtSlot(rack, slot);
+        String deviceId = relay.getDevice().getDeviceId();
+        if (!forwarded && !clusterService.isLocal(deviceId)) {
+            // only the owner sees the device's transitions
+            return clusterService.forwardAsync(clusterService.ownerOf(deviceId), HttpMethod.GET, SlotWaitResult.class,
+                    timeoutMs + clusterService.getForwardTimeoutMs(),
+                    "/{rack}/{slot}/relay/await?state={state}&timeoutMs={timeoutMs}", rack, slot, target, timeoutMs);
+        }
+        String key = deviceId + ":" + relay.getPort();
+        long start = System.nanoTime();
+        Instant since = Instant.now();
+        return Mono.<SlotWaitResult>create(sink -> {
+                    Waiter waiter = new Waiter(relay, slot, target, start, since, sink);
+                    waiters.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(waiter);
+                    sink.onDispose(() -> waiters.computeIfPresent(key, (k, set) -> {
+                        set.remove(waiter);
+                        return set.isEmpty() ? null : set;
+                    }));
+                    // registered first, so a transition recorded now is seen either here or by the listener
+                    PortState state = relayStateStore.getPortState(deviceId, relay.getPort());
+                    if (state != null && state.getObserved() != null && relay.toLogical(state.getObserved()) == target
+                            && state.getObservedAt().isBefore(since)) {
+                        // the port may have moved since; a read that finds it unchanged records no transition, so
+                        // its answer is offered here
+                        sink.onCancel(Mono.fromCallable(() -> relayService.pollDevice(relay.getDevice()).get(relay.getPort() - 1))
+                                .subscribeOn(Schedulers.boundedElastic())
+                                .subscribe(raw -> waiter.offer(raw, Instant.now()),
+                                        e -> log.debug("Could not read relay device {}: {}", deviceId, e.getMessage())));
+                    } else if (state != null) {
+                        waiter.offer(state.getObserved(), state.getObservedAt());
+                    }
+                })
+                .timeout(Duration.ofMillis(timeoutMs), Mono.fromSupplier(() -> {
+                    PortState state = relayStateStore.getPortState(deviceId, relay.getPort());
+                    if (state == null) {
+                        return result(slot, target, null, false, start);
+                    }
+                    Status observed = relay.toLogical(state.getObserved());
+                    return result(slot, target, observed, observed == target && !state.getObservedAt().isBefore(since), start);
+                }));
+    }
+
+    @EventListener
+    public void onStateChanged(RelayStateChangedEvent event) {
+        Set<Waiter> waiting = waiters.get(event.getDeviceId() + ":" + event.getPort());
+        if (waiting == null) {
+            return;
+        }
+        for (Waiter waiter : waiting) {
+            waiter.offer(event.getCurrent(), event.getObservedAt());
+        }
+    }
+
+    private static SlotWaitResult result(Integer slot, Status target, Status observed, boolean reached, long start) {
+        SlotWaitResult result = new SlotWaitResult();
+        result.setSlot(slot);
+        result.setTarget(target);
+        result.setStatus(observed);
+        result.setReached(reached);
+        result.setElapsedMs(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return result;
+    }
+
+    /**
+     * One waiting request.
+     */
+    private static final class Waiter {
+        final Relay relay;
+        final Integer slot;
+        final Status target;
+        final long start;
+        final Instant since;
+        final MonoSink<SlotWaitResult> sink;
+
+        Waiter(Relay relay, Integer slot, Status target, long start, Instant since, MonoSink<SlotWaitResult> sink) {
+            this.relay = relay;
+            this.slot = slot;
+            this.target = target;
+            this.start = start;
+            this.since = since;
+            this.sink = sink;
+        }
+
+        /**
+         * Complete the wait if a raw state observed on the port after the request is the target once converted.
+         */
+        void offer(Status raw, Instant observedAt) {
+            Status observed = relay.toLogical(raw);
+            if (observed == target && !observedAt.isBefore(since)) {
+                // a sink ignores all but the first signal, so racing completions are harmless
+                sink.success(result(slot, target, observed, true, start));
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.cats.service;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.relay.RelayDevice;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Probes every relay device in parallel before the service reports ready, so DNS lookups, TCP connects and the
+ * first parse of each device's state are paid before traffic arrives rather than by the first test run.
+ * Started by an application runner but run in the background, so startup is not held up; until it finishes, within
+ * warmupTimeoutMs, the relayWarmup health indicator reports OUT_OF_SERVICE, which keeps the readiness group down.
+ * An unreachable device does not hold back readiness, it is only reported.
+ */
+@Service("relayWarmup")
+@Slf4j
+public class RelayWarmupService implements ApplicationRunner, HealthIndicator {
+
+    /**
+     * Whether devices are probed at startup.
+     */
+    @Value("${warmupEnabled:false}")
+    boolean enabled;
+
+    /**
+     * Overall deadline for the warm-up; devices still outstanding are reported as timed out.
+     */
+    @Value("${warmupTimeoutMs:10000}")
+    long timeoutMs;
+
+    /**
+     * Maximum number of devices probed at once.
+     */
+    @Value("${warmupConcurrency:16}")
+    int concurrency;
+
+    @Autowired
+    ClusterService clusterService;
+
+    @Autowired
+    RelayService relayService;
+
+    private volatile boolean done;
+    private volatile long durationMs;
+    private final Map<String, String> results = new ConcurrentHashMap<>();
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            done = true;
+            return;
+        }
+        warmup()
+                .doFinally(signal -> done = true)
+                .subscribe(null, e -> log.warn("Warm-up failed: {}", e.getMessage()));
+    }
+
+    /**
+     * Whether the warm-up has finished, or was never enabled.
+     * @return boolean
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Poll every device once, giving up on any still outstanding at the deadline.
+     * @return Mono completing once every device answered or the deadline passed
+     */
+    Mono<Void> warmup() {
+        List<RelayDevice> devices = clusterService.getLocalDevices();
+        long start = System.nanoTime();
+        devices.forEach(device -> results.put(device.getDeviceId(), "TIMED_OUT"));
+        return Flux.fromIterable(devices)
+                .flatMap(device -> Mono.fromRunnable(() -> probe(device))
+                        .subscribeOn(Schedulers.boundedElastic()), concurrency)
+                .take(Duration.ofMillis(timeoutMs))
+                .then(Mono.fromRunnable(() -> {
+                    durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                    log.info("Warmed up {} relay devices in {} ms: {}", devices.size(), durationMs, new TreeMap<>(results));
+                }));
+    }
+
+    private void probe(RelayDevice device) {
+        try {
+            // records the observed state and latency as a side effect, priming the state store and history
+            relayService.pollDevice(device);
+            results.put(device.getDeviceId(), "UP");
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                // cancelled at the deadline, leave it reported as timed out
+                return;
+            }
+            results.put(device.getDeviceId(), "UNREACHABLE");
+            log.warn("Warm-up could not reach relay device {}: {}", device.getDeviceId(), e.getMessage());
+        }
+    }
+
+    @Override
+    public Health health() {
+        if (!done) {
+            return Health.outOfService().withDetail("warmup", "in progress").build();
+        }
+        return Health.up()
+                .withDetail("enabled", enabled)
+                .withDetail("durationMs", durationMs)
+                .withDetail("devices", new TreeMap<>(results))
+                .build();
+    }
+}
@@ -18,31 +18,80 @@ package com.cats.service;
  * SPDX-License-Identifier: Apache-2.0
  */
 
+import com.cats.events.RacksChangedEvent;
+import com.cats.events.SlotMappingsChangedEvent;
+import com.cats.exceptions.MappingConflictException;
 import com.cats.exceptions.SlotMappingException;
 import com.cats.relay.Relay;
 import com.cats.relay.RelayDevice;
+import com.cats.service.RackRegistry.Rack;
 import com.cats.utils.SlotToPortMappings;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PostConstruct;
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
+import jakarta.annotation.PreDestroy;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Slot to port mappings of every rack, each kept in the mapping file of its rack. Several instances may share a
+ * mapping file through a common volume: every change is committed under an advisory lock on a sidecar lock file,
+ * on top of the latest committed mappings, with the version counter in the file raised by one, and the file is
+ * replaced by an atomic rename so readers never see half a file. A watcher reloads the in-memory mappings when
+ * another instance commits, skipping the parse whenever the version in the file is the one already loaded.
+ * Writers may name the version their change was made against; the change is then refused if another commit
+ * got there first. Readers never take a lock.
+ */
 @Service
 @Slf4j
 public class SlotMappingService {
 
     /**
-     * Slot to Port Mappings
+     * Slot to Port Mappings by rack name, read from the rack's mapping file on first use. A snapshot is never
+     * modified once published; a commit or reload replaces it.
+     */
+    private final Map<String, SlotToPortMappings> mappingsByRack = new ConcurrentHashMap<>();
+
+    /**
+     * Mapping file of each loaded rack, by absolute path, for the watcher
      */
-    private SlotToPortMappings slotToPortMappings;
+    private final Map<Path, Rack> racksByFile = new ConcurrentHashMap<>();
+
+    /**
+     * Monitor of each mapping file, by absolute path. Threads queue on it before locking the file, so a rack rebuilt
+     * while a commit is running still waits for it. Shared by the whole JVM, as file locks are.
+     */
+    private static final Map<Path, Object> FILE_MONITORS = new ConcurrentHashMap<>();
 
     /**
      * ObjectMapper
@@ -50,47 +99,99 @@ public class SlotMappingService {
     private final ObjectMapper mapper = new ObjectMapper();
 
     /**
-     * File Path for Slot to Port Mappings
+     * Whether mapping files are watched for commits by other instances.
      */
-    @Value("${slotMappingFilePath}")
-    private String mappingFilePath;
+    @Value("${mappingWatchEnabled:true}")
+    boolean watchEnabled;
 
     @Autowired
     RelayDeviceManager relayDeviceManager;
 
+    @Autowired
+    RackRegistry rackRegistry;
+
+    @Autowired
+    ApplicationEventPublisher eventPublisher;
+
+    private WatchService watchService;
+    private final Set<Path> watchedDirectories = ConcurrentHashMap.newKeySet();
+
     @PostConstruct
-    public void init() {
-        initializePortMapping();
+    public void init() throws IOException {
+        if (watchEnabled) {
+            watchService = FileSystems.getDefault().newWatchService();
+            Thread watcher = new Thread(this::watch, "slot-mapping-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+        for (Rack rack : rackRegistry.getRacks()) {
+            mappings(rack);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+        }
     }
 
     /**
-     * Initialize Slot to Port Mappings by reading mappings.json file at provided mappingFilePath
+     * Drop the mappings of racks rebuilt or no longer served; a rebuilt rack reads its, possibly new, mapping file
+     * again on next use.
      */
-    private void initializePortMapping() {
-        log.info("mappingFilePath " + mappingFilePath);
+    @EventListener
+    public void onRacksChanged(RacksChangedEvent event) {
+        List<String> names = new ArrayList<>(event.getUpdated());
+        names.addAll(event.getRemoved());
+        for (String name : names) {
+            mappingsByRack.remove(name);
+            racksByFile.values().removeIf(rack -> rack.getName().equals(name));
+        }
+    }
+
+    /**
+     * Get the mappings of a rack, reading its mapping file the first time
+     */
+    private SlotToPortMappings mappings(Rack rack) {
+        return mappingsByRack.computeIfAbsent(rack.getName(), name -> initializePortMapping(rack));
+    }
+
+    private static Path fileOf(Rack rack) {
+        return Paths.get(rack.getMappingFile()).toAbsolutePath().normalize();
+    }
+
+    /**
+     * Initialize Slot to Port Mappings by reading the mappings.json file of the rack
+     */
+    private SlotToPortMappings initializePortMapping(Rack rack) {
+        Path file = fileOf(rack);
+        log.info("Rack " + rack.getName() + " mappingFilePath " + file);
+        SlotToPortMappings slotToPortMappings;
         try {
-            File f = new File(mappingFilePath);
-            if (!f.exists()) {
-                f.getParentFile().mkdirs();
-            }
-            slotToPortMappings = mapper.readValue(new File(mappingFilePath), SlotToPortMappings.class);
-            if (slotToPortMappings.getMappings().isEmpty()) {
-                initializeDefaultMappings();
+            Files.createDirectories(file.getParent());
+            racksByFile.put(file, rack);
+            watch(file.getParent());
+            slotToPortMappings = mapper.readValue(file.toFile(), SlotToPortMappings.class);
+            if (slotToPortMappings.getMappings().isEmpty() && slotToPortMappings.getVersion() == 0) {
+                initializeDefaultMappings(rack, slotToPortMappings);
             }
         } catch (IOException ex) {
             log.error("Could not process slot mappings file, using default values: " + ex.getLocalizedMessage());
             slotToPortMappings = new SlotToPortMappings();
-            initializeDefaultMappings();
+            initializeDefaultMappings(rack, slotToPortMappings);
         }
+        return slotToPortMappings;
     }
 
 
     /**
-     * Initializes default mappings
+     * Initializes default mappings, numbering the ports of the rack's devices in configuration order. Used only
+     * while no mappings were ever committed; mappings emptied by a commit stay empty.
      */
-    private void initializeDefaultMappings() {
+    private void initializeDefaultMappings(Rack rack, SlotToPortMappings slotToPortMappings) {
         int slot = 1;
-        for (RelayDevice relayDevice : relayDeviceManager.getRelayDevices()) {
+        for (RelayDevice relayDevice : rackRegistry.getDevices(rack)) {
             String deviceId = relayDevice.getDeviceId();
             for (int i = 0; i < relayDevice.relays().size(); i++) {
                 slotToPortMappings.addMapping(Integer.toString(slot++), deviceId + ":" + (i + 1));
@@ -98,95 +199,296 @@ public class SlotMappingService {
         }
     }
 
+    /**
+     * A change to the mappings of a rack, applied to a private copy of the latest committed mappings.
+     */
+    @FunctionalInterface
+    private interface MappingChange {
+        void apply(SlotToPortMappings mappings) throws SlotMappingException;
+    }
+
+    /**
+     * Apply a change on top of the latest committed mappings and commit it. The advisory lock keeps other
+     * instances out for the whole read-change-write; threads of this instance queue on the file's monitor first,
+     * since a JVM may hold only one lock on a file. Listeners hear of the change once the file lock is released, so a slow
+     * listener never holds up other instances.
+     *
+     * @param rack
+     * @param expectedVersion version the change was made against, or null to apply it on top of any version
+     * @param change
+     * @return the committed SlotToPortMappings
+     * @throws IOException
+     * @throws SlotMappingException if the change is rejected; nothing is written
+     * @throws MappingConflictException if the committed version is not the expected one; nothing is written
+     */
+    private SlotToPortMappings commit(Rack rack, Long expectedVersion, MappingChange change) throws IOException {
+        Path file = fileOf(rack);
+        Path lockFile = file.resolveSibling(file.getFileName() + ".lock");
+        synchronized (monitorOf(file)) {
+            SlotToPortMappings loaded = mappings(rack);
+            SlotToPortMappings current = loaded;
+            try {
+                try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    // released when the channel is closed
+                    channel.lock();
+                    current = latest(rack, loaded);
+                    if (expectedVersion != null && expectedVersion != current.getVersion()) {
+                        throw new MappingConflictException("Slot mappings of rack " + rack.getName() + " are at version "
+                                + current.getVersion() + ", not " + expectedVersion, current.getVersion());
+                    }
+                    SlotToPortMappings next = current.copy();
+                    change.apply(next);
+                    next.setVersion(current.getVersion() + 1);
+
+                    Path temp = Files.createTempFile(file.getParent(), file.getFileName() + ".", ".tmp");
+                    try {
+                        Files.write(temp, mapper.writeValueAsBytes(next));
+                        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } finally {
+                        Files.deleteIfExists(temp);
+                    }
+                    current = next;
+                } catch (IOException ex) {
+                    log.error("Could not update slot mappings: " + ex.getLocalizedMessage());
+                    throw ex;
+                }
+            } finally {
+                // commits of other instances read under the lock are taken on even when this change is not;
+                // still under the file's monitor, so this instance announces its versions in order
+                if (current != loaded) {
+                    mappingsByRack.put(rack.getName(), current);
+                    publishChanges(rack, loaded, current);
+                }
+            }
+            log.info("Committed version " + current.getVersion() + " of slot mappings for rack " + rack.getName());
+            return current;
+        }
+    }
+
+    /**
+     * Bring the mappings of a rack up to the version committed in its file. The file is parsed only when its
+     * version differs from the one loaded; a missing or unreadable file leaves the loaded mappings in place.
+     *
+     * @param rack
+     * @return the current SlotToPortMappings
+     */
+    SlotToPortMappings reload(Rack rack) {
+        synchronized (monitorOf(fileOf(rack))) {
+            SlotToPortMappings loaded = mappings(rack);
+            SlotToPortMappings committed = latest(rack, loaded);
+            if (committed != loaded) {
+                mappingsByRack.put(rack.getName(), committed);
+                publishChanges(rack, loaded, committed);
+                log.info("Reloaded version " + committed.getVersion() + " of slot mappings for rack " + rack.getName());
+            }
+            return committed;
+        }
+    }
+
+    private static Object monitorOf(Path file) {
+        return FILE_MONITORS.computeIfAbsent(file, key -> new Object());
+    }
+
+    /**
+     * Read the mappings committed in the file of a rack, unless they are the version already loaded
+     *
+     * @param rack
+     * @param loaded mappings currently loaded
+     * @return the committed SlotToPortMappings, or loaded if the file holds the same version, is missing or unreadable
+     */
+    private SlotToPortMappings latest(Rack rack, SlotToPortMappings loaded) {
+        Path file = fileOf(rack);
+        try {
+            if (readVersion(file) == loaded.getVersion()) {
+                return loaded;
+            }
+            SlotToPortMappings committed = mapper.readValue(file.toFile(), SlotToPortMappings.class);
+            if (committed.getMappings().isEmpty() && committed.getVersion() == 0) {
+                initializeDefaultMappings(rack, committed);
+            }
+            return committed;
+        } catch (NoSuchFileException ex) {
+            return loaded;
+        } catch (IOException ex) {
+            log.warn("Could not reload slot mappings " + file + ", keeping version " + loaded.getVersion() + ": " + ex.getLocalizedMessage());
+            return loaded;
+        }
+    }
+
+    /**
+     * Announce the slots whose mapping differs between two versions of the mappings of a rack
+     */
+    private void publishChanges(Rack rack, SlotToPortMappings previous, SlotToPortMappings next) {
+        Map<String, String> changed = new HashMap<>();
+        next.getMappings().forEach((slot, mapping) -> {
+            if (!Objects.equals(mapping, previous.getMappings().get(slot))) {
+                changed.put(slot, mapping);
+            }
+        });
+        for (String slot : previous.getMappings().keySet()) {
+            if (!next.getMappings().containsKey(slot)) {
+                changed.put(slot, "N/A");
+            }
+        }
+        if (!changed.isEmpty()) {
+            eventPublisher.publishEvent(new SlotMappingsChangedEvent(rack.getName(), next.getVersion(), changed, Instant.now()));
+        }
+    }
+
+    /**
+     * Read the version of a mapping file, stopping at the version field; files written before versions were
+     * kept count as version 0.
+     */
+    private long readVersion(Path file) throws IOException {
+        try (JsonParser parser = mapper.getFactory().createParser(file.toFile())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("mappings file does not hold a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if ("version".equals(field)) {
+                    return parser.getLongValue();
+                }
+                parser.skipChildren();
+            }
+            return 0;
+        }
+    }
+
+    private void watch(Path directory) throws IOException {
+        if (watchService != null && watchedDirectories.add(directory)) {
+            // watch the directory rather than the file, since commits replace the file by rename
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path directory = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.context() instanceof Path) {
+                        Rack rack = racksByFile.get(directory.resolve((Path) event.context()));
+                        if (rack != null) {
+                            reload(rack);
+                        }
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            log.debug("Stopped watching slot mapping files");
+        }
+    }
+
     /**
      * Get Slot to Port Mappings
      *
+     * @param rack
      * @return SlotToPortMappings
      */
-    public SlotToPortMappings getMappings() {
-        return slotToPortMappings;
+    public SlotToPortMappings getMappings(String rack) {
+        return mappings(rackRegistry.resolve(rack));
     }
 
 
     /**
      * Set Slot to Port Mappings
      *
+     * @param rack
      * @param mappings
+     * @param expectedVersion version the mappings were edited from, or null to replace any version
      * @return SlotToPortMappings
      * @throws IOException
+     * @throws MappingConflictException if another change was committed since the expected version
      */
-    public SlotToPortMappings setMappings(Map<String, String> mappings) throws IOException {
+    public SlotToPortMappings setMappings(String rack, Map<String, String> mappings, Long expectedVersion) throws IOException {
         log.info("mappings = " + mappings);
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(mappingFilePath))) {
-            for (Map.Entry<String, String> entry : mappings.entrySet()) {
-                if (!isValidMapping(entry.getValue())) {
-                    log.error("Invalid mapping for slot " + entry.getKey() + ": " + entry.getValue());
-                    writer.write(mapper.writeValueAsString(this.slotToPortMappings));
-                    throw new SlotMappingException("Invalid mapping for slot " + entry.getKey() + ": " + entry.getValue());
-                }
+        Rack target = rackRegistry.resolve(rack);
+        for (Map.Entry<String, String> entry : mappings.entrySet()) {
+            if (!isValidMapping(target, entry.getValue())) {
+                log.error("Invalid mapping for slot " + entry.getKey() + ": " + entry.getValue());
+                throw new SlotMappingException("Invalid mapping for slot " + entry.getKey() + ": " + entry.getValue());
             }
-            log.info("Setting new mapping: " + mapper.writeValueAsString(mappings));
-
-            this.slotToPortMappings.setMappings(mappings);
-            writer.write(mapper.writeValueAsString(this.slotToPortMappings));
-
-            log.info("Slot to port mappings file updated");
-            return this.slotToPortMappings;
-        } catch (IOException ex) {
-            log.error("Could not update slot mappings: " + ex.getLocalizedMessage());
-            throw ex;
         }
+        log.info("Setting new mapping: " + mapper.writeValueAsString(mappings));
+        SlotToPortMappings slotToPortMappings = commit(target, expectedVersion, current -> current.setMappings(new HashMap<>(mappings)));
+        log.info("Slot to port mappings file updated");
+        return slotToPortMappings;
     }
 
     /**
      * Removes all Slot to Port Mappings
      *
+     * @param rack
+     * @param expectedVersion version the removal was decided on, or null to remove any version
+     * @return SlotToPortMappings
      * @throws IOException
+     * @throws MappingConflictException if another change was committed since the expected version
      */
-    public void removeMappings() throws IOException {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(mappingFilePath))) {
-            log.info("Removing slot to port mappings");
-            this.slotToPortMappings.removeMappings();
-
-            log.info("Slot to port mappings have been removed");
-            writer.write(mapper.writeValueAsString(this.slotToPortMappings));
-
-        } catch (IOException ex) {
-            log.error("Could not update slot mappings: " + ex.getLocalizedMessage());
-            throw ex;
-        }
+    public SlotToPortMappings removeMappings(String rack, Long expectedVersion) throws IOException {
+        log.info("Removing slot to port mappings");
+        SlotToPortMappings slotToPortMappings = commit(rackRegistry.resolve(rack), expectedVersion, SlotToPortMappings::removeMappings);
+        log.info("Slot to port mappings have been removed");
+        return slotToPortMappings;
     }
 
     /**
      * Get Mapping for a Slot
      *
+     * @param rack
      * @param slot
      * @return String
      * @throws SlotMappingException
      */
-    public String getMapping(String slot) throws SlotMappingException {
+    public String getMapping(String rack, String slot) throws SlotMappingException {
         try {
-            return slotToPortMappings.getMapping(slot);
+            return getMappings(rack).getMapping(slot);
         } catch (SlotMappingException ex) {
             log.error("Could not locate mapping for slot: " + slot);
             throw ex;
         }
     }
 
+    /**
+     * Get all slots that currently have a device mapping, in ascending order
+     *
+     * @param rack
+     * @return List of slot numbers
+     */
+    public List<Integer> getMappedSlots(String rack) {
+        return getMappings(rack).getMappings().entrySet().stream()
+                .filter(entry -> !"N/A".equals(entry.getValue()))
+                .map(Map.Entry::getKey)
+                .filter(slot -> !slot.isEmpty() && slot.chars().allMatch(Character::isDigit))
+                .map(Integer::valueOf)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
     /**
      * Get Relay Device at Slot
      *
+     * @param rack
      * @param slot
      * @return Relay
      * @throws SlotMappingException
      */
-    public Relay getRelayDeviceAtSlot(Integer slot) throws SlotMappingException {
-        String deviceIdWithOutlet = getMapping(String.valueOf(slot));
+    public Relay getRelayDeviceAtSlot(String rack, Integer slot) throws SlotMappingException {
+        String deviceIdWithOutlet = getMapping(rack, String.valueOf(slot));
         log.info("deviceIdWithOutlet " + deviceIdWithOutlet);
         String[] deviceIdWithOutletArr = deviceIdWithOutlet.split(":");
-        RelayDevice relayDevice = this.relayDeviceManager.getRelayDevices().stream()
-                .filter(device -> device.getDeviceId().equalsIgnoreCase(deviceIdWithOutletArr[0])).findFirst()
-                .orElseThrow(() -> new IllegalArgumentException("No relay with device id present " + deviceIdWithOutletArr[0]));
+        if (deviceIdWithOutletArr.length != 2 || !deviceIdWithOutletArr[1].matches("\\d+")) {
+            throw new SlotMappingException("Slot " + slot + " is not mapped to a device port: " + deviceIdWithOutlet);
+        }
+        RelayDevice relayDevice = this.relayDeviceManager.getDevice(deviceIdWithOutletArr[0]);
+        if (relayDevice == null) {
+            throw new IllegalArgumentException("No relay with device id present " + deviceIdWithOutletArr[0]);
+        }
 
         return relayDevice.relay(Integer.parseInt(deviceIdWithOutletArr[1]));
     }
@@ -194,71 +496,126 @@ public class SlotMappingService {
     /**
      * Set Mapping for a Slot
      *
+     * @param rack
      * @param slot
      * @param mapping
+     * @param expectedVersion version the mapping was edited from, or null to set it on any version
      * @return SlotToPortMappings
      * @throws IOException
      * @throws SlotMappingException
+     * @throws MappingConflictException if another change was committed since the expected version
      */
-    public SlotToPortMappings setMapping(String slot, String mapping) throws IOException, SlotMappingException {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(mappingFilePath))) {
-            if (!isValidMapping(mapping)) {
-                log.error("Invalid mapping for slot " + slot + ": " + mapping);
-                writer.write(mapper.writeValueAsString(this.slotToPortMappings));
-                throw new SlotMappingException("Invalid mapping for slot " + slot + ": " + mapping);
-            }
-            log.info("Setting mapping on slot " + slot + " to " + mapping);
-
-            if (this.slotToPortMappings.getMappings().containsKey(slot)) {
-                this.slotToPortMappings.removeMapping(slot);
-            }
-            this.slotToPortMappings.addMapping(slot, mapping);
-
-            writer.write(mapper.writeValueAsString(this.slotToPortMappings));
-
-            log.info("Slot " + slot + " mapping updated");
-            return this.slotToPortMappings;
-        } catch (IOException | SlotMappingException ex) {
-            log.error("Could not update slot mappings: " + ex.getLocalizedMessage());
-            throw ex;
+    public SlotToPortMappings setMapping(String rack, String slot, String mapping, Long expectedVersion) throws IOException, SlotMappingException {
+        Rack target = rackRegistry.resolve(rack);
+        if (!isValidMapping(target, mapping)) {
+            log.error("Invalid mapping for slot " + slot + ": " + mapping);
+            throw new SlotMappingException("Invalid mapping for slot " + slot + ": " + mapping);
         }
+        log.info("Setting mapping on slot " + slot + " to " + mapping);
+        SlotToPortMappings slotToPortMappings = commit(target, expectedVersion, current -> current.addMapping(slot, mapping));
+        log.info("Slot " + slot + " mapping updated");
+        return slotToPortMappings;
     }
 
     /**
      * Remove Mapping for a Slot
      *
+     * @param rack
      * @param slot
+     * @param expectedVersion version the removal was decided on, or null to remove it from any version
      * @return SlotToPortMappings
      * @throws IOException
      * @throws SlotMappingException
+     * @throws MappingConflictException if another change was committed since the expected version
      */
-    public SlotToPortMappings removeMapping(String slot) throws IOException, SlotMappingException {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(mappingFilePath))) {
-            log.info("Removing mapping on slot " + slot);
-            this.slotToPortMappings.removeMapping(slot);
-
-            writer.write(mapper.writeValueAsString(this.slotToPortMappings));
+    public SlotToPortMappings removeMapping(String rack, String slot, Long expectedVersion) throws IOException, SlotMappingException {
+        log.info("Removing mapping on slot " + slot);
+        SlotToPortMappings slotToPortMappings = commit(rackRegistry.resolve(rack), expectedVersion, current -> current.removeMapping(slot));
+        log.info("Slot " + slot + " mapping removed");
+        return slotToPortMappings;
+    }
 
-            log.info("Slot " + slot + " mapping removed");
+    /**
+     * Move every slot mapped to one device onto the same ports of another, as one commit, e.g. after a device
+     * was replaced or re-cabled
+     *
+     * @param rack
+     * @param fromDeviceId device the slots map to now
+     * @param toDeviceId device the slots should map to
+     * @param expectedVersion version the remap was decided on, or null to remap on any version
+     * @return SlotToPortMappings
+     * @throws IOException
+     * @throws SlotMappingException if a slot would map to a port the target device does not have; nothing is changed
+     * @throws MappingConflictException if another change was committed since the expected version
+     */
+    public SlotToPortMappings remapDevice(String rack, String fromDeviceId, String toDeviceId, Long expectedVersion) throws IOException, SlotMappingException {
+        Rack target = rackRegistry.resolve(rack);
+        log.info("Remapping slots of device " + fromDeviceId + " to device " + toDeviceId);
+        SlotToPortMappings slotToPortMappings = commit(target, expectedVersion, current -> {
+            List<String> slots = current.slotsOf(fromDeviceId);
+            if (slots.isEmpty()) {
+                throw new SlotMappingException("No slot is mapped to device " + fromDeviceId);
+            }
+            Map<String, String> remapped = new LinkedHashMap<>();
+            for (String slot : slots) {
+                String previous = current.getMappings().get(slot);
+                // the device part may differ in case from fromDeviceId, so keep everything from the separator on
+                int separator = previous.indexOf(':');
+                String mapping = separator < 0 ? previous : toDeviceId + previous.substring(separator);
+                if (!isValidMapping(target, mapping)) {
+                    throw new SlotMappingException("Invalid mapping for slot " + slot + ": " + mapping);
+                }
+                remapped.put(slot, mapping);
+            }
+            remapped.forEach(current::addMapping);
+        });
+        log.info("Slots of device " + fromDeviceId + " remapped to device " + toDeviceId);
+        return slotToPortMappings;
+    }
 
-            return this.slotToPortMappings;
-        } catch (IOException | SlotMappingException ex) {
-            log.error("Could not update slot mappings: " + ex.getLocalizedMessage());
-            throw ex;
-        }
+    /**
+     * Swap the mappings of two slots, as one commit
+     *
+     * @param rack
+     * @param first
+     * @param second
+     * @param expectedVersion version the swap was decided on, or null to swap on any version
+     * @return SlotToPortMappings
+     * @throws IOException
+     * @throws SlotMappingException if either slot is not in the mappings
+     * @throws MappingConflictException if another change was committed since the expected version
+     */
+    public SlotToPortMappings swapSlots(String rack, String first, String second, Long expectedVersion) throws IOException, SlotMappingException {
+        log.info("Swapping mappings of slots " + first + " and " + second);
+        SlotToPortMappings slotToPortMappings = commit(rackRegistry.resolve(rack), expectedVersion, current -> {
+            String firstMapping = current.getMappings().get(first);
+            String secondMapping = current.getMappings().get(second);
+            if (firstMapping == null || secondMapping == null) {
+                throw new SlotMappingException("Slot " + (firstMapping == null ? first : second) + " is not mapped");
+            }
+            current.addMapping(first, secondMapping);
+            current.addMapping(second, firstMapping);
+        });
+        log.info("Slots " + first + " and " + second + " swapped");
+        return slotToPortMappings;
     }
 
     /**
-     * Check if the mapping is valid
+     * Check if the mapping is valid, naming a port of a device in the rack. Devices are looked up by id.
      *
+     * @param rack
      * @param deviceInfo
      * @return boolean
      */
-    private boolean isValidMapping(String deviceInfo) {
+    private boolean isValidMapping(Rack rack, String deviceInfo) {
         try {
             String[] deviceAndPort = deviceInfo.split(":");
-            RelayDevice relayDevice = relayDeviceManager.getRelayDevices().get(Integer.parseInt(deviceAndPort[0]) - 1);
-            if (Integer.parseInt(deviceAndPort[1]) <= relayDevice.getMaxPort()) {
+            if (deviceAndPort.length != 2) {
+                return false;
+            }
+            RelayDevice relayDevice = relayDeviceManager.getDevice(deviceAndPort[0]);
+            int port = Integer.parseInt(deviceAndPort[1]);
+            if (relayDevice != null && rackRegistry.contains(rack, deviceAndPort[0]) && port >= 1 && port <= relayDevice.getMaxPort()) {
                 return true;
             }
         } catch (NumberFormatException | IndexOutOfBoundsException ex) {
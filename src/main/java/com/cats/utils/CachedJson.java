@@ -0,0 +1,157 @@
+package com.cats.utils;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.DigestUtils;
+
+import java.io.UncheckedIOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * JSON form of versioned snapshots, serialized once per version and tagged with a strong ETag, so repeated reads
+ * of an unchanged snapshot reuse the same bytes, or get 304 Not Modified when the client already holds them.
+ * Only the latest version of each named snapshot is kept.
+ */
+public class CachedJson {
+
+    private final ObjectMapper mapper;
+    private final Map<String, Rendered> rendered = new ConcurrentHashMap<>();
+
+    public CachedJson(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /**
+     * Get the serialized form of a snapshot, serializing it only if the version has moved on.
+     * @param name which snapshot, e.g. the rack the mappings belong to
+     * @param version identifies the snapshot; compared with equals, so an immutable snapshot may be its own version
+     * @param snapshot supplies the snapshot to serialize
+     * @return Rendered
+     */
+    public Rendered render(String name, Object version, Supplier<?> snapshot) {
+        return render(name, version, snapshot, null);
+    }
+
+    /**
+     * Get the serialized form of a snapshot, with the ETag derived from only part of it, so that fields which do
+     * not make it a different representation, such as timestamps, leave the ETag alone.
+     * @param name which snapshot
+     * @param version identifies the snapshot
+     * @param snapshot supplies the snapshot to serialize
+     * @param tagged picks what the ETag is derived from, or null for the whole body
+     * @return Rendered
+     */
+    public <T> Rendered render(String name, Object version, Supplier<T> snapshot, Function<T, ?> tagged) {
+        Rendered current = rendered.get(name);
+        if (current == null || !Objects.equals(current.version, version)) {
+            try {
+                T value = snapshot.get();
+                byte[] body = mapper.writeValueAsBytes(value);
+                byte[] tag = tagged == null ? body : mapper.writeValueAsBytes(tagged.apply(value));
+                current = new Rendered(version, body, "\"" + DigestUtils.md5DigestAsHex(tag) + "\"");
+            } catch (JsonProcessingException e) {
+                throw new UncheckedIOException(e);
+            }
+            rendered.put(name, current);
+        }
+        return current;
+    }
+
+    /**
+     * Answer a GET with the ETag, and with the body only if If-None-Match does not already name it.
+     * @param ifNoneMatch If-None-Match request header, or null
+     * @param etag strong ETag of the current representation
+     * @param body supplies the representation, not called for 304
+     * @return ResponseEntity
+     */
+    public static ResponseEntity<byte[]> respond(String ifNoneMatch, String etag, Supplier<byte[]> body) {
+        if (matches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+        return ResponseEntity.ok().eTag(etag).contentType(MediaType.APPLICATION_JSON).body(body.get());
+    }
+
+    /**
+     * Whether an If-None-Match header names the ETag. If-None-Match uses the weak comparison, so W/ prefixes
+     * are ignored.
+     */
+    static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether an If-Match header names the ETag. If-Match uses the strong comparison, so weak ETags never match.
+     * @param ifMatch If-Match request header
+     * @param etag strong ETag of the current representation
+     * @return boolean
+     */
+    public static boolean matchesStrongly(String ifMatch, String etag) {
+        for (String candidate : ifMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * One serialized snapshot.
+     */
+    public static final class Rendered {
+        private final Object version;
+        private final byte[] body;
+        private final String etag;
+
+        Rendered(Object version, byte[] body, String etag) {
+            this.version = version;
+            this.body = body;
+            this.etag = etag;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+    }
+}
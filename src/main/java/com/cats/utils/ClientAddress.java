@@ -0,0 +1,102 @@
+package com.cats.utils;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import org.springframework.util.ClassUtils;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.regex.Pattern;
+
+/**
+ * Looks up the address of the client that sent the current request, on either server stack.
+ * The servlet stack exposes the request to the handling thread; the reactive build copies the address into
+ * the {@link #ATTRIBUTE} request attribute instead, see ReactiveServerConfiguration.
+ */
+public final class ClientAddress {
+
+    /**
+     * Request attribute holding the client address in the reactive build.
+     */
+    public static final String ATTRIBUTE = "com.cats.clientAddress";
+
+    private static final Pattern IPV4 = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+    private static final Pattern IPV6 = Pattern.compile("[0-9a-fA-F:][0-9a-fA-F:.]*(%[\\w.]+)?");
+
+    private static final boolean SERVLET_PRESENT = ClassUtils.isPresent("jakarta.servlet.http.HttpServletRequest",
+            ClientAddress.class.getClassLoader());
+
+    private ClientAddress() {
+    }
+
+    /**
+     * @return address of the client of the servlet request being handled on this thread, or null if there is none
+     */
+    public static String current() {
+        return SERVLET_PRESENT ? ServletClient.remoteAddress() : null;
+    }
+
+    /**
+     * Parse a literal IPv4 or IPv6 address. A host name is never looked up, so this never blocks on DNS.
+     * @param client address as reported by the server, may be null
+     * @return 4 or 16 address bytes, or null if it is not a literal address
+     */
+    public static byte[] parseLiteral(String client) {
+        if (client == null) {
+            return null;
+        }
+        if (IPV4.matcher(client).matches()) {
+            String[] parts = client.split("\\.", 4);
+            byte[] address = new byte[4];
+            for (int i = 0; i < 4; i++) {
+                int part = Integer.parseInt(parts[i]);
+                if (part > 255) {
+                    return null;
+                }
+                address[i] = (byte) part;
+            }
+            return address;
+        }
+        String literal = client.startsWith("[") && client.endsWith("]") ? client.substring(1, client.length() - 1) : client;
+        // starting with a hex digit or a colon and containing a colon, InetAddress parses it as an IPv6 literal
+        // and fails rather than falling back to a lookup
+        if (literal.contains(":") && IPV6.matcher(literal).matches()) {
+            try {
+                return InetAddress.getByName(literal).getAddress();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Kept apart so the servlet API is only loaded when it is on the classpath, i.e. not in the reactive build.
+     */
+    private static final class ServletClient {
+        static String remoteAddress() {
+            RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+            return attributes instanceof ServletRequestAttributes
+                    ? ((ServletRequestAttributes) attributes).getRequest().getRemoteAddr() : null;
+        }
+    }
+}
@@ -20,41 +20,84 @@ package com.cats.utils;
 
 import com.cats.exceptions.SlotMappingException;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 /**
- * Slot to Port Mappings Configuration
+ * Slot to Port Mappings Configuration, with a reverse index from device:port to the slots mapped to it
  */
+@JsonPropertyOrder({"version", "slots"})
 public class SlotToPortMappings {
 
     /**
      * Slot to Port Mappings
      */
     Map<String, String> slots = new HashMap<>();
+
+    /**
+     * Number of commits made to the mappings file, written first so a reader can check it without parsing the slots
+     */
+    long version;
+
+    /**
+     * Slots by the device:port they map to, and by device id; built on first lookup, dropped on any change
+     */
+    private volatile Index index;
+
+    public long getVersion(){
+        return version;
+    }
+
+    public void setVersion(long version){
+        this.version = version;
+    }
+
+    /**
+     * Copy of these mappings, to change without disturbing readers of this one
+     */
+    public SlotToPortMappings copy(){
+        SlotToPortMappings copy = new SlotToPortMappings();
+        copy.slots = new HashMap<>(slots);
+        copy.version = version;
+        return copy;
+    }
     
+    /**
+     * Read-only view of the mappings; change them through addMapping, removeMapping or setMappings, which also
+     * drop the index
+     */
     public Map<String, String> getMappings(){
-        return slots;
+        return Collections.unmodifiableMap(slots);
     }
     
     @JsonProperty("slots")
     public void setMappings(Map<String, String> slots){
         this.slots = slots;
+        this.index = null;
     }
     
     public void removeMappings(){
         this.slots = new HashMap<>();
+        this.index = null;
     }
     
     public void addMapping(String slot, String deviceInfo){
         slots.put(slot, deviceInfo);
+        index = null;
     }
     
     public void removeMapping(String slot) throws SlotMappingException {
         if(slots.containsKey(slot)){
             //slots.remove(slot);
             slots.put(slot,"N/A");
+            index = null;
         }
         else{
             throw new SlotMappingException("Slot " + slot + " is not mapped");
@@ -68,4 +111,62 @@ public class SlotToPortMappings {
         }
         throw new SlotMappingException("Slot " + slot + " is not mapped");
     }
+
+    /**
+     * Slots mapped to a port, in slot order. Device ids match regardless of case.
+     * @param deviceInfo device:port
+     * @return List of slots, empty if none
+     */
+    public List<String> slotsAt(String deviceInfo){
+        return index().byPort.getOrDefault(fold(deviceInfo), Collections.emptyList());
+    }
+
+    /**
+     * Slots mapped to any port of a device, in slot order. Device ids match regardless of case.
+     * @param deviceId
+     * @return List of slots, empty if none
+     */
+    public List<String> slotsOf(String deviceId){
+        return index().byDevice.getOrDefault(fold(deviceId), Collections.emptyList());
+    }
+
+    private static String fold(String deviceInfo){
+        return deviceInfo.toLowerCase(Locale.ROOT);
+    }
+
+    private Index index(){
+        Index current = index;
+        if(current == null){
+            // a published snapshot is never changed, so racing builders build the same index
+            current = new Index(slots);
+            index = current;
+        }
+        return current;
+    }
+
+    /**
+     * Numeric slots in numeric order, then any others by name
+     */
+    private static final Comparator<String> SLOT_ORDER = Comparator
+            .comparing((String slot) -> slot.isEmpty() || !slot.chars().allMatch(Character::isDigit))
+            .thenComparing(slot -> slot.length())
+            .thenComparing(Comparator.naturalOrder());
+
+    private static final class Index {
+        final Map<String, List<String>> byPort = new HashMap<>();
+        final Map<String, List<String>> byDevice = new HashMap<>();
+
+        Index(Map<String, String> slots){
+            List<String> ordered = new ArrayList<>(slots.keySet());
+            ordered.sort(SLOT_ORDER);
+            for(String slot : ordered){
+                String deviceInfo = slots.get(slot);
+                if(deviceInfo == null || deviceInfo.equals("N/A")){
+                    continue;
+                }
+                byPort.computeIfAbsent(fold(deviceInfo), key -> new ArrayList<>()).add(slot);
+                byDevice.computeIfAbsent(fold(deviceInfo.split(":")[0]), key -> new ArrayList<>()).add(slot);
+            }
+        }
+    }
 }
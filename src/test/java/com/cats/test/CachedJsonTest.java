@@ -0,0 +1,72 @@
+package com.cats.test;
+
+
+import com.cats.utils.CachedJson;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CachedJsonTest {
+
+    private final CachedJson cache = new CachedJson(new ObjectMapper());
+
+    @Test
+    public void serializesOncePerVersionTest() {
+        AtomicInteger serialized = new AtomicInteger();
+        CachedJson.Rendered first = cache.render("rack", 1L, () -> {
+            serialized.incrementAndGet();
+            return Collections.singletonMap("1", "1:1");
+        });
+        CachedJson.Rendered again = cache.render("rack", 1L, () -> {
+            serialized.incrementAndGet();
+            return Collections.singletonMap("1", "1:1");
+        });
+        Assert.assertSame(first, again);
+        Assert.assertEquals(1, serialized.get());
+
+        CachedJson.Rendered next = cache.render("rack", 2L, () -> Collections.singletonMap("1", "2:1"));
+        Assert.assertNotEquals(first.getEtag(), next.getEtag());
+        Assert.assertTrue(next.getEtag().startsWith("\"") && next.getEtag().endsWith("\""));
+    }
+
+    @Test
+    public void etagFromTaggedPartTest() {
+        CachedJson.Rendered first = cache.render("state", 1L, () -> Collections.singletonMap("1:1", "ON@1000"),
+                (Map<String, String> states) -> states.get("1:1").split("@")[0]);
+        CachedJson.Rendered polled = cache.render("state", 2L, () -> Collections.singletonMap("1:1", "ON@2000"),
+                (Map<String, String> states) -> states.get("1:1").split("@")[0]);
+        Assert.assertNotSame(first, polled);
+        Assert.assertEquals(first.getEtag(), polled.getEtag());
+        CachedJson.Rendered changed = cache.render("state", 3L, () -> Collections.singletonMap("1:1", "OFF@3000"),
+                (Map<String, String> states) -> states.get("1:1").split("@")[0]);
+        Assert.assertNotEquals(first.getEtag(), changed.getEtag());
+    }
+
+    @Test
+    public void ifNoneMatchTest() {
+        String etag = cache.render("rack", 1L, () -> Collections.singletonMap("1", "1:1")).getEtag();
+        Assert.assertEquals(HttpStatus.NOT_MODIFIED, CachedJson.respond(etag, etag, () -> null).getStatusCode());
+        Assert.assertEquals(HttpStatus.NOT_MODIFIED, CachedJson.respond("\"other\", W/" + etag, etag, () -> null).getStatusCode());
+        Assert.assertEquals(HttpStatus.NOT_MODIFIED, CachedJson.respond("*", etag, () -> null).getStatusCode());
+
+        ResponseEntity<byte[]> full = CachedJson.respond("\"other\"", etag, () -> new byte[] { '{', '}' });
+        Assert.assertEquals(HttpStatus.OK, full.getStatusCode());
+        Assert.assertEquals(etag, full.getHeaders().getETag());
+        Assert.assertEquals(2, full.getBody().length);
+    }
+
+    @Test
+    public void ifMatchTest() {
+        String etag = cache.render("rack", 1L, () -> Collections.singletonMap("1", "1:1")).getEtag();
+        Assert.assertTrue(CachedJson.matchesStrongly("\"other\", " + etag, etag));
+        Assert.assertTrue(CachedJson.matchesStrongly("*", etag));
+        Assert.assertFalse(CachedJson.matchesStrongly("W/" + etag, etag));
+        Assert.assertFalse(CachedJson.matchesStrongly("\"other\"", etag));
+    }
+}
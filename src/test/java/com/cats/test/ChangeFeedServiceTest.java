@@ -0,0 +1,74 @@
+package com.cats.test;
+
+
+import com.cats.dto.ChangeFeed;
+import com.cats.dto.ChangeType;
+import com.cats.events.RelayStateChangedEvent;
+import com.cats.events.SlotMappingsChangedEvent;
+import com.cats.relay.Status;
+import com.cats.service.ChangeFeedService;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ChangeFeedServiceTest {
+
+    private ChangeFeedService feed;
+
+    @Before
+    public void setUp() {
+        feed = new ChangeFeedService();
+        ReflectionTestUtils.setField(feed, "capacity", 4);
+        feed.init();
+    }
+
+    private void observe(Integer port, Status previous, Status current) {
+        feed.onStateChanged(new RelayStateChangedEvent("1", port, previous, current, Instant.now()));
+    }
+
+    @Test
+    public void changesSinceTest() {
+        Map<String, String> slots = new HashMap<>();
+        slots.put("2", "1:1");
+        slots.put("1", "N/A");
+        feed.onMappingsChanged(new SlotMappingsChangedEvent("rack", 7L, slots, Instant.now()));
+        observe(1, null, Status.ON);
+
+        ChangeFeed all = feed.getChanges(0, null, 100);
+        Assert.assertFalse(all.getResyncRequired());
+        Assert.assertEquals(Long.valueOf(3), all.getSequence());
+        Assert.assertEquals(3, all.getChanges().size());
+        Assert.assertEquals("1", all.getChanges().get(0).getSlot());
+        Assert.assertEquals(ChangeType.STATE, all.getChanges().get(2).getType());
+
+        observe(1, Status.ON, Status.OFF);
+        ChangeFeed delta = feed.getChanges(all.getSequence(), all.getEpoch(), 100);
+        Assert.assertEquals(1, delta.getChanges().size());
+        Assert.assertEquals(Status.OFF, delta.getChanges().get(0).getStatus());
+        Assert.assertEquals(Long.valueOf(4), delta.getChanges().get(0).getSequence());
+
+        ChangeFeed limited = feed.getChanges(0, null, 2);
+        Assert.assertTrue(limited.getMore());
+        Assert.assertEquals(Long.valueOf(2), limited.getSequence());
+    }
+
+    @Test
+    public void resyncRequiredTest() {
+        for (int i = 0; i < 6; i++) {
+            observe(1, null, i % 2 == 0 ? Status.ON : Status.OFF);
+        }
+        // sequences 3-6 are kept, so a client that saw 2 can still catch up but one that saw 1 cannot
+        Assert.assertFalse(feed.getChanges(2, null, 100).getResyncRequired());
+        Assert.assertEquals(4, feed.getChanges(2, null, 100).getChanges().size());
+        ChangeFeed behind = feed.getChanges(1, null, 100);
+        Assert.assertTrue(behind.getResyncRequired());
+        Assert.assertEquals(Long.valueOf(6), behind.getSequence());
+        Assert.assertTrue(feed.getChanges(7, null, 100).getResyncRequired());
+        Assert.assertTrue(feed.getChanges(6, behind.getEpoch() - 1, 100).getResyncRequired());
+    }
+}
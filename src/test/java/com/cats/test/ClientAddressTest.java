@@ -0,0 +1,28 @@
+package com.cats.test;
+
+
+import com.cats.utils.ClientAddress;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ClientAddressTest {
+
+    @Test
+    public void parseLiteralTest() {
+        Assert.assertArrayEquals(new byte[] { 10, 1, 2, (byte) 200 }, ClientAddress.parseLiteral("10.1.2.200"));
+        byte[] v6 = ClientAddress.parseLiteral("fe80::1");
+        Assert.assertEquals(16, v6.length);
+        Assert.assertEquals(1, v6[15]);
+        Assert.assertEquals(16, ClientAddress.parseLiteral("[::1]").length);
+        Assert.assertNull(ClientAddress.parseLiteral("300.1.2.3"));
+        Assert.assertNull(ClientAddress.parseLiteral(null));
+    }
+
+    @Test
+    public void hostNameIsNotLookedUpTest() {
+        Assert.assertNull(ClientAddress.parseLiteral("localhost"));
+        Assert.assertNull(ClientAddress.parseLiteral("abc.example.com"));
+        Assert.assertNull(ClientAddress.parseLiteral("relay-client:8080"));
+        Assert.assertNull(ClientAddress.parseLiteral("1.2.3"));
+    }
+}
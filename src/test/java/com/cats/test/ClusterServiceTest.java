@@ -0,0 +1,236 @@
+package com.cats.test;
+
+
+import com.cats.dto.RelayResponse;
+import com.cats.exceptions.DeviceUnreachableException;
+import com.cats.relay.RelayDeviceConfig;
+import com.cats.relay.Status;
+import com.cats.service.ClusterService;
+import com.cats.service.RelayBuilder;
+import com.cats.service.RelayDeviceManager;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.HttpMethod;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Three cluster instances on loopback ports, each with a stand-in HTTP endpoint answering probes and forwarded
+ * status requests.
+ */
+public class ClusterServiceTest {
+
+    private static final int DEVICES = 60;
+
+    private final List<HttpServer> servers = new ArrayList<>();
+    private final List<ClusterService> instances = new ArrayList<>();
+    private final Map<Integer, String> forwardedBy = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() throws Exception {
+        RelayBuilder builder = new RelayBuilder();
+        ReflectionTestUtils.setField(builder, "readTimeout", 3L);
+        RelayDeviceManager manager = new RelayDeviceManager();
+        ReflectionTestUtils.setField(manager, "relayBuilder", builder);
+        ReflectionTestUtils.setField(manager, "eventPublisher", (ApplicationEventPublisher) event -> { });
+        List<RelayDeviceConfig> configs = new ArrayList<>();
+        for (int i = 1; i <= DEVICES; i++) {
+            RelayDeviceConfig config = new RelayDeviceConfig();
+            config.setDeviceId(String.valueOf(i));
+            config.setHost("10.0.0." + i);
+            config.setPort(80);
+            config.setMaxPort(4);
+            config.setType("XWR4R1");
+            configs.add(config);
+        }
+        manager.apply(configs);
+
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            int index = i;
+            HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/relay/cluster", exchange -> respond(exchange, "{\"enabled\":true}"));
+            server.createContext("/relay/rack/", exchange -> {
+                forwardedBy.put(index, exchange.getRequestHeaders().getFirst(ClusterService.FORWARDED_HEADER));
+                respond(exchange, "{\"status\":\"ON\"}");
+            });
+            server.start();
+            servers.add(server);
+            urls.add("http://127.0.0.1:" + server.getAddress().getPort() + "/relay");
+        }
+        for (String url : urls) {
+            ClusterService instance = new ClusterService();
+            ReflectionTestUtils.setField(instance, "relayDeviceManager", manager);
+            ReflectionTestUtils.setField(instance, "enabled", true);
+            ReflectionTestUtils.setField(instance, "self", url);
+            ReflectionTestUtils.setField(instance, "peers", String.join(",", urls));
+            ReflectionTestUtils.setField(instance, "virtualNodes", 128);
+            ReflectionTestUtils.setField(instance, "failureThreshold", 2);
+            ReflectionTestUtils.setField(instance, "probeTimeoutMs", 1000L);
+            ReflectionTestUtils.setField(instance, "forwardTimeoutMs", 5000L);
+            ReflectionTestUtils.setField(instance, "maxConnections", 4);
+            instance.init();
+            instances.add(instance);
+        }
+    }
+
+    private static void respond(com.sun.net.httpserver.HttpExchange exchange, String json) throws java.io.IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        instances.forEach(ClusterService::shutdown);
+        servers.forEach(server -> server.stop(0));
+    }
+
+    private Map<String, String> owners(ClusterService instance) {
+        Map<String, String> owners = new HashMap<>();
+        for (int i = 1; i <= DEVICES; i++) {
+            owners.put(String.valueOf(i), instance.ownerOf(String.valueOf(i)));
+        }
+        return owners;
+    }
+
+    @Test
+    public void peersAgreeOnOwnershipTest() {
+        Map<String, String> owners = owners(instances.get(0));
+        Assert.assertEquals(owners, owners(instances.get(1)));
+        Assert.assertEquals(owners, owners(instances.get(2)));
+        int owned = 0;
+        for (ClusterService instance : instances) {
+            int local = instance.getLocalDevices().size();
+            Assert.assertTrue("every peer owns some devices", local > 0);
+            owned += local;
+        }
+        Assert.assertEquals(DEVICES, owned);
+    }
+
+    @Test
+    public void forwardToOwnerTest() {
+        ClusterService first = instances.get(0);
+        String self = first.getStatus().getSelf();
+        String deviceId = null;
+        for (int i = 1; i <= DEVICES && deviceId == null; i++) {
+            if (first.ownerOf(String.valueOf(i)).equals(instances.get(1).getStatus().getSelf())) {
+                deviceId = String.valueOf(i);
+            }
+        }
+        Status status = first.route(deviceId, () -> Status.UNKNOWN,
+                owner -> first.forward(owner, HttpMethod.GET, RelayResponse.class, "/{rack}/{slot}/relay/status", "rack", 1).getStatus());
+        Assert.assertEquals(Status.ON, status);
+        Assert.assertEquals(self, forwardedBy.get(1));
+
+        // a forwarded request is served where it lands
+        Assert.assertEquals(Status.OFF, instances.get(1).serve(self, "127.0.0.1", () ->
+                instances.get(1).route("does-not-matter", () -> Status.OFF, owner -> Status.UNKNOWN)));
+    }
+
+    @Test
+    public void forwardedHeaderOnlyTrustedFromPeersTest() {
+        ClusterService second = instances.get(1);
+        String self = instances.get(0).getStatus().getSelf();
+        Assert.assertTrue(second.isForwardedByPeer(self, "127.0.0.1"));
+        Assert.assertFalse(second.isForwardedByPeer(self, "10.1.2.3"));
+        Assert.assertFalse(second.isForwardedByPeer("http://10.1.2.3:9090/relay", "127.0.0.1"));
+        Assert.assertFalse(second.isForwardedByPeer(null, "127.0.0.1"));
+
+        // a client claiming to be a peer is routed like any other request
+        String deviceId = null;
+        for (int i = 1; i <= DEVICES && deviceId == null; i++) {
+            if (!second.isLocal(String.valueOf(i))) {
+                deviceId = String.valueOf(i);
+            }
+        }
+        String target = deviceId;
+        Assert.assertEquals(Status.ON, second.serve(self, "10.1.2.3", () ->
+                second.route(target, () -> Status.OFF, owner -> Status.ON)));
+    }
+
+    @Test
+    public void rebalanceWhenPeerDisappearsTest() {
+        ClusterService first = instances.get(0);
+        String gone = instances.get(2).getStatus().getSelf();
+        Map<String, String> before = owners(first);
+        servers.get(2).stop(0);
+
+        first.heartbeat();
+        Assert.assertEquals(Boolean.TRUE, first.getStatus().getPeers().get(gone));
+        first.heartbeat();
+        Assert.assertEquals(Boolean.FALSE, first.getStatus().getPeers().get(gone));
+
+        Map<String, String> after = owners(first);
+        for (Map.Entry<String, String> entry : before.entrySet()) {
+            if (entry.getValue().equals(gone)) {
+                Assert.assertNotEquals(gone, after.get(entry.getKey()));
+            } else {
+                // only the devices of the missing peer move
+                Assert.assertEquals(entry.getValue(), after.get(entry.getKey()));
+            }
+        }
+    }
+
+    @Test
+    public void routeAroundUnreachablePeerTest() {
+        ClusterService first = instances.get(0);
+        String gone = instances.get(2).getStatus().getSelf();
+        String deviceId = null;
+        for (int i = 1; i <= DEVICES && deviceId == null; i++) {
+            if (first.ownerOf(String.valueOf(i)).equals(gone)) {
+                deviceId = String.valueOf(i);
+            }
+        }
+        servers.get(2).stop(0);
+        String target = deviceId;
+        Status status = first.route(deviceId, () -> Status.OFF,
+                owner -> first.forward(owner, HttpMethod.GET, RelayResponse.class, "/{rack}/{slot}/relay/status", "rack", 1).getStatus());
+        Assert.assertNotEquals(gone, first.ownerOf(target));
+        Assert.assertEquals(first.isLocal(target) ? Status.OFF : Status.ON, status);
+    }
+
+    @Test
+    public void requestCutOffAfterSendingIsNotRetriedTest() throws Exception {
+        // a peer that takes the request and drops the connection without answering
+        HttpServer dropping = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        dropping.createContext("/relay", exchange -> exchange.close());
+        dropping.start();
+        servers.add(dropping);
+        String url = "http://127.0.0.1:" + dropping.getAddress().getPort() + "/relay";
+        ClusterService first = instances.get(0);
+        String deviceId = null;
+        for (int i = 1; i <= DEVICES && deviceId == null; i++) {
+            if (!first.isLocal(String.valueOf(i))) {
+                deviceId = String.valueOf(i);
+            }
+        }
+        AtomicInteger attempts = new AtomicInteger();
+        try {
+            first.route(deviceId, () -> Status.OFF, owner -> {
+                attempts.incrementAndGet();
+                first.forward(url, HttpMethod.POST, Void.class, "/{rack}/{slot}/relay/timed", "rack", 1);
+                return Status.ON;
+            }, false);
+            Assert.fail("expected the request not to be retried");
+        } catch (DeviceUnreachableException e) {
+            Assert.assertEquals(1, attempts.get());
+        }
+    }
+}
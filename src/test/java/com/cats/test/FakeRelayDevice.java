@@ -0,0 +1,169 @@
+package com.cats.test;
+
+
+import com.cats.relay.Relay;
+import com.cats.relay.RelayDevice;
+import com.cats.relay.Status;
+import com.cats.relay.driver.RelayCapability;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-memory relay device for tests. Ports hold their raw state, so an inverted port reads OFF once turned on,
+ * and every call that would reach a real device is logged in {@link #calls}.
+ */
+public class FakeRelayDevice implements RelayDevice {
+
+    final String deviceId;
+    final Status[] raw;
+    final boolean[] inverted;
+    final Set<RelayCapability> capabilities = EnumSet.noneOf(RelayCapability.class);
+    final List<String> calls = new CopyOnWriteArrayList<>();
+    volatile RuntimeException failure;
+    volatile long latencyMs;
+
+    FakeRelayDevice(String deviceId, int maxPort, Integer... invertedPorts) {
+        this.deviceId = deviceId;
+        this.raw = new Status[maxPort];
+        this.inverted = new boolean[maxPort];
+        Arrays.fill(raw, Status.OFF);
+        for (Integer port : invertedPorts) {
+            inverted[port - 1] = true;
+        }
+    }
+
+    @Override
+    public Relay relay(Integer i) {
+        return new FakeRelay(i);
+    }
+
+    @Override
+    public String getHost() {
+        return "127.0.0.1";
+    }
+
+    @Override
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    @Override
+    public Integer getPort() {
+        return 80;
+    }
+
+    @Override
+    public Integer getMaxPort() {
+        return raw.length;
+    }
+
+    @Override
+    public List<Relay> relays() {
+        List<Relay> relays = new ArrayList<>();
+        for (int i = 1; i <= raw.length; i++) {
+            relays.add(relay(i));
+        }
+        return relays;
+    }
+
+    @Override
+    public synchronized List<Status> status() {
+        call("status");
+        return Collections.unmodifiableList(new ArrayList<>(Arrays.asList(raw)));
+    }
+
+    @Override
+    public String getType() {
+        return "FAKE";
+    }
+
+    @Override
+    public Set<RelayCapability> getCapabilities() {
+        return capabilities;
+    }
+
+    @Override
+    public synchronized void setStates(Map<Integer, Status> states) {
+        call("setStates " + states);
+        states.forEach((port, state) -> set(port, state));
+    }
+
+    private void call(String call) {
+        calls.add(call);
+        if (latencyMs > 0) {
+            try {
+                Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted");
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private synchronized void set(Integer port, Status logical) {
+        boolean on = logical == Status.ON;
+        raw[port - 1] = on != inverted[port - 1] ? Status.ON : Status.OFF;
+    }
+
+    private class FakeRelay implements Relay {
+
+        private final Integer port;
+
+        FakeRelay(Integer port) {
+            this.port = port;
+        }
+
+        @Override
+        public void on() {
+            call("on " + port);
+            set(port, Status.ON);
+        }
+
+        @Override
+        public void off() {
+            call("off " + port);
+            set(port, Status.OFF);
+        }
+
+        @Override
+        public void timed(Integer seconds) {
+            call("timed " + port + " " + seconds);
+        }
+
+        @Override
+        public Status status() {
+            return FakeRelayDevice.this.status().get(port - 1);
+        }
+
+        @Override
+        public Status getPortStatus(Node child) {
+            return status();
+        }
+
+        @Override
+        public Integer getPort() {
+            return port;
+        }
+
+        @Override
+        public Boolean isInverted() {
+            return inverted[port - 1];
+        }
+
+        @Override
+        public RelayDevice getDevice() {
+            return FakeRelayDevice.this;
+        }
+    }
+}
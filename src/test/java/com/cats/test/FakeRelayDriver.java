@@ -0,0 +1,34 @@
+package com.cats.test;
+
+
+import com.cats.relay.RelayDevice;
+import com.cats.relay.RelayDeviceConfig;
+import com.cats.relay.driver.RelayCapability;
+import com.cats.relay.driver.RelayDriver;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Driver for {@link FakeRelayDevice}, registered through the test classpath's
+ * META-INF/services the same way a third-party driver jar would be.
+ */
+public class FakeRelayDriver implements RelayDriver {
+
+    public static final String TYPE = "FAKE";
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public Set<RelayCapability> getCapabilities() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public RelayDevice create(RelayDeviceConfig config, Long readTimeout) {
+        return new FakeRelayDevice(config.getDeviceId(), config.getMaxPort());
+    }
+}
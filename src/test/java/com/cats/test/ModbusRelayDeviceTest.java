@@ -0,0 +1,229 @@
+package com.cats.test;
+
+
+import com.cats.exceptions.BadDeviceException;
+import com.cats.exceptions.CapabilityNotSupportedException;
+import com.cats.relay.ModbusRelayDevice;
+import com.cats.relay.Status;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class ModbusRelayDeviceTest {
+
+    private ModbusStandIn standIn;
+    private ModbusRelayDevice device;
+
+    @Before
+    public void setUp() throws IOException {
+        standIn = new ModbusStandIn(4);
+        device = new ModbusRelayDevice("1", "127.0.0.1", standIn.getPort(), 4,
+                Arrays.asList(false, true), "MODBUS", 2L);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        device.close();
+        standIn.close();
+    }
+
+    @Test
+    public void onOffAndStatusTest() {
+        device.relay(1).on();
+        device.relay(2).on();
+        device.relay(3).on();
+        device.relay(3).off();
+        // port 2 is inverted, so turning it on clears its coil
+        Assert.assertEquals(Arrays.asList(true, false, false, false), standIn.coils());
+        Assert.assertEquals(Arrays.asList(Status.ON, Status.OFF, Status.OFF, Status.OFF), device.status());
+        Assert.assertEquals(Status.ON, device.relay(1).status());
+        Assert.assertEquals(1, standIn.connections);
+    }
+
+    @Test
+    public void setStatesPipelinedTest() {
+        Map<Integer, Status> states = new TreeMap<>();
+        states.put(1, Status.ON);
+        states.put(3, Status.ON);
+        states.put(4, Status.ON);
+        // ports 1 and 3-4 are two frames; the stand-in waits for both and answers them in reverse order
+        standIn.answerInBatchesOf = 2;
+        device.setStates(states);
+        standIn.answerInBatchesOf = 1;
+        Assert.assertEquals(Arrays.asList(true, false, true, true), standIn.coils());
+        Assert.assertEquals(Arrays.asList((byte) 0x05, (byte) 0x0F), standIn.functions.subList(0, 2));
+    }
+
+    @Test
+    public void unsupportedCapabilitiesAreRejectedTest() {
+        try {
+            device.relay(1).timed(5);
+            Assert.fail("Modbus device accepted a pulse");
+        } catch (CapabilityNotSupportedException e) {
+            Assert.assertTrue(standIn.functions.isEmpty());
+        }
+        try {
+            device.parseNotification("<datavalues/>");
+            Assert.fail("Modbus device accepted a state notification");
+        } catch (CapabilityNotSupportedException e) {
+            Assert.assertTrue(e.getMessage().contains("1"));
+        }
+    }
+
+    @Test
+    public void portStatusFromNodeTest() throws Exception {
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+        Element node = document.createElement("coil");
+        node.setTextContent("1");
+        Assert.assertEquals(Status.ON, device.relay(1).getPortStatus(node));
+        node.setTextContent("false");
+        Assert.assertEquals(Status.OFF, device.relay(1).getPortStatus(node));
+        node.setTextContent("");
+        Assert.assertEquals(Status.UNKNOWN, device.relay(1).getPortStatus(node));
+    }
+
+    @Test(expected = BadDeviceException.class)
+    public void exceptionResponseTest() throws IOException {
+        ModbusRelayDevice larger = new ModbusRelayDevice("2", "127.0.0.1", standIn.getPort(), 8,
+                Collections.emptyList(), "MODBUS", 2L);
+        try {
+            larger.relay(8).on();
+        } finally {
+            larger.close();
+        }
+    }
+
+    /**
+     * Minimal Modbus/TCP server with one block of coils, answering Read Coils, Write Single Coil and
+     * Write Multiple Coils.
+     */
+    private static class ModbusStandIn {
+        private final ServerSocket server;
+        private final boolean[] coils;
+        final List<Byte> functions = Collections.synchronizedList(new ArrayList<>());
+        volatile int answerInBatchesOf = 1;
+        volatile int connections;
+
+        ModbusStandIn(int coilCount) throws IOException {
+            coils = new boolean[coilCount];
+            server = new ServerSocket(0);
+            Thread acceptor = new Thread(this::accept, "modbus-stand-in");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int getPort() {
+            return server.getLocalPort();
+        }
+
+        synchronized List<Boolean> coils() {
+            List<Boolean> values = new ArrayList<>();
+            for (boolean coil : coils) {
+                values.add(coil);
+            }
+            return values;
+        }
+
+        void close() throws IOException {
+            server.close();
+        }
+
+        private void accept() {
+            try {
+                while (true) {
+                    Socket socket = server.accept();
+                    connections++;
+                    Thread handler = new Thread(() -> serve(socket), "modbus-stand-in-connection");
+                    handler.setDaemon(true);
+                    handler.start();
+                }
+            } catch (IOException e) {
+                // server closed
+            }
+        }
+
+        private void serve(Socket socket) {
+            try (Socket s = socket) {
+                DataInputStream in = new DataInputStream(s.getInputStream());
+                DataOutputStream out = new DataOutputStream(s.getOutputStream());
+                List<byte[]> held = new ArrayList<>();
+                while (true) {
+                    int transaction = in.readUnsignedShort();
+                    in.readUnsignedShort();
+                    int length = in.readUnsignedShort();
+                    int unit = in.readUnsignedByte();
+                    byte[] pdu = new byte[length - 1];
+                    in.readFully(pdu);
+                    functions.add(pdu[0]);
+                    byte[] answer = answer(pdu);
+                    byte[] frame = new byte[7 + answer.length];
+                    frame[0] = (byte) (transaction >> 8);
+                    frame[1] = (byte) transaction;
+                    frame[4] = (byte) ((answer.length + 1) >> 8);
+                    frame[5] = (byte) (answer.length + 1);
+                    frame[6] = (byte) unit;
+                    System.arraycopy(answer, 0, frame, 7, answer.length);
+                    held.add(frame);
+                    if (held.size() >= answerInBatchesOf) {
+                        Collections.reverse(held);
+                        for (byte[] f : held) {
+                            out.write(f);
+                        }
+                        out.flush();
+                        held.clear();
+                    }
+                }
+            } catch (IOException e) {
+                // connection closed
+            }
+        }
+
+        private synchronized byte[] answer(byte[] pdu) {
+            int function = pdu[0];
+            int start = (pdu[1] & 0xFF) << 8 | (pdu[2] & 0xFF);
+            int quantity = function == 0x05 ? 1 : (pdu[3] & 0xFF) << 8 | (pdu[4] & 0xFF);
+            if (function != 0x01 && function != 0x05 && function != 0x0F) {
+                return new byte[] { (byte) (function | 0x80), 0x01 };
+            }
+            if (start + quantity > coils.length) {
+                return new byte[] { (byte) (function | 0x80), 0x02 };
+            }
+            switch (function) {
+                case 0x01:
+                    byte[] read = new byte[2 + (quantity + 7) / 8];
+                    read[0] = 0x01;
+                    read[1] = (byte) ((quantity + 7) / 8);
+                    for (int i = 0; i < quantity; i++) {
+                        if (coils[start + i]) {
+                            read[2 + i / 8] |= (byte) (1 << (i % 8));
+                        }
+                    }
+                    return read;
+                case 0x05:
+                    coils[start] = (pdu[3] & 0xFF) == 0xFF;
+                    return pdu;
+                default:
+                    for (int i = 0; i < quantity; i++) {
+                        coils[start + i] = (pdu[6 + i / 8] >> (i % 8) & 1) == 1;
+                    }
+                    return Arrays.copyOf(pdu, 5);
+            }
+        }
+    }
+}
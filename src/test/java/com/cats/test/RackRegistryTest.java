@@ -0,0 +1,177 @@
+package com.cats.test;
+
+
+import com.cats.config.RelayConfiguration;
+import com.cats.events.RacksChangedEvent;
+import com.cats.exceptions.RackBusyException;
+import com.cats.exceptions.RackNotFoundException;
+import com.cats.exceptions.SlotMappingException;
+import com.cats.relay.RackConfig;
+import com.cats.relay.RelayDeviceConfig;
+import com.cats.service.RackRegistry;
+import com.cats.service.RelayBuilder;
+import com.cats.service.RelayDeviceManager;
+import com.cats.service.SlotMappingService;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class RackRegistryTest {
+
+    private RelayDeviceManager manager;
+    private RelayConfiguration configuration;
+    private RackRegistry registry;
+    private Path dir;
+    private final List<RacksChangedEvent> events = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        RelayBuilder builder = new RelayBuilder();
+        ReflectionTestUtils.setField(builder, "readTimeout", 3L);
+        manager = new RelayDeviceManager();
+        ReflectionTestUtils.setField(manager, "relayBuilder", builder);
+        ReflectionTestUtils.setField(manager, "eventPublisher", (ApplicationEventPublisher) event -> { });
+        configuration = new RelayConfiguration();
+        dir = Files.createTempDirectory("racks");
+
+        registry = new RackRegistry();
+        ReflectionTestUtils.setField(registry, "relayConfiguration", configuration);
+        ReflectionTestUtils.setField(registry, "relayDeviceManager", manager);
+        ReflectionTestUtils.setField(registry, "eventPublisher", (ApplicationEventPublisher) event -> {
+            if (event instanceof RacksChangedEvent) {
+                events.add((RacksChangedEvent) event);
+            }
+        });
+        ReflectionTestUtils.setField(registry, "defaultMappingFile", dir.resolve("mappings.json").toString());
+        ReflectionTestUtils.setField(registry, "defaultBulkConcurrency", 16);
+        ReflectionTestUtils.setField(registry, "defaultJobThreads", 4);
+        ReflectionTestUtils.setField(registry, "defaultJobQueueCapacity", 32);
+        ReflectionTestUtils.setField(registry, "defaultMaxConcurrentCalls", 64);
+    }
+
+    private static RelayDeviceConfig device(String deviceId, String rack) {
+        RelayDeviceConfig config = new RelayDeviceConfig();
+        config.setDeviceId(deviceId);
+        config.setHost("10.0.0." + deviceId);
+        config.setPort(80);
+        config.setMaxPort(4);
+        config.setType("XWR4R1");
+        config.setRack(rack);
+        return config;
+    }
+
+    @Test
+    public void singleRackAnswersAnyNameTest() {
+        manager.apply(Arrays.asList(device("1", null), device("2", null)));
+        registry.init();
+        RackRegistry.Rack rack = registry.resolve("rack");
+        Assert.assertEquals(RackRegistry.DEFAULT_RACK, rack.getName());
+        Assert.assertEquals(dir.resolve("mappings.json").toString(), rack.getMappingFile());
+        Assert.assertEquals(2, registry.getDevices(rack).size());
+    }
+
+    @Test
+    public void racksShardDevicesAndMappingsTest() throws IOException {
+        RackConfig settings = new RackConfig();
+        settings.setName("a");
+        settings.setBulkConcurrency(2);
+        settings.setMaxConcurrentCalls(1);
+        configuration.setRacks(Collections.singletonList(settings));
+        manager.apply(Arrays.asList(device("1", "a"), device("2", "b"), device("3", "a")));
+        registry.init();
+
+        RackRegistry.Rack a = registry.resolve("a");
+        Assert.assertEquals(2, a.getBulkConcurrency());
+        Assert.assertEquals(4, a.getJobThreads());
+        Assert.assertEquals(dir.resolve("mappings-b.json").toString(), registry.resolve("b").getMappingFile());
+        try {
+            registry.resolve("c");
+            Assert.fail("unknown rack resolved");
+        } catch (RackNotFoundException e) {
+            // expected with more than one rack
+        }
+
+        SlotMappingService mappings = new SlotMappingService();
+        ReflectionTestUtils.setField(mappings, "relayDeviceManager", manager);
+        ReflectionTestUtils.setField(mappings, "rackRegistry", registry);
+        ReflectionTestUtils.setField(mappings, "eventPublisher", (ApplicationEventPublisher) event -> { });
+        // default mappings number only the devices of each rack
+        Assert.assertEquals("3:1", mappings.getMapping("a", "5"));
+        Assert.assertEquals("2:4", mappings.getMapping("b", "4"));
+        Assert.assertEquals(Arrays.asList(1, 2, 3, 4), mappings.getMappedSlots("b"));
+        try {
+            mappings.setMapping("b", "1", "1:1", null);
+            Assert.fail("mapping to a device of another rack accepted");
+        } catch (SlotMappingException e) {
+            Assert.assertEquals("2:1", mappings.getMapping("b", "1"));
+        }
+    }
+
+    @Test
+    public void bulkheadTest() {
+        RackConfig settings = new RackConfig();
+        settings.setName(RackRegistry.DEFAULT_RACK);
+        settings.setMaxConcurrentCalls(1);
+        configuration.setRacks(Collections.singletonList(settings));
+        registry.init();
+        RackRegistry.Rack rack = registry.resolve(null);
+        String result = rack.call(() -> {
+            try {
+                rack.call(() -> "inner");
+                Assert.fail("second call admitted past the bulkhead");
+            } catch (RackBusyException e) {
+                // expected while the first call is in flight
+            }
+            return "outer";
+        });
+        Assert.assertEquals("outer", result);
+        Assert.assertEquals("again", rack.call(() -> "again"));
+    }
+
+    @Test
+    public void changedSettingsRebuildRackTest() throws IOException {
+        manager.apply(Arrays.asList(device("1", "a"), device("2", "b")));
+        registry.init();
+        RackRegistry.Rack a = registry.resolve("a");
+        RackRegistry.Rack b = registry.resolve("b");
+        SlotMappingService mappings = new SlotMappingService();
+        ReflectionTestUtils.setField(mappings, "relayDeviceManager", manager);
+        ReflectionTestUtils.setField(mappings, "rackRegistry", registry);
+        ReflectionTestUtils.setField(mappings, "eventPublisher", (ApplicationEventPublisher) event -> { });
+        mappings.setMapping("a", "1", "1:2", null);
+
+        RackConfig settings = new RackConfig();
+        settings.setName("a");
+        settings.setBulkConcurrency(2);
+        settings.setMappingFile(dir.resolve("moved-a.json").toString());
+        configuration.setRacks(Collections.singletonList(settings));
+        registry.refresh();
+
+        Assert.assertNotSame(a, registry.resolve("a"));
+        Assert.assertEquals(2, registry.resolve("a").getBulkConcurrency());
+        Assert.assertSame(b, registry.resolve("b"));
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals(Collections.singletonList("a"), events.get(0).getUpdated());
+        Assert.assertTrue(events.get(0).getRemoved().isEmpty());
+        // the moved mapping file does not exist yet, so rack a starts over from the default mappings
+        mappings.onRacksChanged(events.get(0));
+        Assert.assertEquals("1:1", mappings.getMapping("a", "1"));
+
+        registry.refresh();
+        Assert.assertEquals(1, events.size());
+
+        manager.apply(Collections.singletonList(device("1", "a")));
+        registry.onDevicesChanged(null);
+        Assert.assertEquals(Collections.singletonList("b"), events.get(1).getRemoved());
+    }
+}
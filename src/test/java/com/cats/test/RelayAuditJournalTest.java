@@ -0,0 +1,91 @@
+package com.cats.test;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.dto.AuditEntry;
+import com.cats.dto.AuditSource;
+import com.cats.service.RelayAuditJournal;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.List;
+
+public class RelayAuditJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private RelayAuditJournal open() throws Exception {
+        RelayAuditJournal journal = new RelayAuditJournal();
+        ReflectionTestUtils.setField(journal, "enabled", true);
+        ReflectionTestUtils.setField(journal, "directory", folder.getRoot().getPath());
+        ReflectionTestUtils.setField(journal, "segmentRecords", 4);
+        ReflectionTestUtils.setField(journal, "maxSegments", 2);
+        journal.init();
+        return journal;
+    }
+
+    @Test
+    public void rolloverAndRestartTest() throws Exception {
+        RelayAuditJournal journal = open();
+        for (int port = 1; port <= 10; port++) {
+            journal.recordCorrection("OFF", "1", port, true, 1_500_000L);
+        }
+        journal.shutdown();
+
+        // 10 records at 4 per segment need 3 segments, and only the newest 2 are kept
+        File[] segments = folder.getRoot().listFiles((dir, name) -> name.endsWith(".log"));
+        Assert.assertEquals(2, segments.length);
+
+        journal = open();
+        journal.recordCorrection("ON", "1", 11, false, 0L);
+        List<AuditEntry> entries = journal.query(null, null, null, Instant.EPOCH, Instant.now(), 100);
+        Assert.assertEquals(7, entries.size());
+        AuditEntry newest = entries.get(0);
+        Assert.assertEquals(Integer.valueOf(11), newest.getPort());
+        Assert.assertEquals("ON", newest.getOperation());
+        Assert.assertFalse(newest.getSuccess());
+        Assert.assertEquals(AuditSource.RECONCILER, newest.getSource());
+        Assert.assertEquals(Long.valueOf(1500), entries.get(1).getLatencyMicros());
+
+        Assert.assertEquals(1, journal.query(null, "1", 5, Instant.EPOCH, Instant.now(), 100).size());
+        Assert.assertEquals(0, journal.query(null, "2", null, Instant.EPOCH, Instant.now(), 100).size());
+    }
+
+    @Test
+    public void longDeviceIdTest() throws Exception {
+        RelayAuditJournal journal = open();
+        String longId = "rack-07-power-distribution-unit-b.lab.example.com";
+        journal.recordCorrection("ON", longId, 3, true, 0L);
+        journal.recordCorrection("ON", "rack-07-power-distribution-unit-a.lab.example.com", 3, true, 0L);
+        List<AuditEntry> entries = journal.query(null, longId, null, Instant.EPOCH, Instant.now(), 100);
+        Assert.assertEquals(1, entries.size());
+        Assert.assertEquals(longId, entries.get(0).getDeviceId());
+
+        // too long to store whole, so it is not journaled at all rather than under a cut-off id
+        String tooLong = longId + "/" + longId;
+        journal.recordCorrection("OFF", tooLong, 3, true, 0L);
+        Assert.assertEquals(2, journal.query(null, null, null, Instant.EPOCH, Instant.now(), 100).size());
+    }
+}
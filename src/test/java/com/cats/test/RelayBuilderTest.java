@@ -0,0 +1,72 @@
+package com.cats.test;
+
+
+import com.cats.relay.ModbusRelayDevice;
+import com.cats.relay.RelayDevice;
+import com.cats.relay.WebRelayXWR4R1;
+import com.cats.relay.driver.ModbusRelayDriver;
+import com.cats.relay.driver.RelayCapability;
+import com.cats.relay.driver.WebRelayXWR4R1Driver;
+import com.cats.service.RelayBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+
+public class RelayBuilderTest {
+
+    private RelayBuilder builder;
+
+    @Before
+    public void setUp() {
+        builder = new RelayBuilder();
+        ReflectionTestUtils.setField(builder, "readTimeout", 3L);
+    }
+
+    @Test
+    public void driversAreFoundOnClasspathTest() {
+        Assert.assertTrue(builder.getTypes().containsAll(Arrays.asList(
+                WebRelayXWR4R1Driver.TYPE, ModbusRelayDriver.TYPE, FakeRelayDriver.TYPE)));
+        Assert.assertTrue(builder.get(WebRelayXWR4R1Driver.TYPE, "1", "10.0.0.1", 80, 4) instanceof WebRelayXWR4R1);
+        Assert.assertTrue(builder.get(ModbusRelayDriver.TYPE, "2", "10.0.0.2", 502, 8) instanceof ModbusRelayDevice);
+        // a driver from another jar is picked up the same way
+        RelayDevice fake = builder.get(FakeRelayDriver.TYPE, "3", "10.0.0.3", 80, 2);
+        Assert.assertTrue(fake instanceof FakeRelayDevice);
+        Assert.assertEquals(Integer.valueOf(2), fake.getMaxPort());
+    }
+
+    @Test
+    public void devicesAreBuiltFromConfigTest() {
+        RelayDevice device = builder.get(WebRelayXWR4R1Driver.TYPE, "1", "10.0.0.1", 80, 4, Arrays.asList(false, true));
+        Assert.assertEquals("1", device.getDeviceId());
+        Assert.assertEquals("10.0.0.1", device.getHost());
+        Assert.assertEquals(4, device.relays().size());
+        Assert.assertFalse(device.relay(1).isInverted());
+        Assert.assertTrue(device.relay(2).isInverted());
+    }
+
+    @Test
+    public void capabilitiesByTypeTest() {
+        Assert.assertEquals(WebRelayXWR4R1Driver.CAPABILITIES, builder.getCapabilities(WebRelayXWR4R1Driver.TYPE));
+        Assert.assertTrue(builder.getCapabilities(WebRelayXWR4R1Driver.TYPE).contains(RelayCapability.DEVICE_PULSE));
+        Assert.assertEquals(ModbusRelayDriver.CAPABILITIES, builder.getCapabilities(ModbusRelayDriver.TYPE));
+        Assert.assertFalse(builder.getCapabilities(ModbusRelayDriver.TYPE).contains(RelayCapability.DEVICE_PULSE));
+        Assert.assertTrue(builder.getCapabilities(FakeRelayDriver.TYPE).isEmpty());
+        // a device reports the capabilities of its driver
+        Assert.assertEquals(ModbusRelayDriver.CAPABILITIES,
+                builder.get(ModbusRelayDriver.TYPE, "2", "10.0.0.2", 502, 8).getCapabilities());
+    }
+
+    @Test
+    public void unknownTypeTest() {
+        try {
+            builder.get("XWR9000", "1", "10.0.0.1", 80, 4);
+            Assert.fail("XWR9000 has no driver");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("XWR9000"));
+            Assert.assertTrue(e.getMessage().contains(WebRelayXWR4R1Driver.TYPE));
+        }
+    }
+}
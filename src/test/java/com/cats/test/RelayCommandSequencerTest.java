@@ -0,0 +1,295 @@
+package com.cats.test;
+
+
+import com.cats.dto.RelayResponse;
+import com.cats.events.RelayDevicesChangedEvent;
+import com.cats.relay.Status;
+import com.cats.service.RelayCommandSequencer;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RelayCommandSequencerTest {
+
+    private final RelayCommandSequencer sequencer = new RelayCommandSequencer();
+
+    @Test
+    public void sequenceTest() {
+        RelayResponse first = sequencer.submit("1", 1, () -> Status.ON);
+        RelayResponse second = sequencer.submit("1", 1, () -> Status.OFF);
+        RelayResponse otherPort = sequencer.submit("1", 2, () -> Status.ON);
+        Assert.assertEquals(Long.valueOf(1), first.getSequence());
+        Assert.assertEquals(Long.valueOf(2), second.getSequence());
+        Assert.assertEquals(Long.valueOf(1), otherPort.getSequence());
+        Assert.assertEquals(Status.OFF, second.getStatus());
+        Assert.assertNull(second.getSuperseded());
+    }
+
+    @Test
+    public void submitIfLatestDropsAfterNewerCommandTest() {
+        RelayResponse pulse = sequencer.submit("1", 1, () -> Status.ON);
+        RelayResponse end = sequencer.submitIfLatest("1", 1, pulse.getSequence(), () -> Status.OFF);
+        Assert.assertEquals(Status.OFF, end.getStatus());
+        Assert.assertEquals(Long.valueOf(2), end.getSequence());
+
+        RelayResponse pulseAgain = sequencer.submit("1", 1, () -> Status.ON);
+        sequencer.submit("1", 1, () -> Status.ON);
+        Assert.assertNull(sequencer.submitIfLatest("1", 1, pulseAgain.getSequence(), () -> {
+            throw new AssertionError("ran after a newer command");
+        }));
+    }
+
+    @Test
+    public void queuedCommandsCollapseTest() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        CompletableFuture<RelayResponse> first = CompletableFuture.supplyAsync(() -> sequencer.submit("1", 1, () -> {
+            runs.incrementAndGet();
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Status.ON;
+        }));
+        Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        List<CompletableFuture<RelayResponse>> queued = new ArrayList<>();
+        Status[] targets = { Status.OFF, Status.ON, Status.OFF };
+        for (Status target : targets) {
+            queued.add(CompletableFuture.supplyAsync(() -> sequencer.submit("1", 1, () -> {
+                runs.incrementAndGet();
+                return target;
+            })));
+        }
+        // every queued command holds its sequence number before the first one finishes
+        Thread.sleep(200);
+        release.countDown();
+
+        Assert.assertEquals(Status.ON, first.get(5, TimeUnit.SECONDS).getStatus());
+        Assert.assertNull(first.get().getSuperseded());
+        RelayResponse newest = null;
+        int superseded = 0;
+        for (CompletableFuture<RelayResponse> future : queued) {
+            RelayResponse response = future.get(5, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(response.getSuperseded())) {
+                superseded++;
+            } else {
+                newest = response;
+            }
+        }
+        Assert.assertEquals(2, superseded);
+        Assert.assertEquals(Long.valueOf(4), newest.getSequence());
+        for (CompletableFuture<RelayResponse> future : queued) {
+            // superseded commands report the state the newest one achieved
+            Assert.assertEquals(newest.getStatus(), future.get().getStatus());
+        }
+        Assert.assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void oneCommandAtATimeTest() throws Exception {
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<RelayResponse>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                Status target = i % 2 == 0 ? Status.ON : Status.OFF;
+                results.add(pool.submit(() -> sequencer.submit("1", 1, () -> {
+                    if (inFlight.incrementAndGet() > 1) {
+                        overlaps.incrementAndGet();
+                    }
+                    Thread.yield();
+                    inFlight.decrementAndGet();
+                    return target;
+                })));
+            }
+            for (Future<RelayResponse> result : results) {
+                Assert.assertNotNull(result.get(5, TimeUnit.SECONDS).getStatus());
+            }
+        } finally {
+            pool.shutdown();
+        }
+        Assert.assertEquals(0, overlaps.get());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failureReachesCallerTest() {
+        sequencer.submit("1", 1, () -> {
+            throw new IllegalStateException("device unreachable");
+        });
+    }
+
+    @Test
+    public void failureReachesSupersededCommandsTest() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<RelayResponse> first = CompletableFuture.supplyAsync(() -> sequencer.submit("1", 1, () -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return Status.ON;
+        }));
+        Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<RelayResponse> older = CompletableFuture.supplyAsync(() -> sequencer.submit("1", 1, () -> Status.OFF));
+        Thread.sleep(100);
+        CompletableFuture<RelayResponse> newest = CompletableFuture.supplyAsync(() -> sequencer.submit("1", 1, () -> {
+            throw new IllegalStateException("device unreachable");
+        }));
+        Thread.sleep(100);
+        release.countDown();
+
+        Assert.assertEquals(Status.ON, first.get(5, TimeUnit.SECONDS).getStatus());
+        // the superseded command never ran, so it cannot claim a success the newest one did not achieve
+        for (CompletableFuture<RelayResponse> failed : Arrays.asList(older, newest)) {
+            try {
+                failed.get(5, TimeUnit.SECONDS);
+                Assert.fail("failure not passed on");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        Assert.assertEquals(Status.ON, sequencer.submit("1", 1, () -> Status.ON).getStatus());
+    }
+
+    @Test
+    public void callerOnlyRunsBatchHoldingItsCommandTest() throws Exception {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Map<String, Thread> ranOn = new ConcurrentHashMap<>();
+        Map<String, Thread> callers = new ConcurrentHashMap<>();
+        CompletableFuture<RelayResponse> first = CompletableFuture.supplyAsync(() -> {
+            callers.put("first", Thread.currentThread());
+            return sequencer.submit("1", 1, () -> {
+                ranOn.put("first", Thread.currentThread());
+                running.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return Status.ON;
+            });
+        });
+        Assert.assertTrue(running.await(5, TimeUnit.SECONDS));
+        CompletableFuture<RelayResponse> second = CompletableFuture.supplyAsync(() -> {
+            callers.put("second", Thread.currentThread());
+            return sequencer.submit("1", 1, () -> {
+                ranOn.put("second", Thread.currentThread());
+                return Status.OFF;
+            });
+        });
+        Thread.sleep(100);
+        release.countDown();
+
+        Assert.assertEquals(Status.ON, first.get(5, TimeUnit.SECONDS).getStatus());
+        Assert.assertEquals(Status.OFF, second.get(5, TimeUnit.SECONDS).getStatus());
+        // queued after the first caller took its batch, so its own caller runs it
+        Assert.assertSame(callers.get("first"), ranOn.get("first"));
+        Assert.assertSame(callers.get("second"), ranOn.get("second"));
+    }
+
+    @Test
+    public void callerReturnsWhileQueueKeepsRefillingTest() throws Exception {
+        AtomicInteger running = new AtomicInteger(1);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            for (int i = 0; i < 4; i++) {
+                pool.submit(() -> {
+                    while (running.get() == 1) {
+                        sequencer.submit("1", 1, () -> {
+                            try {
+                                Thread.sleep(5);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            return Status.OFF;
+                        });
+                    }
+                });
+            }
+            Thread.sleep(100);
+            for (int i = 0; i < 20; i++) {
+                long start = System.nanoTime();
+                sequencer.submit("1", 1, () -> Status.ON);
+                // at most the batch in flight and its own batch, each a few milliseconds
+                Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+            }
+        } finally {
+            running.set(0);
+            pool.shutdown();
+            Assert.assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void newestSequenceAlwaysWinsTest() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            for (int round = 0; round < 50; round++) {
+                Integer port = round;
+                Queue<Object> ranOrder = new ConcurrentLinkedQueue<>();
+                Map<Object, Long> sequences = new ConcurrentHashMap<>();
+                List<Future<RelayResponse>> results = new ArrayList<>();
+                for (int i = 0; i < 16; i++) {
+                    results.add(pool.submit(() -> {
+                        Object token = new Object();
+                        RelayResponse response = sequencer.submit("1", port, () -> {
+                            ranOrder.add(token);
+                            return Status.ON;
+                        });
+                        sequences.put(token, response.getSequence());
+                        return response;
+                    }));
+                }
+                long newest = 0;
+                for (Future<RelayResponse> result : results) {
+                    newest = Math.max(newest, result.get(5, TimeUnit.SECONDS).getSequence());
+                }
+                // commands run in sequence order and the newest one always runs
+                long last = 0;
+                for (Object token : ranOrder) {
+                    Assert.assertTrue(sequences.get(token) > last);
+                    last = sequences.get(token);
+                }
+                Assert.assertEquals(newest, last);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void removedDevicesArePrunedTest() {
+        sequencer.submit("1", 1, () -> Status.ON);
+        sequencer.submit("10", 1, () -> Status.ON);
+        sequencer.onDevicesChanged(new RelayDevicesChangedEvent(Collections.emptyList(), Collections.emptyList(),
+                Collections.singletonList("1")));
+        // numbering starts over on the removed device only
+        Assert.assertEquals(Long.valueOf(1), sequencer.submit("1", 1, () -> Status.ON).getSequence());
+        Assert.assertEquals(Long.valueOf(2), sequencer.submit("10", 1, () -> Status.ON).getSequence());
+    }
+}
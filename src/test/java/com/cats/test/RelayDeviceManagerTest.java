@@ -0,0 +1,120 @@
+package com.cats.test;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.events.RelayDevicesChangedEvent;
+import com.cats.exceptions.DeviceNotFoundException;
+import com.cats.relay.RelayDevice;
+import com.cats.relay.RelayDeviceConfig;
+import com.cats.service.RelayBuilder;
+import com.cats.service.RelayDeviceManager;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class RelayDeviceManagerTest {
+
+    private RelayDeviceManager manager;
+    private final List<Object> events = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        RelayBuilder builder = new RelayBuilder();
+        ReflectionTestUtils.setField(builder, "readTimeout", 3L);
+        manager = new RelayDeviceManager();
+        ReflectionTestUtils.setField(manager, "relayBuilder", builder);
+        ReflectionTestUtils.setField(manager, "eventPublisher", (ApplicationEventPublisher) events::add);
+    }
+
+    private static RelayDeviceConfig device(String deviceId, String host) {
+        RelayDeviceConfig config = new RelayDeviceConfig();
+        config.setDeviceId(deviceId);
+        config.setHost(host);
+        config.setPort(80);
+        config.setMaxPort(4);
+        config.setType("XWR4R1");
+        return config;
+    }
+
+    @Test
+    public void applyOnlyRebuildsChangedDevicesTest() {
+        manager.apply(Arrays.asList(device("1", "10.0.0.1"), device("2", "10.0.0.2")));
+        RelayDevice unchanged = manager.getDevice("1");
+
+        RelayDevicesChangedEvent event = manager.apply(Arrays.asList(device("1", "10.0.0.1"), device("2", "10.0.0.20"), device("3", "10.0.0.3")));
+        Assert.assertEquals(Collections.singletonList("3"), event.getAdded());
+        Assert.assertEquals(Collections.singletonList("2"), event.getUpdated());
+        Assert.assertTrue(event.getRemoved().isEmpty());
+        Assert.assertSame(unchanged, manager.getDevice("1"));
+        Assert.assertEquals("10.0.0.20", manager.getDevice("2").getHost());
+
+        event = manager.apply(Collections.singletonList(device("1", "10.0.0.1")));
+        Assert.assertEquals(Arrays.asList("2", "3"), event.getRemoved());
+        Assert.assertEquals(1, manager.getRelayDevices().size());
+        Assert.assertEquals(3, events.size());
+    }
+
+    @Test
+    public void invalidConfigLeavesDevicesUntouchedTest() {
+        manager.apply(Collections.singletonList(device("1", "10.0.0.1")));
+        RelayDeviceConfig invalid = device("2", null);
+        try {
+            manager.apply(Arrays.asList(device("1", "10.0.0.1"), invalid));
+            Assert.fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            Assert.assertEquals(1, manager.getRelayDevices().size());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void registerDuplicateTest() throws Exception {
+        manager.apply(Collections.singletonList(device("1", "10.0.0.1")));
+        manager.register(device("1", "10.0.0.9"));
+    }
+
+    @Test
+    public void idsDifferingInCaseAreDuplicatesTest() throws Exception {
+        try {
+            manager.apply(Arrays.asList(device("Pdu-A", "10.0.0.1"), device("pdu-a", "10.0.0.2")));
+            Assert.fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            Assert.assertTrue(manager.getRelayDevices().isEmpty());
+        }
+        manager.apply(Collections.singletonList(device("Pdu-A", "10.0.0.1")));
+        try {
+            manager.register(device("PDU-A", "10.0.0.2"));
+            Assert.fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            Assert.assertEquals("10.0.0.1", manager.getDevice("pdu-a").getHost());
+        }
+    }
+
+    @Test(expected = DeviceNotFoundException.class)
+    public void deregisterUnknownTest() throws Exception {
+        manager.apply(Collections.singletonList(device("1", "10.0.0.1")));
+        manager.deregister("9");
+    }
+}
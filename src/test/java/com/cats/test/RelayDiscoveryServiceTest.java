@@ -0,0 +1,107 @@
+package com.cats.test;
+
+
+import com.cats.dto.DiscoveryResult;
+import com.cats.relay.RelayDeviceConfig;
+import com.cats.service.RelayBuilder;
+import com.cats.service.RelayDeviceManager;
+import com.cats.service.RelayDiscoveryService;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+
+public class RelayDiscoveryServiceTest {
+
+    private static final String STATE = "<?xml version=\"1.0\" encoding=\"utf-8\"?><datavalues>"
+            + "<relay1state>1</relay1state><relay2state>0</relay2state><relay3state>0</relay3state><relay4state>1</relay4state>"
+            + "<input1state>0</input1state></datavalues>";
+
+    private HttpServer server;
+    private RelayDiscoveryService service;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/stateFull.xml", exchange -> {
+            byte[] body = STATE.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        RelayBuilder builder = new RelayBuilder();
+        ReflectionTestUtils.setField(builder, "readTimeout", 3L);
+        RelayDeviceManager manager = new RelayDeviceManager();
+        ReflectionTestUtils.setField(manager, "relayBuilder", builder);
+        ReflectionTestUtils.setField(manager, "eventPublisher", (ApplicationEventPublisher) event -> { });
+        RelayDeviceConfig config = new RelayDeviceConfig();
+        config.setDeviceId("1");
+        config.setHost("127.0.0.9");
+        config.setPort(80);
+        config.setMaxPort(4);
+        config.setType("XWR4R1");
+        manager.apply(Collections.singletonList(config));
+
+        service = new RelayDiscoveryService();
+        ReflectionTestUtils.setField(service, "relayDeviceManager", manager);
+        ReflectionTestUtils.setField(service, "maxHosts", 1024);
+        ReflectionTestUtils.setField(service, "concurrency", 64);
+        ReflectionTestUtils.setField(service, "connectTimeoutMs", 500L);
+        ReflectionTestUtils.setField(service, "fetchTimeoutMs", 2000L);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void expandRangeTest() {
+        List<InetAddress> block = RelayDiscoveryService.expand("192.168.100.7/24", 1024);
+        Assert.assertEquals(254, block.size());
+        Assert.assertEquals("192.168.100.1", block.get(0).getHostAddress());
+        Assert.assertEquals("192.168.100.254", block.get(253).getHostAddress());
+        Assert.assertEquals(1, RelayDiscoveryService.expand("10.0.0.5/32", 1024).size());
+        Assert.assertEquals(3, RelayDiscoveryService.expand("10.0.0.254-10.0.1.0", 1024).size());
+        Assert.assertEquals(1, RelayDiscoveryService.expand("10.0.0.5", 1024).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rangeTooLargeTest() {
+        RelayDiscoveryService.expand("10.0.0.0/16", 1024);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidRangeTest() {
+        RelayDiscoveryService.expand("10.0.0.300/24", 1024);
+    }
+
+    @Test
+    public void discoverTest() throws Exception {
+        int port = server.getAddress().getPort();
+        DiscoveryResult result = service.discover("127.0.0.1-127.0.0.3", port, false);
+        Assert.assertEquals(Integer.valueOf(3), result.getScanned());
+        Assert.assertEquals(Integer.valueOf(1), result.getResponded());
+        Assert.assertEquals(1, result.getDevices().size());
+        RelayDeviceConfig found = result.getDevices().get(0);
+        Assert.assertEquals("2", found.getDeviceId());
+        Assert.assertEquals("127.0.0.1", found.getHost());
+        Assert.assertEquals(Integer.valueOf(port), found.getPort());
+        Assert.assertEquals(Integer.valueOf(4), found.getMaxPort());
+        Assert.assertEquals("XWR4R1", found.getType());
+        Assert.assertFalse(result.getRegistered());
+    }
+}
@@ -0,0 +1,105 @@
+package com.cats.test;
+
+
+import com.cats.dto.LatencyBucket;
+import com.cats.dto.LatencySummary;
+import com.cats.dto.StateTransition;
+import com.cats.events.RelayDevicesChangedEvent;
+import com.cats.events.RelayStateChangedEvent;
+import com.cats.relay.Status;
+import com.cats.service.RelayHistoryService;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+
+public class RelayHistoryServiceTest {
+
+    private RelayHistoryService history;
+
+    @Before
+    public void setUp() {
+        history = new RelayHistoryService();
+        ReflectionTestUtils.setField(history, "transitionsPerPort", 4);
+        ReflectionTestUtils.setField(history, "latencySamplesPerDevice", 4);
+    }
+
+    private void transition(long time, Status status) {
+        history.onStateChanged(new RelayStateChangedEvent("1", 1, null, status, Instant.ofEpochMilli(time)));
+    }
+
+    @Test
+    public void transitionsWrapAroundTest() {
+        for (int i = 1; i <= 6; i++) {
+            transition(i * 1000L, i % 2 == 0 ? Status.ON : Status.OFF);
+        }
+        // the two oldest were overwritten, the rest come back oldest first
+        List<StateTransition> all = history.getTransitions("1", 1, Instant.EPOCH, Instant.ofEpochMilli(10000));
+        Assert.assertEquals(4, all.size());
+        Assert.assertEquals(Instant.ofEpochMilli(3000), all.get(0).getTimestamp());
+        Assert.assertEquals(Status.OFF, all.get(0).getStatus());
+        Assert.assertEquals(Instant.ofEpochMilli(6000), all.get(3).getTimestamp());
+        Assert.assertEquals(Status.ON, all.get(3).getStatus());
+
+        List<StateTransition> range = history.getTransitions("1", 1, Instant.ofEpochMilli(4000), Instant.ofEpochMilli(5000));
+        Assert.assertEquals(2, range.size());
+        Assert.assertTrue(history.getTransitions("1", 2, Instant.EPOCH, Instant.ofEpochMilli(10000)).isEmpty());
+    }
+
+    @Test
+    public void latencyWrapsAroundTest() {
+        for (int i = 1; i <= 6; i++) {
+            history.recordLatency("1", i * 1000_000L);
+        }
+        LatencySummary summary = history.getLatency("1", Instant.now().minusSeconds(60), Instant.now(), 0);
+        Assert.assertEquals(Integer.valueOf(4), summary.getCount());
+        Assert.assertEquals(Long.valueOf(3000), summary.getMinMicros());
+        Assert.assertEquals(Long.valueOf(6000), summary.getMaxMicros());
+        Assert.assertEquals(Long.valueOf(4500), summary.getAvgMicros());
+        Assert.assertEquals(Long.valueOf(4000), summary.getP50Micros());
+        Assert.assertEquals(Long.valueOf(6000), summary.getP99Micros());
+        Assert.assertNull(summary.getBuckets());
+    }
+
+    @Test
+    public void latencyDownsamplingTest() throws Exception {
+        history.recordLatency("1", 100_000L);
+        Thread.sleep(5);
+        long now = System.currentTimeMillis();
+        history.recordLatency("1", 200_000L);
+        history.recordLatency("1", 400_000L);
+
+        // two buckets of 2 seconds, split at now
+        LatencySummary summary = history.getLatency("1", Instant.ofEpochMilli(now - 2000), Instant.ofEpochMilli(now + 1999), 2);
+        Assert.assertEquals(Integer.valueOf(3), summary.getCount());
+        List<LatencyBucket> buckets = summary.getBuckets();
+        Assert.assertEquals(2, buckets.size());
+        Assert.assertEquals(Instant.ofEpochMilli(now - 2000), buckets.get(0).getStart());
+        Assert.assertEquals(Integer.valueOf(1), buckets.get(0).getCount());
+        Assert.assertEquals(Long.valueOf(100), buckets.get(0).getAvgMicros());
+        Assert.assertEquals(Instant.ofEpochMilli(now), buckets.get(1).getStart());
+        Assert.assertEquals(Integer.valueOf(2), buckets.get(1).getCount());
+        Assert.assertEquals(Long.valueOf(200), buckets.get(1).getMinMicros());
+        Assert.assertEquals(Long.valueOf(400), buckets.get(1).getMaxMicros());
+        Assert.assertEquals(Long.valueOf(300), buckets.get(1).getAvgMicros());
+
+        // an empty bucket has a count and nothing else
+        LatencySummary sparse = history.getLatency("1", Instant.ofEpochMilli(now - 10000), Instant.ofEpochMilli(now + 9999), 4);
+        Assert.assertEquals(Integer.valueOf(0), sparse.getBuckets().get(0).getCount());
+        Assert.assertNull(sparse.getBuckets().get(0).getAvgMicros());
+    }
+
+    @Test
+    public void removedDeviceIsForgottenTest() {
+        transition(1000L, Status.ON);
+        history.recordLatency("1", 1000_000L);
+        history.onDevicesChanged(new RelayDevicesChangedEvent(Collections.emptyList(), Collections.emptyList(),
+                Collections.singletonList("1")));
+        Assert.assertTrue(history.getTransitions("1", 1, Instant.EPOCH, Instant.now()).isEmpty());
+        Assert.assertEquals(Integer.valueOf(0), history.getLatency("1", Instant.EPOCH, Instant.now(), 0).getCount());
+    }
+}
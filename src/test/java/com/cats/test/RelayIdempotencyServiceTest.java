@@ -0,0 +1,133 @@
+package com.cats.test;
+
+
+import com.cats.service.RelayIdempotencyService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RelayIdempotencyServiceTest {
+
+    private RelayIdempotencyService service;
+    private SimpleMeterRegistry meterRegistry;
+    private final AtomicInteger runs = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        service = new RelayIdempotencyService();
+        meterRegistry = new SimpleMeterRegistry();
+        ReflectionTestUtils.setField(service, "windowMs", 60000L);
+        ReflectionTestUtils.setField(service, "meterRegistry", meterRegistry);
+    }
+
+    private double saved() {
+        return meterRegistry.counter("relay.device.calls.saved", "reason", "idempotency-key").count();
+    }
+
+    @Test
+    public void retryIsDeduplicatedTest() {
+        Assert.assertEquals("ON1", service.execute("a", "ON rack/1", 2, () -> "ON" + runs.incrementAndGet()));
+        Assert.assertEquals("ON1", service.execute("a", "ON rack/1", 2, () -> "ON" + runs.incrementAndGet()));
+        Assert.assertEquals(1, runs.get());
+        Assert.assertEquals(2.0, saved(), 0.0);
+
+        // no key, no deduplication
+        service.execute(null, "ON rack/1", 2, runs::incrementAndGet);
+        service.execute(null, "ON rack/1", 2, runs::incrementAndGet);
+        Assert.assertEquals(3, runs.get());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void keyReusedForOtherCommandTest() {
+        service.execute("a", "ON rack/1", 2, () -> "ON");
+        service.execute("a", "OFF rack/1", 2, () -> "OFF");
+    }
+
+    @Test
+    public void failedCommandIsRetriedTest() {
+        try {
+            service.execute("a", "ON rack/1", 2, () -> {
+                throw new IllegalStateException("device unreachable");
+            });
+            Assert.fail("failure was swallowed");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("device unreachable", e.getMessage());
+        }
+        Assert.assertEquals("ON", service.execute("a", "ON rack/1", 2, () -> "ON"));
+    }
+
+    @Test
+    public void concurrentRetryWaitsForFirstTest() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Integer> first = CompletableFuture.supplyAsync(() -> service.execute("a", "ON rack/1", 2, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return runs.incrementAndGet();
+        }));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Integer> retry = CompletableFuture.supplyAsync(() -> service.execute("a", "ON rack/1", 2, runs::incrementAndGet));
+        Thread.sleep(50);
+        Assert.assertFalse(retry.isDone());
+        release.countDown();
+        Assert.assertEquals(Integer.valueOf(1), first.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Integer.valueOf(1), retry.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void errorIsForgottenTest() {
+        try {
+            service.execute("a", "ON rack/1", 2, () -> {
+                throw new StackOverflowError();
+            });
+            Assert.fail("error was swallowed");
+        } catch (StackOverflowError expected) {
+            // the retry must run the command again rather than wait on the failed attempt
+        }
+        Assert.assertEquals("ON", service.execute("a", "ON rack/1", 2, () -> "ON"));
+    }
+
+    @Test
+    public void runningAttemptIsNeverPurgedTest() throws Exception {
+        ReflectionTestUtils.setField(service, "windowMs", 200L);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Integer> first = CompletableFuture.supplyAsync(() -> service.execute("a", "ON rack/1", 2, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return runs.incrementAndGet();
+        }));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        // running for longer than the window
+        Thread.sleep(300);
+        service.purge();
+        CompletableFuture<Integer> retry = CompletableFuture.supplyAsync(() -> service.execute("a", "ON rack/1", 2, runs::incrementAndGet));
+        Thread.sleep(50);
+        Assert.assertFalse(retry.isDone());
+        release.countDown();
+        Assert.assertEquals(Integer.valueOf(1), retry.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Integer.valueOf(1), first.get(5, TimeUnit.SECONDS));
+
+        // the window counts from completion
+        Assert.assertEquals(Integer.valueOf(1), service.execute("a", "ON rack/1", 2, runs::incrementAndGet));
+        Thread.sleep(300);
+        service.purge();
+        Assert.assertEquals(Integer.valueOf(2), service.execute("a", "ON rack/1", 2, runs::incrementAndGet));
+    }
+}
@@ -0,0 +1,138 @@
+package com.cats.test;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.RelayMsApplication;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+
+@RunWith(SpringRunner.class)
+@SpringBootTest(
+        webEnvironment = SpringBootTest.WebEnvironment.MOCK,
+        classes = RelayMsApplication.class)
+@AutoConfigureMockMvc
+@ActiveProfiles(profiles = "integrationtest")
+public class RelayJobResourceTest {
+
+    private static final String ON_RESPONSE = "<?xml version='1.0' encoding='utf-8'?><datavalues><relay1state>1</relay1state><relay2state>1</relay2state><relay3state>1</relay3state><relay4state>1</relay4state></datavalues>";
+    private static final String OFF_RESPONSE = "<?xml version='1.0' encoding='utf-8'?><datavalues><relay1state>0</relay1state><relay2state>0</relay2state><relay3state>0</relay3state><relay4state>0</relay4state></datavalues>";
+
+    @Autowired
+    private MockMvc mvc;
+
+    public static MockWebServer relayMock1;
+    public static MockWebServer relayMock2;
+
+    ObjectMapper objectMapper = new ObjectMapper();
+
+    @Before
+    public void setUp() throws IOException {
+        relayMock1 = new MockWebServer();
+        relayMock1.start(13180);
+        relayMock2 = new MockWebServer();
+        relayMock2.start(13181);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        relayMock1.shutdown();
+        relayMock2.shutdown();
+    }
+
+    @Test
+    public void submitJobTest() throws Exception {
+        // slots 1 and 2 are on device 1, slot 5 on device 2
+        relayMock1.enqueue(new MockResponse().setBody(ON_RESPONSE).addHeader("Content-Type", "text/xml"));
+        relayMock1.enqueue(new MockResponse().setBody(ON_RESPONSE).addHeader("Content-Type", "text/xml"));
+        relayMock2.enqueue(new MockResponse().setBody(OFF_RESPONSE).addHeader("Content-Type", "text/xml"));
+
+        String body = mvc.perform(post("/jobs/rack/relay/status").queryParam("slots", "1,2,5"))
+                .andExpect(status().isAccepted())
+                .andExpect(content()
+                        .contentTypeCompatibleWith(MediaType.APPLICATION_JSON))
+                .andExpect(jsonPath("operation", is("STATUS")))
+                .andExpect(jsonPath("totalSlots", is(3)))
+                .andReturn().getResponse().getContentAsString();
+        String jobId = objectMapper.readTree(body).get("jobId").asText();
+
+        JsonNode job = null;
+        for (int i = 0; i < 50; i++) {
+            String poll = mvc.perform(get("/jobs/" + jobId))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString();
+            job = objectMapper.readTree(poll);
+            if ("COMPLETED".equals(job.get("state").asText())) {
+                break;
+            }
+            Thread.sleep(200);
+        }
+        Assert.assertEquals("COMPLETED", job.get("state").asText());
+        Assert.assertEquals(3, job.get("completedSlots").asInt());
+        Assert.assertEquals(0, job.get("failedSlots").asInt());
+
+        String results = mvc.perform(get("/jobs/" + jobId + "/results"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        // results arrive in completion order
+        Map<Integer, JsonNode> bySlot = new HashMap<>();
+        objectMapper.readTree(results).forEach(result -> bySlot.put(result.get("slot").asInt(), result));
+        Assert.assertEquals(3, bySlot.size());
+        Assert.assertEquals("ON", bySlot.get(1).get("status").asText());
+        Assert.assertEquals("ON", bySlot.get(2).get("status").asText());
+        Assert.assertEquals("OFF", bySlot.get(5).get("status").asText());
+        Assert.assertTrue(bySlot.get(5).get("success").asBoolean());
+        Assert.assertEquals(2, relayMock1.getRequestCount());
+        Assert.assertEquals(1, relayMock2.getRequestCount());
+    }
+
+    @Test
+    public void unknownJobTest() throws Exception {
+        mvc.perform(get("/jobs/does-not-exist"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    public void invalidOperationTest() throws Exception {
+        mvc.perform(post("/jobs/rack/relay/explode"))
+                .andExpect(status().isBadRequest());
+    }
+}
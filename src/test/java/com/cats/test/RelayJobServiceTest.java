@@ -0,0 +1,93 @@
+package com.cats.test;
+
+
+import com.cats.config.RelayConfiguration;
+import com.cats.dto.JobState;
+import com.cats.dto.RelayJobStatus;
+import com.cats.dto.SlotResult;
+import com.cats.relay.RelayOperation;
+import com.cats.service.RackRegistry;
+import com.cats.service.RelayBuilder;
+import com.cats.service.RelayBulkService;
+import com.cats.service.RelayDeviceManager;
+import com.cats.service.RelayJobService;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class RelayJobServiceTest {
+
+    private RelayJobService jobService;
+
+    @Before
+    public void setUp() throws Exception {
+        RelayDeviceManager manager = new RelayDeviceManager();
+        ReflectionTestUtils.setField(manager, "relayBuilder", new RelayBuilder());
+        ReflectionTestUtils.setField(manager, "eventPublisher", (ApplicationEventPublisher) event -> { });
+        RackRegistry registry = new RackRegistry();
+        ReflectionTestUtils.setField(registry, "relayConfiguration", new RelayConfiguration());
+        ReflectionTestUtils.setField(registry, "relayDeviceManager", manager);
+        ReflectionTestUtils.setField(registry, "defaultMappingFile",
+                Files.createTempDirectory("racks").resolve("mappings.json").toString());
+        ReflectionTestUtils.setField(registry, "defaultBulkConcurrency", 16);
+        ReflectionTestUtils.setField(registry, "defaultJobThreads", 1);
+        ReflectionTestUtils.setField(registry, "defaultJobQueueCapacity", 1);
+        ReflectionTestUtils.setField(registry, "defaultMaxConcurrentCalls", 64);
+        registry.init();
+
+        RelayBulkService bulkService = new RelayBulkService() {
+            @Override
+            public Flux<SlotResult> execute(String rack, RelayOperation operation, List<Integer> slots, Integer cycleDelay) {
+                return Flux.fromIterable(slots).map(slot -> {
+                    SlotResult result = new SlotResult();
+                    result.setSlot(slot);
+                    result.setSuccess(true);
+                    return result;
+                });
+            }
+        };
+        jobService = new RelayJobService();
+        ReflectionTestUtils.setField(jobService, "jobRetentionCount", 100);
+        ReflectionTestUtils.setField(jobService, "jobRetentionMinutes", 60L);
+        ReflectionTestUtils.setField(jobService, "relayBulkService", bulkService);
+        ReflectionTestUtils.setField(jobService, "rackRegistry", registry);
+    }
+
+    @After
+    public void tearDown() {
+        jobService.shutdown();
+    }
+
+    @Test
+    public void retiredExecutorHandsJobToCurrentOneTest() throws Exception {
+        // the executor a rack change retired right after this submit looked it up
+        ThreadPoolExecutor retired = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1));
+        retired.shutdown();
+        Map<String, ThreadPoolExecutor> executors = new ConcurrentHashMap<>();
+        executors.put(RackRegistry.DEFAULT_RACK, retired);
+        ReflectionTestUtils.setField(jobService, "executors", executors);
+
+        RelayJobStatus submitted = jobService.submit("rack", RelayOperation.ON, Arrays.asList(1, 2), 0);
+        Assert.assertNotSame(retired, executors.get(RackRegistry.DEFAULT_RACK));
+        JobState state = submitted.getState();
+        for (int i = 0; i < 100 && state != JobState.COMPLETED; i++) {
+            Thread.sleep(20);
+            state = jobService.getStatus(submitted.getJobId()).getState();
+        }
+        Assert.assertEquals(JobState.COMPLETED, state);
+        Assert.assertEquals(Integer.valueOf(2), jobService.getStatus(submitted.getJobId()).getCompletedSlots());
+    }
+}
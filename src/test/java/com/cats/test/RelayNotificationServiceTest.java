@@ -0,0 +1,83 @@
+package com.cats.test;
+
+
+import com.cats.exceptions.NotificationRejectedException;
+import com.cats.relay.RelayDeviceConfig;
+import com.cats.relay.Status;
+import com.cats.service.RelayBuilder;
+import com.cats.service.RelayDeviceManager;
+import com.cats.service.RelayNotificationService;
+import com.cats.service.RelayStateStore;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class RelayNotificationServiceTest {
+
+    private static final String STATE = "<?xml version=\"1.0\" encoding=\"utf-8\"?><datavalues>"
+            + "<relay1state>1</relay1state><relay2state>0</relay2state><relay3state>0</relay3state><relay4state>1</relay4state>"
+            + "</datavalues>";
+
+    private RelayNotificationService service;
+    private RelayStateStore store;
+    private final List<Object> events = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        RelayBuilder builder = new RelayBuilder();
+        ReflectionTestUtils.setField(builder, "readTimeout", 3L);
+        RelayDeviceManager manager = new RelayDeviceManager();
+        ReflectionTestUtils.setField(manager, "relayBuilder", builder);
+        ReflectionTestUtils.setField(manager, "eventPublisher", (ApplicationEventPublisher) event -> { });
+        RelayDeviceConfig config = new RelayDeviceConfig();
+        config.setDeviceId("1");
+        config.setHost("127.0.0.1");
+        config.setPort(80);
+        config.setMaxPort(4);
+        config.setType("XWR4R1");
+        manager.apply(Collections.singletonList(config));
+
+        store = new RelayStateStore();
+        ReflectionTestUtils.setField(store, "eventPublisher", (ApplicationEventPublisher) events::add);
+        service = new RelayNotificationService();
+        ReflectionTestUtils.setField(service, "relayDeviceManager", manager);
+        ReflectionTestUtils.setField(service, "relayStateStore", store);
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "token", "");
+        ReflectionTestUtils.setField(service, "staleMs", 60000L);
+    }
+
+    @Test
+    public void acceptNotificationTest() {
+        Assert.assertFalse(service.isPushing("1"));
+        List<Status> statuses = service.accept("1", "127.0.0.1", null, STATE);
+        Assert.assertEquals(Arrays.asList(Status.ON, Status.OFF, Status.OFF, Status.ON), statuses);
+        Assert.assertEquals(Status.ON, store.getPortState("1", 4).getObserved());
+        Assert.assertEquals(4, events.size());
+        Assert.assertTrue(service.isPushing("1"));
+    }
+
+    @Test(expected = NotificationRejectedException.class)
+    public void rejectOtherSourceTest() {
+        service.accept("1", "10.1.2.3", null, STATE);
+    }
+
+    @Test
+    public void tokenTest() {
+        ReflectionTestUtils.setField(service, "token", "secret");
+        try {
+            service.accept("1", "127.0.0.1", "wrong", STATE);
+            Assert.fail("notification with the wrong token accepted");
+        } catch (NotificationRejectedException e) {
+            Assert.assertNull(store.getPortState("1", 1));
+        }
+        Assert.assertEquals(Status.ON, service.accept("1", "127.0.0.1", "secret", STATE).get(0));
+    }
+}
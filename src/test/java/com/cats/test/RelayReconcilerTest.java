@@ -0,0 +1,152 @@
+package com.cats.test;
+
+
+import com.cats.beans.DriftEvent;
+import com.cats.beans.ReconcileReport;
+import com.cats.relay.RelayDevice;
+import com.cats.relay.Status;
+import com.cats.service.ClusterService;
+import com.cats.service.RelayAuditJournal;
+import com.cats.service.RelayHistoryService;
+import com.cats.service.RelayNotificationService;
+import com.cats.service.RelayReconciler;
+import com.cats.service.RelayService;
+import com.cats.service.RelayStateStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class RelayReconcilerTest {
+
+    private FakeRelayDevice device;
+    private RelayStateStore store;
+    private RelayReconciler reconciler;
+
+    @Before
+    public void setUp() {
+        // port 2 is wired inverted
+        device = new FakeRelayDevice("1", 4, 2);
+        store = new RelayStateStore();
+        ReflectionTestUtils.setField(store, "eventPublisher", (ApplicationEventPublisher) event -> { });
+        RelayHistoryService history = new RelayHistoryService();
+        ReflectionTestUtils.setField(history, "transitionsPerPort", 16);
+        ReflectionTestUtils.setField(history, "latencySamplesPerDevice", 16);
+        RelayService relayService = new RelayService();
+        ReflectionTestUtils.setField(relayService, "relayStateStore", store);
+        ReflectionTestUtils.setField(relayService, "relayHistoryService", history);
+        ClusterService clusterService = new ClusterService() {
+            @Override
+            public List<RelayDevice> getLocalDevices() {
+                return Collections.singletonList(device);
+            }
+        };
+
+        reconciler = new RelayReconciler();
+        ReflectionTestUtils.setField(reconciler, "driftHistory", 100);
+        ReflectionTestUtils.setField(reconciler, "concurrency", 8);
+        ReflectionTestUtils.setField(reconciler, "clusterService", clusterService);
+        ReflectionTestUtils.setField(reconciler, "relayService", relayService);
+        ReflectionTestUtils.setField(reconciler, "relayStateStore", store);
+        ReflectionTestUtils.setField(reconciler, "relayAuditJournal", new RelayAuditJournal());
+        ReflectionTestUtils.setField(reconciler, "relayNotificationService", new RelayNotificationService());
+        ReflectionTestUtils.setField(reconciler, "meterRegistry", new SimpleMeterRegistry());
+    }
+
+    @Test
+    public void noDriftTest() {
+        device.relay(1).on();
+        store.recordDesired("1", 1, Status.ON);
+        device.calls.clear();
+        reconciler.reconcile();
+        Assert.assertEquals(Collections.singletonList("status"), device.calls);
+        ReconcileReport report = reconciler.getReport();
+        Assert.assertEquals(1L, (long) report.getRuns());
+        Assert.assertEquals(0L, (long) report.getDriftDetected());
+        Assert.assertEquals(Status.ON, store.getPortState("1", 1).getObserved());
+    }
+
+    @Test
+    public void driftIsCorrectedTest() {
+        // the device came back from a reset with port 1 off
+        store.recordDesired("1", 1, Status.ON);
+        store.recordDesired("1", 3, Status.OFF);
+        reconciler.reconcile();
+        Assert.assertTrue(device.calls.contains("setStates {1=ON}"));
+        Assert.assertEquals(Status.ON, device.relay(1).status());
+        ReconcileReport report = reconciler.getReport();
+        Assert.assertEquals(1L, (long) report.getDriftDetected());
+        Assert.assertEquals(1L, (long) report.getCorrections());
+        DriftEvent event = report.getRecentDrift().get(0);
+        Assert.assertEquals(Integer.valueOf(1), event.getPort());
+        Assert.assertEquals(Status.ON, event.getDesired());
+        Assert.assertEquals(Status.OFF, event.getObserved());
+        Assert.assertTrue(event.getCorrected());
+    }
+
+    @Test
+    public void invertedPortComparedAsCommandedTest() {
+        // an inverted port reads OFF while it is on, which is not drift
+        device.relay(2).on();
+        store.recordDesired("1", 2, Status.ON);
+        device.calls.clear();
+        reconciler.reconcile();
+        Assert.assertEquals(0L, (long) reconciler.getReport().getDriftDetected());
+
+        // and reads ON once it has fallen back to off
+        device.relay(2).off();
+        device.calls.clear();
+        reconciler.reconcile();
+        Assert.assertTrue(device.calls.contains("setStates {2=ON}"));
+        Assert.assertEquals(Status.OFF, device.relay(2).status());
+        DriftEvent event = reconciler.getReport().getRecentDrift().get(0);
+        Assert.assertEquals(Status.OFF, event.getObserved());
+    }
+
+    @Test
+    public void noDesiredStateIsLeftAloneTest() {
+        device.relay(1).on();
+        // a timed pulse clears the desired state of its port
+        store.recordDesired("1", 1, Status.OFF);
+        store.recordDesired("1", 1, null);
+        device.calls.clear();
+        reconciler.reconcile();
+        Assert.assertEquals(Collections.singletonList("status"), device.calls);
+        Assert.assertEquals(0L, (long) reconciler.getReport().getDriftDetected());
+    }
+
+    @Test
+    public void failedCorrectionIsReportedTest() {
+        device = new FakeRelayDevice("1", 4) {
+            @Override
+            public void setStates(Map<Integer, Status> states) {
+                throw new IllegalStateException("device unreachable");
+            }
+        };
+        store.recordDesired("1", 1, Status.ON);
+        reconciler.reconcile();
+        ReconcileReport report = reconciler.getReport();
+        Assert.assertEquals(1L, (long) report.getDriftDetected());
+        Assert.assertEquals(0L, (long) report.getCorrections());
+        Assert.assertEquals(1L, (long) report.getErrors());
+        Assert.assertFalse(report.getRecentDrift().get(0).getCorrected());
+    }
+
+    @Test
+    public void scheduledRunCompletesInBackgroundTest() throws Exception {
+        ReflectionTestUtils.setField(reconciler, "enabled", true);
+        store.recordDesired("1", 1, Status.ON);
+        reconciler.scheduledReconcile();
+        for (int i = 0; i < 100 && reconciler.getReport().getRuns() == 0L; i++) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(1L, (long) reconciler.getReport().getRuns());
+        Assert.assertEquals(Status.ON, device.relay(1).status());
+    }
+}
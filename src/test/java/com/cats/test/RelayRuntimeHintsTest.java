@@ -0,0 +1,45 @@
+package com.cats.test;
+
+/*
+ * Copyright 2021 Comcast Cable Communications Management, LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+import com.cats.config.RelayRuntimeHints;
+import com.cats.config.YamlPropertySourceFactory;
+import com.cats.dto.SlotResult;
+import com.cats.utils.SlotToPortMappings;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+
+public class RelayRuntimeHintsTest {
+
+    @Test
+    public void hintsTest() {
+        RuntimeHints hints = new RuntimeHints();
+        new RelayRuntimeHints().registerHints(hints, getClass().getClassLoader());
+
+        Assert.assertTrue(RuntimeHintsPredicates.reflection().onType(SlotToPortMappings.class)
+                .withMemberCategory(MemberCategory.INVOKE_DECLARED_CONSTRUCTORS).test(hints));
+        Assert.assertTrue(RuntimeHintsPredicates.reflection().onMethod(SlotResult.class, "setSlot").test(hints));
+        Assert.assertTrue(RuntimeHintsPredicates.reflection().onType(YamlPropertySourceFactory.class)
+                .withMemberCategory(MemberCategory.INVOKE_DECLARED_CONSTRUCTORS).test(hints));
+        Assert.assertTrue(RuntimeHintsPredicates.resource().forResource("config-test.yml").test(hints));
+    }
+}
@@ -0,0 +1,232 @@
+package com.cats.test;
+
+
+import com.cats.config.RelayConfiguration;
+import com.cats.dto.RelayResponse;
+import com.cats.dto.SlotResult;
+import com.cats.relay.Relay;
+import com.cats.relay.RelayOperation;
+import com.cats.relay.Status;
+import com.cats.relay.driver.RelayCapability;
+import com.cats.service.ClusterService;
+import com.cats.service.RackRegistry;
+import com.cats.service.RelayAuditJournal;
+import com.cats.service.RelayBuilder;
+import com.cats.service.RelayBulkService;
+import com.cats.service.RelayCommandSequencer;
+import com.cats.service.RelayDeviceManager;
+import com.cats.service.RelayHistoryService;
+import com.cats.service.RelayService;
+import com.cats.service.RelayStateStore;
+import com.cats.service.SlotMappingService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class RelayServiceTest {
+
+    private FakeRelayDevice device;
+    private RelayStateStore store;
+    private SimpleMeterRegistry meterRegistry;
+    private RelayService relayService;
+    private RelayBulkService bulkService;
+    private final Map<Integer, Integer> mapped = new ConcurrentHashMap<>();
+    private final Map<Integer, Integer> remapAfterLookup = new ConcurrentHashMap<>();
+
+    @Before
+    public void setUp() throws Exception {
+        // port 2 is wired inverted
+        device = new FakeRelayDevice("1", 4, 2);
+        store = new RelayStateStore();
+        ReflectionTestUtils.setField(store, "eventPublisher", (ApplicationEventPublisher) event -> { });
+        meterRegistry = new SimpleMeterRegistry();
+
+        RelayDeviceManager manager = new RelayDeviceManager();
+        ReflectionTestUtils.setField(manager, "relayBuilder", new RelayBuilder());
+        ReflectionTestUtils.setField(manager, "eventPublisher", (ApplicationEventPublisher) event -> { });
+        RackRegistry registry = new RackRegistry();
+        ReflectionTestUtils.setField(registry, "relayConfiguration", new RelayConfiguration());
+        ReflectionTestUtils.setField(registry, "relayDeviceManager", manager);
+        ReflectionTestUtils.setField(registry, "defaultMappingFile",
+                Files.createTempDirectory("racks").resolve("mappings.json").toString());
+        ReflectionTestUtils.setField(registry, "defaultBulkConcurrency", 16);
+        ReflectionTestUtils.setField(registry, "defaultJobThreads", 4);
+        ReflectionTestUtils.setField(registry, "defaultJobQueueCapacity", 32);
+        ReflectionTestUtils.setField(registry, "defaultMaxConcurrentCalls", 64);
+        registry.init();
+
+        SlotMappingService mappings = new SlotMappingService() {
+            @Override
+            public Relay getRelayDeviceAtSlot(String rack, Integer slot) {
+                Integer port = mapped.getOrDefault(slot, slot);
+                // a mapping change landing right after this lookup
+                Integer next = remapAfterLookup.remove(slot);
+                if (next != null) {
+                    mapped.put(slot, next);
+                }
+                return device.relay(port);
+            }
+
+            @Override
+            public List<Integer> getMappedSlots(String rack) {
+                return Arrays.asList(1, 2, 3, 4);
+            }
+        };
+        RelayHistoryService history = new RelayHistoryService();
+        ReflectionTestUtils.setField(history, "transitionsPerPort", 16);
+        ReflectionTestUtils.setField(history, "latencySamplesPerDevice", 16);
+        relayService = new RelayService();
+        ReflectionTestUtils.setField(relayService, "slotMappingService", mappings);
+        ReflectionTestUtils.setField(relayService, "relayStateStore", store);
+        ReflectionTestUtils.setField(relayService, "relayHistoryService", history);
+        ReflectionTestUtils.setField(relayService, "relayAuditJournal", new RelayAuditJournal());
+        ReflectionTestUtils.setField(relayService, "rackRegistry", registry);
+        ReflectionTestUtils.setField(relayService, "clusterService", new ClusterService());
+        ReflectionTestUtils.setField(relayService, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(relayService, "relayCommandSequencer", new RelayCommandSequencer());
+        ReflectionTestUtils.setField(relayService, "idempotentMaxStateAgeMs", 5000L);
+
+        bulkService = new RelayBulkService();
+        ReflectionTestUtils.setField(bulkService, "relayService", relayService);
+        ReflectionTestUtils.setField(bulkService, "slotMappingService", mappings);
+        ReflectionTestUtils.setField(bulkService, "rackRegistry", registry);
+        ReflectionTestUtils.setField(bulkService, "clusterService", new ClusterService());
+    }
+
+    @After
+    public void tearDown() {
+        bulkService.shutdown();
+    }
+
+    private double saved() {
+        return meterRegistry.counter("relay.device.calls.saved", "reason", "state").count();
+    }
+
+    @Test
+    public void idempotentSkipsPortAlreadyInStateTest() {
+        store.recordObserved("1", 1, Status.ON);
+        RelayResponse response = relayService.turnOnOff("rack", 1, "on", true);
+        Assert.assertEquals(Status.ON, response.getStatus());
+        Assert.assertTrue(device.calls.isEmpty());
+        Assert.assertEquals(Status.ON, store.getPortState("1", 1).getDesired());
+        Assert.assertEquals(2.0, saved(), 0.0);
+    }
+
+    @Test
+    public void idempotentComparesInvertedPortAsCommandedTest() {
+        // an inverted port reads OFF while it is on
+        store.recordObserved("1", 2, Status.OFF);
+        relayService.turnOnOff("rack", 2, "ON", true);
+        Assert.assertTrue(device.calls.isEmpty());
+        Assert.assertEquals(Status.ON, store.getPortState("1", 2).getDesired());
+
+        // and ON while it is off, so turning it on has to reach the device
+        store.recordObserved("1", 2, Status.ON);
+        RelayResponse response = relayService.turnOnOff("rack", 2, "ON", true);
+        Assert.assertTrue(device.calls.contains("on 2"));
+        Assert.assertEquals(Status.OFF, response.getStatus());
+        Assert.assertEquals(Status.ON, store.getPortState("1", 2).getDesired());
+        Assert.assertEquals(2.0, saved(), 0.0);
+    }
+
+    @Test
+    public void notIdempotentAlwaysCommandsTest() {
+        store.recordObserved("1", 1, Status.ON);
+        relayService.turnOnOff("rack", 1, "ON", false);
+        Assert.assertTrue(device.calls.contains("on 1"));
+        Assert.assertEquals(0.0, saved(), 0.0);
+    }
+
+    @Test
+    public void commandRunsOnPortItWasQueuedOnTest() {
+        remapAfterLookup.put(1, 3);
+        RelayResponse response = relayService.turnOnOff("rack", 1, "ON", false);
+        Assert.assertTrue(device.calls.contains("on 1"));
+        Assert.assertFalse(device.calls.contains("on 3"));
+        Assert.assertEquals(Status.ON, response.getStatus());
+    }
+
+    @Test
+    public void devicePulseIsLeftToDeviceTest() {
+        device.capabilities.add(RelayCapability.DEVICE_PULSE);
+        relayService.timed("rack", 1, 5);
+        Assert.assertEquals(Collections.singletonList("timed 1 5"), device.calls);
+        // the device's own default pulse time is used when none is given
+        relayService.timed("rack", 1, 0);
+        Assert.assertTrue(device.calls.contains("timed 1 0"));
+    }
+
+    @Test
+    public void pulseIsEmulatedWithoutDevicePulseTest() throws Exception {
+        store.recordDesired("1", 1, Status.OFF);
+        relayService.timed("rack", 1, 1);
+        Assert.assertEquals(Collections.singletonList("on 1"), device.calls);
+        Assert.assertEquals(Status.ON, device.relay(1).status());
+        // a pulse clears the desired state, so the reconciler leaves the port alone
+        Assert.assertNull(store.getPortState("1", 1).getDesired());
+        for (int i = 0; i < 100 && !device.calls.contains("off 1"); i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertTrue(device.calls.contains("off 1"));
+        Assert.assertEquals(Status.OFF, device.relay(1).status());
+    }
+
+    @Test
+    public void commandMidPulseKeepsPortTest() throws Exception {
+        relayService.timed("rack", 1, 1);
+        relayService.turnOnOff("rack", 1, "ON", false);
+        Thread.sleep(1500);
+        Assert.assertFalse(device.calls.contains("off 1"));
+        Assert.assertEquals(Status.ON, device.relay(1).status());
+    }
+
+    @Test
+    public void bulkCommandMidPulseKeepsPortTest() throws Exception {
+        device.capabilities.add(RelayCapability.BULK_COMMAND);
+        relayService.timed("rack", 1, 1);
+        relayService.applyToDevice(device, Collections.singletonMap(1, 1), RelayOperation.ON);
+        Thread.sleep(1500);
+        Assert.assertFalse(device.calls.contains("off 1"));
+        Assert.assertEquals(Status.ON, device.relay(1).status());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emulatedPulseNeedsDurationTest() {
+        relayService.timed("rack", 1, 0);
+    }
+
+    @Test
+    public void bulkCommandGroupsPortsTest() {
+        device.capabilities.add(RelayCapability.BULK_COMMAND);
+        List<SlotResult> results = bulkService.execute("rack", RelayOperation.ON, Arrays.asList(1, 2, 3), 0)
+                .collectList().block();
+        Assert.assertEquals(3, results.size());
+        Assert.assertEquals(Arrays.asList("setStates {1=ON, 2=ON, 3=ON}", "status"), device.calls);
+        for (SlotResult result : results) {
+            Assert.assertTrue(result.getSuccess());
+        }
+        Assert.assertEquals(Status.ON, store.getPortState("1", 3).getDesired());
+    }
+
+    @Test
+    public void bulkWithoutBulkCommandIsPerSlotTest() {
+        List<SlotResult> results = bulkService.execute("rack", RelayOperation.ON, null, 0)
+                .collectList().block();
+        Assert.assertEquals(4, results.size());
+        for (int port = 1; port <= 4; port++) {
+            Assert.assertTrue(device.calls.contains("on " + port));
+        }
+        Assert.assertFalse(device.calls.stream().anyMatch(call -> call.startsWith("setStates")));
+    }
+}
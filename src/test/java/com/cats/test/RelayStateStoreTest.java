@@ -0,0 +1,101 @@
+package com.cats.test;
+
+
+import com.cats.beans.PortState;
+import com.cats.events.RelayDevicesChangedEvent;
+import com.cats.events.RelayStateChangedEvent;
+import com.cats.relay.Status;
+import com.cats.service.RelayStateStore;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class RelayStateStoreTest {
+
+    private final List<RelayStateChangedEvent> events = new ArrayList<>();
+    private RelayStateStore store;
+
+    @Before
+    public void setUp() {
+        store = new RelayStateStore();
+        ReflectionTestUtils.setField(store, "eventPublisher", (ApplicationEventPublisher) event -> {
+            if (event instanceof RelayStateChangedEvent) {
+                events.add((RelayStateChangedEvent) event);
+            }
+        });
+    }
+
+    @Test
+    public void desiredAndObservedTest() {
+        store.recordDesired("1", 1, Status.ON);
+        store.recordObserved("1", Arrays.asList(Status.OFF, Status.ON));
+        PortState state = store.getPortState("1", 1);
+        Assert.assertEquals(Status.ON, state.getDesired());
+        Assert.assertNotNull(state.getDesiredAt());
+        Assert.assertEquals(Status.OFF, state.getObserved());
+        Assert.assertEquals(Status.ON, store.getPortState("1", 2).getObserved());
+        Assert.assertNull(store.getPortState("1", 2).getDesired());
+
+        store.recordDesired("1", 1, null);
+        Assert.assertNull(store.getPortState("1", 1).getDesired());
+        Assert.assertNull(store.getPortState("1", 1).getDesiredAt());
+        // the observed state survives clearing the desired one
+        Assert.assertEquals(Status.OFF, store.getPortState("1", 1).getObserved());
+    }
+
+    @Test
+    public void handedOutStatesNeverChangeTest() {
+        store.recordObserved("1", 1, Status.OFF);
+        PortState before = store.getPortState("1", 1);
+        store.recordObserved("1", 1, Status.ON);
+        Assert.assertEquals(Status.OFF, before.getObserved());
+        Assert.assertEquals(Status.ON, store.getPortState("1", 1).getObserved());
+    }
+
+    @Test
+    public void eventOnlyOnTransitionTest() {
+        store.recordObserved("1", 1, Status.OFF);
+        store.recordObserved("1", 1, Status.OFF);
+        store.recordObserved("1", 1, Status.ON);
+        Assert.assertEquals(2, events.size());
+        Assert.assertNull(events.get(0).getPrevious());
+        Assert.assertEquals(Status.OFF, events.get(1).getPrevious());
+        Assert.assertEquals(Status.ON, events.get(1).getCurrent());
+    }
+
+    @Test
+    public void removedDeviceIsForgottenTest() {
+        store.recordObserved("1", 1, Status.ON);
+        store.recordObserved("2", 1, Status.ON);
+        store.onDevicesChanged(new RelayDevicesChangedEvent(Collections.emptyList(), Collections.emptyList(),
+                Collections.singletonList("1")));
+        Assert.assertNull(store.getPortState("1", 1));
+        Assert.assertTrue(store.getDeviceState("1").isEmpty());
+        Assert.assertEquals(1, store.getDeviceState("2").size());
+    }
+
+    @Test
+    public void versionOnlyOnTransitionTest() {
+        store.recordObserved("1", 1, Status.OFF);
+        store.recordDesired("1", 1, Status.ON);
+        long version = store.getVersion();
+        store.recordObserved("1", 1, Status.OFF);
+        store.recordDesired("1", 1, Status.ON);
+        store.removeDevice("2");
+        Assert.assertEquals(version, store.getVersion());
+
+        store.recordObserved("1", 1, Status.ON);
+        Assert.assertEquals(version + 1, store.getVersion());
+        store.recordDesired("1", 1, null);
+        Assert.assertEquals(version + 2, store.getVersion());
+        store.removeDevice("1");
+        Assert.assertEquals(version + 3, store.getVersion());
+    }
+}
@@ -0,0 +1,156 @@
+package com.cats.test;
+
+
+import com.cats.dto.SlotWaitResult;
+import com.cats.events.RelayStateChangedEvent;
+import com.cats.relay.Relay;
+import com.cats.relay.RelayDevice;
+import com.cats.relay.RelayDeviceConfig;
+import com.cats.relay.Status;
+import com.cats.service.ClusterService;
+import com.cats.service.RelayBuilder;
+import com.cats.service.RelayDeviceManager;
+import com.cats.service.RelayService;
+import com.cats.service.RelayStateStore;
+import com.cats.service.RelayWaitService;
+import com.cats.service.SlotMappingService;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Mono;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RelayWaitServiceTest {
+
+    private RelayStateStore store;
+    private RelayWaitService waitService;
+    private final AtomicInteger reads = new AtomicInteger();
+    private volatile List<Status> deviceStates = Arrays.asList(Status.OFF, Status.OFF, Status.OFF, Status.OFF);
+
+    @Before
+    public void setUp() {
+        RelayBuilder builder = new RelayBuilder();
+        ReflectionTestUtils.setField(builder, "readTimeout", 3L);
+        RelayDeviceManager manager = new RelayDeviceManager();
+        ReflectionTestUtils.setField(manager, "relayBuilder", builder);
+        ReflectionTestUtils.setField(manager, "eventPublisher", (ApplicationEventPublisher) event -> { });
+        RelayDeviceConfig config = new RelayDeviceConfig();
+        config.setDeviceId("1");
+        config.setHost("10.0.0.1");
+        config.setPort(80);
+        config.setMaxPort(4);
+        config.setType("XWR4R1");
+        // port 3 is wired inverted
+        config.setInvertRelays(Arrays.asList(false, false, true, false));
+        manager.apply(Collections.singletonList(config));
+
+        waitService = new RelayWaitService();
+        store = new RelayStateStore();
+        ReflectionTestUtils.setField(store, "eventPublisher", (ApplicationEventPublisher) event -> {
+            if (event instanceof RelayStateChangedEvent) {
+                waitService.onStateChanged((RelayStateChangedEvent) event);
+            }
+        });
+        SlotMappingService mappings = new SlotMappingService() {
+            @Override
+            public Relay getRelayDeviceAtSlot(String rack, Integer slot) {
+                return manager.getDevice("1").relay(slot);
+            }
+        };
+        ReflectionTestUtils.setField(waitService, "maxTimeoutMs", 60000L);
+        ReflectionTestUtils.setField(waitService, "slotMappingService", mappings);
+        ReflectionTestUtils.setField(waitService, "relayStateStore", store);
+        ReflectionTestUtils.setField(waitService, "clusterService", new ClusterService());
+        ReflectionTestUtils.setField(waitService, "relayService", new RelayService() {
+            @Override
+            public List<Status> pollDevice(RelayDevice device) {
+                reads.incrementAndGet();
+                store.recordObserved(device.getDeviceId(), deviceStates);
+                return deviceStates;
+            }
+        });
+    }
+
+    @Test
+    public void completesOnTransitionTest() throws Exception {
+        store.recordObserved("1", 2, Status.OFF);
+        Mono<SlotWaitResult> wait = waitService.await("rack", 2, Status.ON, 10000, false);
+        CompletableFuture<SlotWaitResult> result = wait.toFuture();
+        Thread.sleep(50);
+        Assert.assertFalse(result.isDone());
+
+        // another port changing does not complete the wait
+        store.recordObserved("1", 4, Status.ON);
+        Assert.assertFalse(result.isDone());
+        store.recordObserved("1", 2, Status.ON);
+        SlotWaitResult reached = result.get(1, TimeUnit.SECONDS);
+        Assert.assertTrue(reached.getReached());
+        Assert.assertEquals(Status.ON, reached.getStatus());
+        Assert.assertTrue(reached.getElapsedMs() < 10000);
+    }
+
+    @Test
+    public void alreadyInStateTest() throws Exception {
+        store.recordObserved("1", 1, Status.ON);
+        Thread.sleep(5);
+        deviceStates = Arrays.asList(Status.ON, Status.OFF, Status.OFF, Status.OFF);
+        SlotWaitResult result = waitService.await("rack", 1, Status.ON, 10000, false).block();
+        Assert.assertTrue(result.getReached());
+        // observed before the request, so the device was read to confirm it
+        Assert.assertEquals(1, reads.get());
+    }
+
+    @Test
+    public void staleObservationIsIgnoredTest() throws Exception {
+        store.recordObserved("1", 1, Status.ON);
+        Thread.sleep(5);
+        // the port was turned off since, without the store seeing it
+        SlotWaitResult result = waitService.await("rack", 1, Status.ON, 200, false).block();
+        Assert.assertFalse(result.getReached());
+        Assert.assertEquals(Status.OFF, result.getStatus());
+    }
+
+    @Test
+    public void timeoutAnswersLastObservedTest() {
+        store.recordObserved("1", 4, Status.OFF);
+        SlotWaitResult result = waitService.await("rack", 4, Status.ON, 100, false).block();
+        Assert.assertFalse(result.getReached());
+        Assert.assertEquals(Status.OFF, result.getStatus());
+        Assert.assertTrue(result.getElapsedMs() >= 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void timeoutOutOfRangeTest() {
+        waitService.await("rack", 1, Status.ON, 120000, false);
+    }
+
+    @Test
+    public void invertedPortWaitsForStateAsCommandedTest() throws Exception {
+        store.recordObserved("1", 3, Status.OFF);
+        deviceStates = Arrays.asList(Status.OFF, Status.OFF, Status.OFF, Status.OFF);
+        // an inverted port reads OFF while it is on
+        SlotWaitResult on = waitService.await("rack", 3, Status.ON, 10000, false).block();
+        Assert.assertTrue(on.getReached());
+        Assert.assertEquals(Status.ON, on.getStatus());
+
+        CompletableFuture<SlotWaitResult> off = waitService.await("rack", 3, Status.OFF, 10000, false).toFuture();
+        Thread.sleep(50);
+        Assert.assertFalse(off.isDone());
+        store.recordObserved("1", 3, Status.ON);
+        SlotWaitResult reached = off.get(1, TimeUnit.SECONDS);
+        Assert.assertTrue(reached.getReached());
+        Assert.assertEquals(Status.OFF, reached.getStatus());
+
+        SlotWaitResult timedOut = waitService.await("rack", 3, Status.ON, 100, false).block();
+        Assert.assertFalse(timedOut.getReached());
+        Assert.assertEquals(Status.OFF, timedOut.getStatus());
+    }
+}
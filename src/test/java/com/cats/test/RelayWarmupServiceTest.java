@@ -0,0 +1,105 @@
+package com.cats.test;
+
+
+import com.cats.relay.RelayDevice;
+import com.cats.service.ClusterService;
+import com.cats.service.RelayHistoryService;
+import com.cats.service.RelayService;
+import com.cats.service.RelayStateStore;
+import com.cats.service.RelayWarmupService;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class RelayWarmupServiceTest {
+
+    private FakeRelayDevice up;
+    private FakeRelayDevice unreachable;
+    private FakeRelayDevice slow;
+    private RelayWarmupService warmup;
+
+    @Before
+    public void setUp() {
+        up = new FakeRelayDevice("up", 2);
+        unreachable = new FakeRelayDevice("unreachable", 2);
+        unreachable.failure = new IllegalStateException("connection refused");
+        slow = new FakeRelayDevice("slow", 2);
+
+        RelayStateStore store = new RelayStateStore();
+        ReflectionTestUtils.setField(store, "eventPublisher", (ApplicationEventPublisher) event -> { });
+        RelayHistoryService history = new RelayHistoryService();
+        ReflectionTestUtils.setField(history, "transitionsPerPort", 16);
+        ReflectionTestUtils.setField(history, "latencySamplesPerDevice", 16);
+        RelayService relayService = new RelayService();
+        ReflectionTestUtils.setField(relayService, "relayStateStore", store);
+        ReflectionTestUtils.setField(relayService, "relayHistoryService", history);
+        ClusterService clusterService = new ClusterService() {
+            @Override
+            public List<RelayDevice> getLocalDevices() {
+                return Arrays.asList(up, unreachable, slow);
+            }
+        };
+
+        warmup = new RelayWarmupService();
+        ReflectionTestUtils.setField(warmup, "enabled", true);
+        ReflectionTestUtils.setField(warmup, "timeoutMs", 500L);
+        ReflectionTestUtils.setField(warmup, "concurrency", 4);
+        ReflectionTestUtils.setField(warmup, "clusterService", clusterService);
+        ReflectionTestUtils.setField(warmup, "relayService", relayService);
+    }
+
+    @Test
+    public void startupIsNotHeldUpTest() throws Exception {
+        slow.latencyMs = 5000;
+        long start = System.currentTimeMillis();
+        warmup.run(null);
+        Assert.assertTrue(System.currentTimeMillis() - start < 500);
+        Assert.assertFalse(warmup.isDone());
+        Assert.assertEquals(Status.OUT_OF_SERVICE, warmup.health().getStatus());
+
+        awaitDone();
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+        Health health = warmup.health();
+        Assert.assertEquals(Status.UP, health.getStatus());
+        Map<?, ?> devices = (Map<?, ?>) health.getDetails().get("devices");
+        Assert.assertEquals("UP", devices.get("up"));
+        Assert.assertEquals("UNREACHABLE", devices.get("unreachable"));
+        Assert.assertEquals("TIMED_OUT", devices.get("slow"));
+    }
+
+    @Test
+    public void finishesBeforeDeadlineTest() throws Exception {
+        ReflectionTestUtils.setField(warmup, "timeoutMs", 60000L);
+        long start = System.currentTimeMillis();
+        warmup.run(null);
+        awaitDone();
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+        Map<?, ?> devices = (Map<?, ?>) warmup.health().getDetails().get("devices");
+        Assert.assertEquals("UP", devices.get("slow"));
+        Assert.assertTrue(up.calls.contains("status"));
+    }
+
+    @Test
+    public void disabledIsReadyAtOnceTest() {
+        ReflectionTestUtils.setField(warmup, "enabled", false);
+        warmup.run(null);
+        Assert.assertTrue(warmup.isDone());
+        Assert.assertEquals(Status.UP, warmup.health().getStatus());
+        Assert.assertTrue(up.calls.isEmpty());
+    }
+
+    private void awaitDone() throws InterruptedException {
+        for (int i = 0; i < 200 && !warmup.isDone(); i++) {
+            Thread.sleep(25);
+        }
+        Assert.assertTrue(warmup.isDone());
+    }
+}
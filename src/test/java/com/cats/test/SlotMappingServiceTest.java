@@ -0,0 +1,303 @@
+package com.cats.test;
+
+
+import com.cats.config.RelayConfiguration;
+import com.cats.events.RacksChangedEvent;
+import com.cats.events.SlotMappingsChangedEvent;
+import com.cats.exceptions.MappingConflictException;
+import com.cats.exceptions.SlotMappingException;
+import com.cats.relay.RackConfig;
+import com.cats.relay.RelayDeviceConfig;
+import com.cats.service.RackRegistry;
+import com.cats.service.RelayBuilder;
+import com.cats.service.RelayDeviceManager;
+import com.cats.service.SlotMappingService;
+import com.cats.utils.SlotToPortMappings;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Two services sharing one mapping file, as two instances sharing the /relayms volume would.
+ */
+public class SlotMappingServiceTest {
+
+    private Path file;
+    private RackRegistry registry;
+    private RelayDeviceManager manager;
+    private final List<SlotMappingService> services = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        RelayBuilder builder = new RelayBuilder();
+        ReflectionTestUtils.setField(builder, "readTimeout", 3L);
+        manager = new RelayDeviceManager();
+        ReflectionTestUtils.setField(manager, "relayBuilder", builder);
+        ReflectionTestUtils.setField(manager, "eventPublisher", (ApplicationEventPublisher) event -> { });
+        manager.apply(Arrays.asList(device("1"), device("2")));
+
+        file = Files.createTempDirectory("mappings").resolve("mappings.json");
+        registry = new RackRegistry();
+        ReflectionTestUtils.setField(registry, "relayConfiguration", new RelayConfiguration());
+        ReflectionTestUtils.setField(registry, "relayDeviceManager", manager);
+        ReflectionTestUtils.setField(registry, "defaultMappingFile", file.toString());
+        ReflectionTestUtils.setField(registry, "defaultBulkConcurrency", 16);
+        ReflectionTestUtils.setField(registry, "defaultJobThreads", 4);
+        ReflectionTestUtils.setField(registry, "defaultJobQueueCapacity", 32);
+        ReflectionTestUtils.setField(registry, "defaultMaxConcurrentCalls", 64);
+        registry.init();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (SlotMappingService service : services) {
+            service.shutdown();
+        }
+    }
+
+    private static RelayDeviceConfig device(String deviceId) {
+        RelayDeviceConfig config = new RelayDeviceConfig();
+        config.setDeviceId(deviceId);
+        config.setHost("10.0.0." + deviceId);
+        config.setPort(80);
+        config.setMaxPort(4);
+        config.setType("XWR4R1");
+        return config;
+    }
+
+    private SlotMappingService service(boolean watch) throws IOException {
+        SlotMappingService service = new SlotMappingService();
+        ReflectionTestUtils.setField(service, "relayDeviceManager", manager);
+        ReflectionTestUtils.setField(service, "rackRegistry", registry);
+        ReflectionTestUtils.setField(service, "watchEnabled", watch);
+        ReflectionTestUtils.setField(service, "eventPublisher", (ApplicationEventPublisher) event -> { });
+        service.init();
+        services.add(service);
+        return service;
+    }
+
+    @Test
+    public void commitOnLatestVersionTest() throws Exception {
+        SlotMappingService first = service(false);
+        SlotMappingService second = service(false);
+        first.setMapping("rack", "1", "2:1", null);
+        // the second service has not seen the first commit, yet must not overwrite it
+        second.setMapping("rack", "2", "2:2", null);
+
+        SlotToPortMappings committed = new ObjectMapper().readValue(file.toFile(), SlotToPortMappings.class);
+        Assert.assertEquals(2L, committed.getVersion());
+        Assert.assertEquals("2:1", committed.getMapping("1"));
+        Assert.assertEquals("2:2", committed.getMapping("2"));
+        Assert.assertTrue(Files.readString(file).startsWith("{\"version\":2,"));
+    }
+
+    @Test
+    public void unusableMappingIsNotFoundTest() throws Exception {
+        // hand-edited file with a cleared slot and one missing its port
+        Files.writeString(file, "{\"version\":1,\"slots\":{\"1\":\"N/A\",\"2\":\"1\",\"3\":\"1:2\"}}");
+        SlotMappingService service = service(false);
+        for (int slot = 1; slot <= 2; slot++) {
+            try {
+                service.getRelayDeviceAtSlot("rack", slot);
+                Assert.fail("slot " + slot + " has no usable mapping");
+            } catch (SlotMappingException e) {
+                // answered 404 like any unmapped slot
+            }
+        }
+        Assert.assertEquals(Integer.valueOf(2), service.getRelayDeviceAtSlot("rack", 3).getPort());
+    }
+
+    @Test
+    public void concurrentCommitsTest() throws Exception {
+        SlotMappingService first = service(false);
+        SlotMappingService second = service(false);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> commits = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            SlotMappingService service = i % 2 == 0 ? first : second;
+            String slot = String.valueOf(100 + i);
+            commits.add(executor.submit(() -> {
+                service.setMapping("rack", slot, "1:1", null);
+                return null;
+            }));
+        }
+        for (Future<?> commit : commits) {
+            commit.get();
+        }
+        executor.shutdown();
+        SlotToPortMappings committed = new ObjectMapper().readValue(file.toFile(), SlotToPortMappings.class);
+        Assert.assertEquals(40L, committed.getVersion());
+        for (int i = 0; i < 40; i++) {
+            Assert.assertEquals("1:1", committed.getMapping(String.valueOf(100 + i)));
+        }
+    }
+
+    @Test
+    public void rebuiltRackCommitsQueueOnFileTest() throws Exception {
+        RelayConfiguration configuration = new RelayConfiguration();
+        ReflectionTestUtils.setField(registry, "relayConfiguration", configuration);
+        SlotMappingService service = service(false);
+        ReflectionTestUtils.setField(registry, "eventPublisher", (ApplicationEventPublisher) event -> {
+            if (event instanceof RacksChangedEvent) {
+                service.onRacksChanged((RacksChangedEvent) event);
+            }
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> commits = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            String slot = String.valueOf(100 + i);
+            commits.add(executor.submit(() -> {
+                service.setMapping("rack", slot, "1:1", null);
+                return null;
+            }));
+            if (i % 4 == 0) {
+                // a new rack object for the same mapping file, while commits on the old one may still run
+                RackConfig settings = new RackConfig();
+                settings.setName(RackRegistry.DEFAULT_RACK);
+                settings.setMappingFile(file.toString());
+                settings.setBulkConcurrency(2 + i % 8);
+                configuration.setRacks(Collections.singletonList(settings));
+                registry.refresh();
+            }
+        }
+        for (Future<?> commit : commits) {
+            commit.get();
+        }
+        executor.shutdown();
+        SlotToPortMappings committed = new ObjectMapper().readValue(file.toFile(), SlotToPortMappings.class);
+        Assert.assertEquals(40L, committed.getVersion());
+    }
+
+    @Test
+    public void watcherReloadsOtherCommitsTest() throws Exception {
+        SlotMappingService first = service(false);
+        SlotMappingService second = service(true);
+        Assert.assertEquals("1:1", second.getMapping("rack", "1"));
+        first.setMapping("rack", "1", "2:4", null);
+        for (int i = 0; i < 50 && second.getMappings("rack").getVersion() == 0; i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(1L, second.getMappings("rack").getVersion());
+        Assert.assertEquals("2:4", second.getMapping("rack", "1"));
+    }
+
+    @Test
+    public void staleExpectedVersionConflictsTest() throws Exception {
+        SlotMappingService first = service(false);
+        SlotMappingService second = service(false);
+        long seen = second.getMappings("rack").getVersion();
+        first.setMapping("rack", "1", "2:1", seen);
+        try {
+            // second has not reloaded, so it still edits from the version first has moved past
+            second.setMapping("rack", "2", "2:2", seen);
+            Assert.fail("stale write was committed");
+        } catch (MappingConflictException e) {
+            Assert.assertEquals(seen + 1, e.getCurrentVersion());
+        }
+        Assert.assertEquals("1:2", second.getMapping("rack", "2"));
+        second.setMapping("rack", "2", "2:2", seen + 1);
+        Assert.assertEquals("2:1", second.getMapping("rack", "1"));
+        Assert.assertEquals(seen + 2, second.getMappings("rack").getVersion());
+    }
+
+    @Test
+    public void reverseIndexAndBatchOperationsTest() throws Exception {
+        SlotMappingService service = service(false);
+        Assert.assertEquals(Arrays.asList("5", "6", "7", "8"), service.getMappings("rack").slotsOf("2"));
+
+        service.swapSlots("rack", "1", "6", null);
+        Assert.assertEquals(Arrays.asList("1", "5", "7", "8"), service.getMappings("rack").slotsOf("2"));
+        Assert.assertEquals(Arrays.asList("6"), service.getMappings("rack").slotsAt("1:1"));
+
+        service.remapDevice("rack", "2", "1", null);
+        Assert.assertEquals("1:2", service.getMapping("rack", "1"));
+        Assert.assertEquals(Arrays.asList("5", "6"), service.getMappings("rack").slotsAt("1:1"));
+        Assert.assertTrue(service.getMappings("rack").slotsOf("2").isEmpty());
+
+        try {
+            service.setMapping("rack", "1", "1:0", null);
+            Assert.fail("port 0 was accepted");
+        } catch (SlotMappingException e) {
+            Assert.assertEquals(2L, service.getMappings("rack").getVersion());
+        }
+    }
+
+    @Test
+    public void deviceIdsIgnoreCaseTest() throws Exception {
+        RelayDeviceConfig pdu = device("3");
+        pdu.setDeviceId("Pdu-A");
+        manager.apply(Arrays.asList(device("1"), device("2"), pdu));
+        SlotMappingService service = service(false);
+        // slots 9 to 12 are mapped to Pdu-A by default
+        service.setMapping("rack", "13", "pdu-a:3", null);
+        Assert.assertSame(manager.getDevice("Pdu-A"), service.getRelayDeviceAtSlot("rack", 13).getDevice());
+        Assert.assertEquals(Arrays.asList("9", "10", "11", "12", "13"), service.getMappings("rack").slotsOf("PDU-A"));
+        Assert.assertEquals(Arrays.asList("11", "13"), service.getMappings("rack").slotsAt("Pdu-A:3"));
+
+        service.remapDevice("rack", "PDU-A", "1", null);
+        Assert.assertEquals("1:3", service.getMapping("rack", "13"));
+        Assert.assertTrue(service.getMappings("rack").slotsOf("pdu-a").isEmpty());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void mappingsAreReadOnlyTest() throws Exception {
+        service(false).getMappings("rack").getMappings().put("1", "2:2");
+    }
+
+    @Test
+    public void changesAnnouncedAfterLockReleasedTest() throws Exception {
+        SlotMappingService first = service(false);
+        SlotMappingService second = service(false);
+        List<SlotMappingsChangedEvent> events = new CopyOnWriteArrayList<>();
+        List<Boolean> lockFree = new CopyOnWriteArrayList<>();
+        ReflectionTestUtils.setField(second, "eventPublisher", (ApplicationEventPublisher) event -> {
+            events.add((SlotMappingsChangedEvent) event);
+            Path lockFile = file.resolveSibling(file.getFileName() + ".lock");
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.WRITE);
+                 FileLock lock = channel.tryLock()) {
+                lockFree.add(lock != null);
+            } catch (Exception e) {
+                lockFree.add(false);
+            }
+        });
+        long seen = second.getMappings("rack").getVersion();
+        first.setMapping("rack", "1", "2:1", null);
+        try {
+            second.setMapping("rack", "2", "2:2", seen);
+            Assert.fail("stale write was committed");
+        } catch (MappingConflictException e) {
+            // the commit of the first service is still taken on and announced
+            Assert.assertEquals(1, events.size());
+            Assert.assertEquals("2:1", events.get(0).getSlots().get("1"));
+        }
+        second.setMapping("rack", "2", "2:2", seen + 1);
+        Assert.assertEquals(2, events.size());
+        Assert.assertEquals(Arrays.asList(true, true), lockFree);
+    }
+
+    @Test
+    public void emptiedMappingsStayEmptyTest() throws Exception {
+        SlotMappingService first = service(false);
+        first.removeMappings("rack", null);
+        Assert.assertTrue(service(false).getMappedSlots("rack").isEmpty());
+    }
+}
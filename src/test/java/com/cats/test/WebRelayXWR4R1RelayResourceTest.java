@@ -36,11 +36,13 @@ import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
 import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -221,4 +223,30 @@ public class WebRelayXWR4R1RelayResourceTest {
                         .contentTypeCompatibleWith(MediaType.TEXT_PLAIN));
     }
 
+    @Test
+    public void bulkStatusStreamTest() throws Exception {
+        relayMock1.enqueue(new MockResponse()
+                .setBody(ON_RESPONSE)
+                .addHeader("Content-Type", "text/xml"));
+        relayMock2.enqueue(new MockResponse()
+                .setBody(OFF_RESPONSE)
+                .addHeader("Content-Type", "text/xml"));
+
+        MvcResult result = mvc.perform(post("/rack/relay/bulk/status")
+                        .queryParam("slots", "1", "5")
+                        .accept(MediaType.APPLICATION_NDJSON))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        String body = mvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content()
+                        .contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON))
+                .andReturn().getResponse().getContentAsString();
+
+        String[] lines = body.trim().split("\n");
+        Assert.assertEquals(3, lines.length);
+        Assert.assertEquals(2, objectMapper.readTree(lines[2]).get("total").asInt());
+    }
+
 }